@@ -1,43 +1,31 @@
 from SimpleCV import Image
-import socket
+from DetectorProtocol import serve, encodeBarcodes
 import cv2
 import cv
 import numpy as np
 import sys
 
-def connectToServerAndHandleConnection():
+def findBarcodes(img_np):
     
-    HOST = 'localhost'
-    PORT = 9898
-    
-    while True:
-        try:
-            
-            sock = socket.socket(socket.AF_INET,socket.SOCK_STREAM)
-            sock.connect((HOST,PORT))
+    try:
+        
+        img_ipl = cv.CreateImageHeader((img_np.shape[1], img_np.shape[0]), cv.IPL_DEPTH_8U, 3)
+        cv.SetData(img_ipl, img_np.tostring(), img_np.dtype.itemsize * 3 * img_np.shape[1])
         
-            img_str = sock.recv(100000)
-            
-            nparr = np.fromstring(img_str, np.uint8)
-            img_np = cv2.imdecode(nparr, cv2.CV_LOAD_IMAGE_COLOR) # cv2.IMREAD_COLOR in OpenCV 3.1
-            
-            img_ipl = cv.CreateImageHeader((img_np.shape[1], img_np.shape[0]), cv.IPL_DEPTH_8U, 3)
-            cv.SetData(img_ipl, img_np.tostring(), img_np.dtype.itemsize * 3 * img_np.shape[1])
-            
-            image = Image(img_ipl)
-            barcodes = image.findBarcode()
-            stringOut = '[]\n'
-            if barcodes != None:
-                stringOut = ''
-                for barcode in barcodes:
-                    stringOut += str([barcode.x,barcode.y,int(barcode.length()), int(barcode.width()), barcode.data]) + ';'
-                stringOut = stringOut[:-1]
-                stringOut += '\n'
-            sock.send(stringOut)
-            
-        except:
-            continue
+        image = Image(img_ipl)
+        barcodes = image.findBarcode()
+        found = []
+        if barcodes != None:
+            for barcode in barcodes:
+                found.append((int(barcode.x),int(barcode.y),int(barcode.length()), int(barcode.width()), barcode.data))
+        return encodeBarcodes(found)
         
-connectToServerAndHandleConnection()
+    except:
+        # every request must be answered, or the server waits for it forever
+        return encodeBarcodes([])
 
-    
+HOST = 'localhost'
+# the server may pass a different port as the first argument
+PORT = int(sys.argv[1]) if len(sys.argv) > 1 else 9898
+
+serve(HOST, PORT, findBarcodes)
@@ -0,0 +1,167 @@
+# -*- coding: utf-8 -*-
+"""
+Framing shared by the detector workers (BallFinder.py, BarcodeFinder.py) and
+the Java DetectorConnection.
+
+The worker connects once and keeps the connection open. Requests are
+
+    int requestId, int length, byte kind, length bytes of payload
+
+and replies are
+
+    int requestId, int length, length bytes of payload
+
+all big-endian. Every reply carries the id of the request it answers. The
+server may send several requests before reading the first reply.
+
+A request of kind JPEG_FRAME carries an encoded image. A request of kind
+SHARED_FRAME carries only int slot, long sequence: the raw BGR frame is in
+slot of the server's SharedFrameRing, a memory-mapped file that workers on the
+same host read in place (see SharedFrameRing.java for the layout).
+
+Any number of workers may connect to the same port; the server spreads frames
+across them, so running more copies of a worker scales detection across cores.
+"""
+import mmap
+import os
+import socket
+import struct
+import tempfile
+import time
+
+import cv2
+import numpy as np
+
+REQUEST_HEADER = struct.Struct('>iib')
+REPLY_HEADER = struct.Struct('>ii')
+
+# request kinds, in the order of DetectorRequestKind.java
+JPEG_FRAME = 0
+SHARED_FRAME = 1
+
+SHARED_FRAME_REQUEST = struct.Struct('>iq')
+
+RING_MAGIC = 0x414D4652
+RING_VERSION = 1
+RING_HEADER = struct.Struct('>iiii')
+RING_HEADER_BYTES = 64
+SLOT_HEADER = struct.Struct('>qiiii')
+SLOT_HEADER_BYTES = 32
+
+# detector results, see BinaryResultFormat.java
+RESULT_MARKER = 0xA5
+RESULT_VERSION = 1
+RESULT_HEADER = struct.Struct('>BBi')
+BALL_RECORD = struct.Struct('>iii')
+BARCODE_RECORD = struct.Struct('>iiiiH')
+
+def encodeBalls(balls):
+    """
+    Encodes a list of (x, y, radius) as a binary ball result.
+    """
+    return (RESULT_HEADER.pack(RESULT_MARKER, RESULT_VERSION, len(balls))
+            + b''.join(BALL_RECORD.pack(x, y, radius) for x, y, radius in balls))
+
+def encodeBarcodes(barcodes):
+    """
+    Encodes a list of (x, y, width, height, title) as a binary barcode
+    result.
+    """
+    records = [RESULT_HEADER.pack(RESULT_MARKER, RESULT_VERSION, len(barcodes))]
+    for x, y, width, height, title in barcodes:
+        title = title or b''
+        if not isinstance(title, bytes):
+            title = title.encode('utf-8')
+        title = title[:0xFFFF]
+        records.append(BARCODE_RECORD.pack(x, y, width, height, len(title)) + title)
+    return b''.join(records)
+
+def recvExactly(sock, length):
+    chunks = []
+    remaining = length
+    while remaining > 0:
+        chunk = sock.recv(min(remaining, 1 << 20))
+        if not chunk:
+            raise EOFError('server closed the connection')
+        chunks.append(chunk)
+        remaining -= len(chunk)
+    return b''.join(chunks)
+
+def ringPath(port):
+    """
+    Where the server on port keeps its SharedFrameRing by default.
+    """
+    directory = '/dev/shm' if os.path.isdir('/dev/shm') else tempfile.gettempdir()
+    return os.path.join(directory, 'armmark1-frames-' + str(port))
+
+class SharedFrameRing(object):
+    """
+    Read-only view of the server's SharedFrameRing.
+    """
+
+    def __init__(self, path):
+        self.path = path
+        self.ring = None
+
+    def open(self):
+        # an earlier mapping is unmapped once no image views it any more
+        self.ring = None
+        with open(self.path, 'rb') as ringFile:
+            ring = mmap.mmap(ringFile.fileno(), 0, access=mmap.ACCESS_READ)
+        magic, version, self.slotCount, self.slotBytes = RING_HEADER.unpack_from(ring, 0)
+        if magic != RING_MAGIC or version != RING_VERSION:
+            ring.close()
+            raise IOError('%s is not a version %d frame ring' % (self.path, RING_VERSION))
+        self.ring = ring
+
+    def frame(self, slot, sequence):
+        """
+        Returns the frame in slot as an image viewing the ring, without
+        copying, or None if slot no longer holds the frame with sequence.
+        The view is only valid until the request is answered.
+        """
+        for attempt in range(2):
+            if self.ring is None or attempt > 0:
+                # the server may have recreated the ring since it was mapped
+                self.open()
+            if slot < 0 or slot >= self.slotCount:
+                continue
+            start = RING_HEADER_BYTES + slot * (SLOT_HEADER_BYTES + self.slotBytes)
+            slotSequence, width, height, channels, length = SLOT_HEADER.unpack_from(self.ring, start)
+            if slotSequence != sequence:
+                continue
+            pixels = np.frombuffer(self.ring, np.uint8, length, start + SLOT_HEADER_BYTES)
+            return pixels.reshape((height, width, channels))
+        return None
+
+def serve(host, port, handleImage):
+    """
+    Answers requests with handleImage(BGR image) -> reply payload (for example
+    from encodeBalls()), forever.
+    Reconnects whenever the connection to the server drops. A frame that
+    cannot be read is answered with an empty payload.
+    """
+    ring = SharedFrameRing(ringPath(port))
+    while True:
+        try:
+            sock = socket.create_connection((host, port))
+        except socket.error:
+            time.sleep(.5)
+            continue
+        sock.setsockopt(socket.IPPROTO_TCP, socket.TCP_NODELAY, 1)
+        try:
+            while True:
+                requestId, length, kind = REQUEST_HEADER.unpack(recvExactly(sock, REQUEST_HEADER.size))
+                payload = recvExactly(sock, length)
+                image = None
+                if kind == JPEG_FRAME:
+                    image = cv2.imdecode(np.frombuffer(payload, np.uint8), 1) # cv2.IMREAD_COLOR
+                elif kind == SHARED_FRAME:
+                    try:
+                        image = ring.frame(*SHARED_FRAME_REQUEST.unpack(payload))
+                    except (IOError, OSError, ValueError):
+                        image = None
+                reply = handleImage(image) if image is not None else b''
+                sock.sendall(REPLY_HEADER.pack(requestId, len(reply)) + reply)
+        except (EOFError, socket.error):
+            sock.close()
@@ -10,9 +10,13 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import ballutils.BallElement;
-import localizationutils.ArmPositionSearch;
+import concurrencyutils.VersionedSnapshot;
+import concurrencyutils.VersionedSnapshot.Snapshot;
+import detectionutils.DetectionResult;
+import localizationutils.GripperSearchStrategy;
 import localizationutils.LocalizeArm;
 import localizationutils.ObjectPosition;
 import motionutils.Motion;
@@ -23,24 +27,60 @@ public class ArmServerAutonomous {
 
     int timer = 0;
     
-    private final BooleanContainer shouldDetectElements;
+    // how long an answer to the arm waits for detections newer than the
+    // ones it last answered with
+    private static final long DETECTION_WAIT_MILLIS = 100;
+
+    private final VersionedSnapshot<Boolean> shouldDetectElements;
+
+    private final VersionedSnapshot<DetectionResult> detections;
+
+    // detections older than this say where things were rather than where
+    // they are, so the arm is answered as if nothing had been detected
+    private final long maxDetectionAgeMillis;
+
+    // the version of the detections the arm was last answered with
+    private long seenDetectionVersion;
 
     private final ServerSocket serverSocket;
 
+    // finds the joint positions that reach an object
+    private final GripperSearchStrategy gripperSearch;
+
+    // the track of the ball the arm is looking at, so that it keeps looking
+    // at the same ball while it stays in view
+    private int targetTrackId = BallElement.UNTRACKED;
 
     /**
      * TODO: spec!!
      * 
      * @param port
+     * @param detections the latest barcodes and balls, which the arm is
+     *            answered with
+     * @param maxDetectionAgeMillis how long ago detections may have been
+     *            published and still be answered with
+     * @param gripperSearch how to find joint positions that reach an object
      * 
      * @throws IOException
      */
-    public ArmServerAutonomous(int port, BooleanContainer shouldDetectElements) throws IOException {
+    public ArmServerAutonomous(int port, VersionedSnapshot<Boolean> shouldDetectElements,
+            VersionedSnapshot<DetectionResult> detections, long maxDetectionAgeMillis,
+            GripperSearchStrategy gripperSearch) throws IOException {
         serverSocket = new ServerSocket(port);
         this.shouldDetectElements = shouldDetectElements;
+        this.detections = detections;
+        this.maxDetectionAgeMillis = maxDetectionAgeMillis;
+        this.seenDetectionVersion = detections.version();
+        this.gripperSearch = gripperSearch;
     }
     
-    public void handleAutonomous(List<QRElement> barcodes, List<BallElement> balls) throws IOException, InterruptedException{
+    /**
+     * Waits for the arm to connect and send its joint positions, and only
+     * then takes the detections to answer with, so that the time spent
+     * waiting for the arm never makes them stale. Not threadsafe; called by
+     * one thread at a time.
+     */
+    public void handleAutonomous() throws IOException, InterruptedException{
         Socket socket = serverSocket.accept();
         
         BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
@@ -48,7 +88,36 @@ public class ArmServerAutonomous {
         
         String line = in.readLine();
         
-        handleStandard(line, out, barcodes, balls);
+        DetectionResult detected = freshDetections();
+        if (detected == null) {
+            detected = DetectionResult.none(VersionedSnapshot.NO_FRAME, 0);
+        }
+        handleStandard(line, out, detected.barcodes().getCollection(), detected.balls().getCollection());
+    }
+
+    /**
+     * Waits up to DETECTION_WAIT_MILLIS for detections newer than the ones
+     * the arm was last answered with.
+     * 
+     * @return them, or null if none came or they were published more than
+     *         maxDetectionAgeMillis ago.
+     */
+    private DetectionResult freshDetections() throws InterruptedException {
+        Snapshot<DetectionResult> detected = detections.awaitNewerThan(seenDetectionVersion, DETECTION_WAIT_MILLIS,
+                TimeUnit.MILLISECONDS);
+        if (detected == null) {
+            return null;
+        }
+        seenDetectionVersion = detected.version();
+        return detected.millisSincePublished() <= maxDetectionAgeMillis ? detected.value() : null;
+    }
+    
+    /**
+     * Stops listening for the arm; a thread waiting in handleAutonomous()
+     * gets an IOException.
+     */
+    public void close() throws IOException {
+        serverSocket.close();
     }
     
     private void handleStandard(String line, PrintWriter out, List<QRElement> barcodes, List<BallElement> balls) throws InterruptedException {
@@ -79,6 +148,8 @@ public class ArmServerAutonomous {
             for (int index = 0; index < 3; index++) {
                 initialArmJointPositions[index] = (int) data[index];
             }
+            // the wrist is held here, except by a wrist space search, which
+            // starts from here and may move it
             int[] givenHandJointPositions = new int[2];
             givenHandJointPositions[0] = 157;
             givenHandJointPositions[1] = 90;
@@ -86,7 +157,7 @@ public class ArmServerAutonomous {
              * for(int index = 3; index < 5; index++){
              * givenHandJointPositions[index-3] = (int) data[index]; }
              */
-            int[] possiblePathToObject = ArmPositionSearch.gripperPositionSearch(objectPosition,
+            int[] possiblePathToObject = gripperSearch.gripperPositionSearch(objectPosition,
                     initialArmJointPositions, givenHandJointPositions);
 
             if (possiblePathToObject != null) {
@@ -105,10 +176,10 @@ public class ArmServerAutonomous {
         
         if(!command.equals("")){
             
-            shouldDetectElements.updateBoolean(false);
+            shouldDetectElements.publish(false);
             Thread.sleep(2000);
         }else{
-            shouldDetectElements.updateBoolean(true);
+            shouldDetectElements.publish(true);
         }
 
     }
@@ -168,6 +239,24 @@ public class ArmServerAutonomous {
 
     }
     
+    /**
+     * @return the ball on the track looked at last, if it is still in balls,
+     *         and otherwise the first ball in balls (the oldest track), which
+     *         becomes the one looked at.
+     */
+    private BallElement chooseBall(List<BallElement> balls) {
+        if (targetTrackId != BallElement.UNTRACKED) {
+            for (BallElement ball : balls) {
+                if (ball.trackId() == targetTrackId) {
+                    return ball;
+                }
+            }
+        }
+        BallElement ball = balls.get(0);
+        targetTrackId = ball.trackId();
+        return ball;
+    }
+
     private int[] lookToDesiredBall(List<BallElement> balls) {
         if (balls.size() == 0) {
             return null;
@@ -175,7 +264,7 @@ public class ArmServerAutonomous {
 
         double wristLengthCm = 10;
 
-        BallElement ballToLookAt = balls.get(0);
+        BallElement ballToLookAt = chooseBall(balls);
 
         double distanceToBallCm = ballToLookAt.distance();
 
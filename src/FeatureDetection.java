@@ -3,8 +3,14 @@
 
 
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.opencv.core.Core;
 
+import detectionutils.DetectorProcess;
+
 import javafx.application.Application;
 import javafx.stage.Stage;
 import javafx.scene.Scene;
@@ -25,6 +31,11 @@ import javafx.fxml.FXMLLoader;
 public class FeatureDetection extends Application
 {
     
+	// the detector worker processes this application started
+	private final List<DetectorProcess> detectorWorkers = new ArrayList<>();
+	
+	private FeatureDetectionController controller;
+	
 	@Override
 	public void start(Stage primaryStage)
 	{
@@ -46,24 +57,12 @@ public class FeatureDetection extends Application
 			// show the GUI
 			primaryStage.show();
 			// init the controller
-			FeatureDetectionController controller = loader.getController();
+			controller = loader.getController();
             
-			controller.init();
+			controller.init(config());
 			
-			//TODO: change this
-            Runtime runtime = Runtime.getRuntime();
-            runtime.exec("python BarcodeFinder.py");
-            //runtime.exec("python BallFinder.py");
-
-            primaryStage.setOnCloseRequest(event -> {
-                try {
-                    //TODO: change once the barcode is compiled into a unique .exe
-                    runtime.exec("taskkill /F /IM python.exe");
-                } catch (Exception e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
-            });
+			// the workers are held by their handles and stopped in stop()
+			detectorWorkers.addAll(controller.startDetectorWorkers());
 			
 		}
 		catch (Exception e)
@@ -72,7 +71,33 @@ public class FeatureDetection extends Application
 		}
 	}
 	
+	/**
+	 * @return the configuration in the properties file named by the first
+	 *         command line argument, or the defaults if there is none.
+	 */
+	private VisionPipelineConfig config() throws IOException
+	{
+		List<String> arguments = getParameters().getRaw();
+		if (arguments.isEmpty())
+		{
+			return VisionPipelineConfig.defaults();
+		}
+		return VisionPipelineConfig.load(arguments.get(0));
+	}
 	
+	@Override
+	public void stop() throws IOException, InterruptedException
+	{
+		if (controller != null)
+		{
+			controller.shutDown();
+		}
+		for (DetectorProcess worker : detectorWorkers)
+		{
+			worker.close();
+		}
+		detectorWorkers.clear();
+	}
 	
 	public static void main(String[] args)
 	{
@@ -0,0 +1,72 @@
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Core;
+
+import detectionutils.DetectorProcess;
+
+/**
+ * 
+ * @author trist
+ *
+ *         Runs the ARM MARK 1 server without a display, for machines that
+ *         have none: the same VisionPipeline the GUI runs, with the camera on
+ *         from the start and no frames annotated or shown.
+ * 
+ *         Usage: HeadlessServer [config.properties]
+ * 
+ *         The optional argument is a properties file read by
+ *         VisionPipelineConfig; without it the defaults are used. The server
+ *         runs until the process is told to stop (for example by Ctrl-C or
+ *         SIGTERM), when it shuts the pipeline and its detector workers down.
+ */
+public class HeadlessServer {
+
+    // how often the pipeline's counters are printed
+    private static final long STATUS_INTERVAL_SECONDS = 60;
+
+    public static void main(String[] args) throws Exception {
+        // load the native OpenCV library
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        VisionPipelineConfig config = args.length > 0 ? VisionPipelineConfig.load(args[0])
+                : VisionPipelineConfig.defaults();
+        System.out.print(config);
+
+        VisionPipeline pipeline = new VisionPipeline(config);
+        // shared with the shutdown hook, which may run at any time
+        List<DetectorProcess> detectorWorkers = new CopyOnWriteArrayList<>();
+        CountDownLatch stopped = new CountDownLatch(1);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    pipeline.shutDown();
+                    for (DetectorProcess worker : detectorWorkers) {
+                        worker.close();
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    stopped.countDown();
+                }
+            }
+        }, "shut-down"));
+
+        pipeline.start();
+        // the workers are held by their handles and stopped by the hook
+        detectorWorkers.addAll(pipeline.startDetectorWorkers());
+        pipeline.setCameraActive(true);
+
+        // the pipeline's threads are daemons, so this thread keeps the
+        // process alive
+        while (!stopped.await(STATUS_INTERVAL_SECONDS, TimeUnit.SECONDS)) {
+            System.out.println(pipeline);
+        }
+    }
+}
@@ -0,0 +1,781 @@
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import ballutils.BallCollection;
+import ballutils.BallElement;
+import detectionutils.BallDetector;
+import detectionutils.BallDetectorEngine;
+import detectionutils.BarcodeDetector;
+import detectionutils.ColorBlobSearch;
+import detectionutils.DetectionResult;
+import detectionutils.DetectionStage;
+import detectionutils.DetectorProcess;
+import detectionutils.HoughBallDetector;
+import detectionutils.RegionOfInterestBallDetector;
+import concurrencyutils.ActivationGate;
+import concurrencyutils.VersionedSnapshot;
+import displayutils.FrameListener;
+import frameutils.Frame;
+import frameutils.FramePool;
+import frameutils.LatestFrameSlot;
+import frameutils.RegionStatistics;
+import localizationutils.BestFirstGripperSearch;
+import localizationutils.BreadthFirstGripperSearch;
+import localizationutils.GripperSearchMode;
+import localizationutils.GripperSearchStrategy;
+import localizationutils.WristSpaceGripperSearch;
+import pipelineutils.Stage;
+import pipelineutils.StageCounters;
+import parsers.BallParser;
+import trackingutils.BallTracker;
+import trackingutils.ColorHistogramTracker;
+import qrutils.QRElement;
+import visionservers.ArmVisionServer;
+import visionservers.BallExtractionServer;
+import visionservers.BarcodeExtractionServer;
+import visionservers.EncodedFrame;
+
+/**
+ * 
+ * @author trist
+ *
+ *         Everything the ARM MARK 1 server does, without a GUI: receives the
+ *         frames from the arm's camera, detects the barcodes and balls in
+ *         them, and drives the arm to grab what it finds. The ports, thread
+ *         counts and tuning come from a VisionPipelineConfig.
+ * 
+ *         Nothing is shown; a display (or anything else that wants the
+ *         annotated frames) subscribes with addFrameListener(). Frames are
+ *         only annotated while there is a listener.
+ * 
+ *         Frames go through stages, each with its own thread and a bounded
+ *         queue in front of it, so that each step works on the next frame as
+ *         soon as it is done with the last one:
+ * 
+ *         <pre>
+ *         frameIngester  receives JPEGs from the arm into latestFrame
+ *         frameGrabber   decodes the newest one into a pooled Frame
+ *         detect         finds, tracks and publishes the barcodes and balls
+ *         annotate       draws them and hands the frame to the listeners
+ *         </pre>
+ * 
+ *         When the camera is turned off, the frameGrabber sends a marker
+ *         down the same stages, so the listeners are told the frames have
+ *         stopped on the annotate stage's thread, after the last frame.
+ * 
+ *         What a full queue does is configured per stage (see
+ *         OverflowPolicy); toString() reports each stage's throughput, queue
+ *         depth and service time, the frameGrabber's decoding included.
+ */
+public class VisionPipeline {
+
+    /*
+     * Thread safety arguments:
+     * 
+     * The only objects shared among threads are threadsafe. The EncodedFrame
+     * buffers in latestFrame are only ever owned by one thread at a time (the
+     * frameIngester or the frameGrabber), see LatestFrameSlot. A decoded Frame
+     * is owned by one stage at a time, along with the DetectedFrame it travels
+     * in: the frameGrabber, then the detect stage, then the annotate stage;
+     * whichever drops it or finishes with it releases it. The listeners are
+     * only called by the annotate stage, which has one thread. The trackers,
+     * searches and detectedThisFrame are only used by the detect stage, which
+     * has one thread. listeners is a copy-on-write list. decodeCounters is
+     * threadsafe.
+     * 
+     * Safety from rep exposure:
+     * 
+     * All instance variables are private. Public methods return nothing, an
+     * immutable value, or a new list.
+     * 
+     * Abstraction function:
+     * 
+     * Represents the pipeline that drives the ARM MARK 1 to carry out
+     * autonomous tasks, configured by config, processing frames while
+     * cameraActive is open.
+     * 
+     * Rep invariants:
+     * 
+     * None decided on for now that aren't statically checked.
+     */
+
+    // how long the frameGrabber waits for a new frame before checking whether
+    // the camera was turned off
+    private static final long FRAME_WAIT_MILLIS = 100;
+
+    // the arm is not answered with detections older than this
+    private static final long MAX_DETECTION_AGE_MILLIS = 500;
+
+    // how long shutDown() waits for each thread to finish
+    private static final long THREAD_EXIT_WAIT_MILLIS = 1000;
+
+    private final VisionPipelineConfig config;
+
+    private ArmVisionServer visionServer;
+
+    private DetectionStage detectionStage;
+
+    // gives the detected balls identities across frames; only used by the
+    // detect stage
+    private final BallTracker ballTracker = new BallTracker();
+
+    private long framesSeen = 0;
+
+    private ArmServerAutonomous autonomyServer;
+
+    // the threads a WRIST_SPACE gripper search runs on, so that it never
+    // holds up the common pool the detect stage uses; null in other modes
+    private ForkJoinPool gripperSearchPool;
+
+    double[] averageBallColor = new double[3];
+
+    // A threadsafe datatype that can be shared among threads (such as this
+    // thread and the autonomyServer thread so that the arm can decide where to
+    // go to grab a barcode or a ball). The barcodes and balls in it were
+    // always found in the same frame.
+    private final VersionedSnapshot<DetectionResult> detections = new VersionedSnapshot<>(
+            DetectionResult.none(VersionedSnapshot.NO_FRAME, 0));
+
+    // open while the camera is on; the worker threads park at it while the
+    // camera is off, and it is shut down by shutDown()
+    private final ActivationGate cameraActive = new ActivationGate(false);
+
+    private final VersionedSnapshot<Boolean> shouldDetectElements = new VersionedSnapshot<>(true);
+
+    // hands the newest frame received by the frameIngester to the
+    // frameGrabber; frames the frameGrabber is too slow to take are dropped
+    private final LatestFrameSlot<EncodedFrame> latestFrame;
+
+    // scratch space for the ball color statistics; only used by the detect
+    // stage
+    private final RegionStatistics regionStatistics = new RegionStatistics();
+
+    // finds a ball by its color when no circles are detected; only used by
+    // the detect stage
+    private final ColorBlobSearch colorBlobSearch = new ColorBlobSearch();
+
+    // follows the ball by its colors on frames where no circles are
+    // detected; only used by the detect stage
+    private final ColorHistogramTracker colorTracker = new ColorHistogramTracker();
+
+    // whether the detectors ran on the frame being processed, rather than
+    // the tracker predicting it; only used by the detect stage
+    private boolean detectedThisFrame = false;
+
+    // get each processed frame on the annotate stage
+    private final List<FrameListener> listeners = new CopyOnWriteArrayList<>();
+
+    // detects the barcodes and balls in the decoded frames; one thread, since
+    // the trackers depend on the order of the frames
+    private Stage<DetectedFrame> detectStage;
+
+    // draws the detections on the frames and hands them to the listeners;
+    // one thread, so the listeners see the frames in order
+    private Stage<DetectedFrame> annotateStage;
+
+    // the frames decoded by the frameGrabber; their native memory is
+    // allocated once and reused
+    private final FramePool framePool;
+
+    // the frameGrabber's decoding, counted like a stage's work so that
+    // toString() reports it with the stages; its queue is latestFrame
+    private final StageCounters decodeCounters = new StageCounters("decode", 1);
+
+    private Thread frameIngester;
+
+    private Thread frameGrabber;
+
+    private Thread autonomyUpdater;
+
+    /**
+     * Creates a pipeline that does nothing until start().
+     */
+    public VisionPipeline(VisionPipelineConfig config) {
+        this.config = config;
+        this.framePool = new FramePool(config.framePoolSize(), config.frameCapacity());
+        this.latestFrame = new LatestFrameSlot<>(() -> new EncodedFrame(config.frameCapacity()));
+    }
+
+    /**
+     * Starts all of the servers that connect to the client programs on the
+     * arm, and the threads that process the frames, all wrapped into one
+     * program to take advantage of as many cores as possible. Frames are only
+     * processed while the camera is active (see setCameraActive()).
+     */
+    public void start() throws IOException {
+
+        averageBallColor[0] = 0;
+        averageBallColor[1] = 0;
+        averageBallColor[2] = 0;
+
+        visionServer = new ArmVisionServer(config.visionPort(), config.visionStreamMode());
+
+        BarcodeDetector barcodeDetector = null;
+        if (config.detectBarcodes()) {
+            barcodeDetector = new BarcodeExtractionServer(config.barcodePort(), config.detectorMaxInFlight(),
+                    config.detectorTransportMode(), config.detectorReplyTimeoutMillis());
+        }
+
+        BallDetector ballDetector;
+        if (config.ballDetectorEngine() == BallDetectorEngine.IN_PROCESS) {
+            ballDetector = new HoughBallDetector();
+        } else {
+            ballDetector = new BallExtractionServer(config.ballPort(), config.detectorMaxInFlight(),
+                    config.detectorTransportMode(), config.detectorReplyTimeoutMillis());
+        }
+        if (config.ballRegionOfInterest()) {
+            ballDetector = new RegionOfInterestBallDetector(ballDetector);
+        }
+
+        detectionStage = new DetectionStage(ballDetector, barcodeDetector, config.detectionDeadlineMillis(),
+                config.detectionThreads());
+
+        GripperSearchStrategy gripperSearch;
+        if (config.gripperSearchMode() == GripperSearchMode.BEST_FIRST) {
+            gripperSearch = new BestFirstGripperSearch(config.gripperSearchMaxExpansions(),
+                    config.gripperSearchTravelWeight());
+        } else if (config.gripperSearchMode() == GripperSearchMode.WRIST_SPACE) {
+            gripperSearchPool = new ForkJoinPool(config.gripperSearchThreads());
+            gripperSearch = new WristSpaceGripperSearch(gripperSearchPool, config.gripperSearchWristStep(),
+                    config.gripperSearchTimeBudgetMillis());
+        } else {
+            gripperSearch = new BreadthFirstGripperSearch();
+        }
+        autonomyServer = new ArmServerAutonomous(config.autonomyPort(), shouldDetectElements, detections,
+                MAX_DETECTION_AGE_MILLIS, gripperSearch);
+
+        frameIngester = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+
+                    // parks while the camera is off
+                    while (cameraActive.awaitOpen()) {
+                        // never waits on processing: if the frameGrabber is
+                        // still busy, the frame it has not taken yet is
+                        // dropped in favour of this one
+                        if (visionServer.receiveFrame(latestFrame.writeBuffer())) {
+                            latestFrame.publish();
+                        }
+                    }
+
+                } catch (Exception e) {
+                    if (!cameraActive.isShutDown()) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }, "frame-ingester");
+
+        frameIngester.setDaemon(true);
+        frameIngester.start();
+
+        detectStage = new Stage<>("detect", 1, config.detectQueueCapacity(), config.detectOverflowPolicy(),
+                this::detect, DetectedFrame::release);
+        annotateStage = new Stage<>("annotate", 1, config.annotateQueueCapacity(),
+                config.annotateOverflowPolicy(), this::annotate, DetectedFrame::release);
+
+        frameGrabber = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+
+                    while (true) {
+                        if (!cameraActive.isOpen()) {
+                            // follows the frames still in the stages, so
+                            // that none of them is shown after it
+                            detectStage.put(DetectedFrame.FRAMES_STOPPED);
+                            // parks until the camera is turned back on
+                            if (!cameraActive.awaitOpen()) {
+                                return;
+                            }
+                        }
+
+                        EncodedFrame receivedFrame = latestFrame.awaitLatest(FRAME_WAIT_MILLIS,
+                                TimeUnit.MILLISECONDS);
+                        if (receivedFrame != null) {
+                            decodeCounters.countSubmitted();
+                            // null when every pooled frame is still in use, in
+                            // which case this frame is dropped
+                            Frame frame = framePool.acquire();
+                            if (frame == null) {
+                                decodeCounters.countDropped();
+                            } else {
+                                long start = System.nanoTime();
+                                boolean decoded = false;
+                                try {
+                                    decoded = frame.decode(receivedFrame);
+                                } finally {
+                                    if (decoded) {
+                                        decodeCounters.countProcessed(start);
+                                    } else {
+                                        decodeCounters.countFailed(start);
+                                        frame.release();
+                                    }
+                                }
+                                if (decoded) {
+                                    // the detect stage owns the frame from
+                                    // here, even if it drops it
+                                    detectStage.submit(new DetectedFrame(frame));
+                                }
+                            }
+                        }
+                    }
+
+                } catch (Exception e) {
+                    if (!cameraActive.isShutDown()) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }, "frame-grabber");
+
+        frameGrabber.setDaemon(true);
+        frameGrabber.start();
+
+        autonomyUpdater = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+
+                    while (cameraActive.awaitOpen()) {
+                        // localizes the arm and tells it where to move based
+                        // on the latest barcodes and balls, taken once the
+                        // arm has connected, and never acting on the same
+                        // ones twice
+                        autonomyServer.handleAutonomous();
+                    }
+
+                } catch (Exception e) {
+                    if (!cameraActive.isShutDown()) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }, "autonomy-updater");
+
+        autonomyUpdater.setDaemon(true);
+        autonomyUpdater.start();
+
+    }
+
+    /**
+     * Starts the detector worker processes the configuration asks for:
+     * BarcodeFinder.py workers if barcodes are detected, and BallFinder.py
+     * workers if balls are detected remotely. They connect to this pipeline's
+     * ports.
+     * 
+     * @return the workers started; the caller closes them after shutDown().
+     */
+    public List<DetectorProcess> startDetectorWorkers() throws IOException {
+        List<DetectorProcess> workers = new ArrayList<>();
+        if (config.detectBarcodes()) {
+            for (int worker = 0; worker < config.barcodeWorkers(); worker++) {
+                workers.add(DetectorProcess.start("BarcodeFinder.py", config.barcodePort()));
+            }
+        }
+        if (config.ballDetectorEngine() == BallDetectorEngine.REMOTE) {
+            for (int worker = 0; worker < config.ballWorkers(); worker++) {
+                workers.add(DetectorProcess.start("BallFinder.py", config.ballPort()));
+            }
+        }
+        return workers;
+    }
+
+    /**
+     * Adds listener to the subscribers that get every processed frame.
+     */
+    public void addFrameListener(FrameListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeFrameListener(FrameListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * The detect stage: finds the barcodes and balls in a frame, publishes
+     * them, and passes the frame on to the annotate stage if anything listens
+     * for frames. Passes FRAMES_STOPPED on as it is.
+     * 
+     * @param item
+     *            a decoded frame, which this releases or passes on.
+     */
+    private void detect(DetectedFrame item) throws IOException, InterruptedException {
+        if (item == DetectedFrame.FRAMES_STOPPED) {
+            annotateStage.put(item);
+            return;
+        }
+        Frame frame = item.frame;
+        boolean passedOn = false;
+        try {
+            DetectionResult detected;
+            if (shouldDetectElements.look()) {
+                detected = followBalls(frame.image(), detectOrPredict(frame));
+            } else {
+                ballTracker.clear();
+                colorTracker.lose();
+                detected = DetectionResult.none(frame.sequence(), frame.captureTimeMillis());
+            }
+            publishDetections(detected);
+
+            if (!listeners.isEmpty()) {
+                passedOn = true;
+                item.detections = detected;
+                annotateStage.submit(item);
+            }
+        } finally {
+            if (!passedOn) {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * The annotate stage: draws what was detected in a frame on it and hands
+     * it to the listeners, or tells them the frames have stopped.
+     * 
+     * @param detected
+     *            a frame and what was found in it, whose frame is released
+     *            afterwards; or FRAMES_STOPPED.
+     */
+    private void annotate(DetectedFrame detected) {
+        if (detected == DetectedFrame.FRAMES_STOPPED) {
+            for (FrameListener listener : listeners) {
+                listener.framesStopped();
+            }
+            return;
+        }
+        try {
+            Mat imageAsMat = detected.frame.image();
+            drawRectangleAndLabelAroundBarcodes(imageAsMat, detected.detections);
+            drawCircleAroundBalls(imageAsMat, detected.detections);
+
+            for (FrameListener listener : listeners) {
+                listener.frameProcessed(imageAsMat);
+            }
+        } finally {
+            detected.frame.release();
+        }
+    }
+
+    private void publishDetections(DetectionResult detected) {
+        detections.publish(detected, detected.frameId(), detected.captureTimeMillis());
+    }
+
+    /**
+     * Runs the detectors on one frame in config.detectionInterval(), searching
+     * for the barcodes and balls at the same time, and passes the balls found
+     * through the ball tracker. On the other frames the tracker predicts where
+     * the balls are, and the last barcodes found are kept.
+     */
+    private DetectionResult detectOrPredict(Frame frame) throws IOException, InterruptedException {
+        detectedThisFrame = framesSeen++ % config.detectionInterval() == 0;
+        if (detectedThisFrame) {
+            DetectionResult detected = detectionStage.detect(frame);
+            return detected.withBalls(ballTracker.update(detected.balls()));
+        }
+        DetectionResult previous = detections.look();
+        return new DetectionResult(frame.sequence(), frame.captureTimeMillis(), previous.barcodes(),
+                ballTracker.predict(), previous.isComplete());
+    }
+
+    /**
+     * Turns wireless video streaming and autonomous actions from the robot on
+     * or off. The threads park while the camera is off.
+     */
+    public void setCameraActive(boolean active) {
+        if (active) {
+            cameraActive.open();
+        } else {
+            cameraActive.close();
+        }
+    }
+
+    public boolean isCameraActive() {
+        return cameraActive.isOpen();
+    }
+
+    @Override
+    public String toString() {
+        return "Frames " + latestFrame + ", frame pool " + framePool + ", "
+                + decodeCounters.metrics(latestFrame.framesWaiting(), 1) + ", " + detectStage + ", " + annotateStage
+                + ", detection " + detectionStage;
+    }
+
+    /**
+     * Stops the worker threads, waiting briefly for each to finish, and
+     * closes the servers. The pipeline cannot be used afterwards.
+     */
+    public void shutDown() throws IOException, InterruptedException {
+        cameraActive.shutDown();
+
+        // unblocks the threads waiting on sockets; start() may not have got
+        // far
+        if (visionServer != null) {
+            visionServer.close();
+        }
+        if (autonomyServer != null) {
+            autonomyServer.close();
+        }
+        if (detectionStage != null) {
+            detectionStage.close();
+        }
+        if (gripperSearchPool != null) {
+            gripperSearchPool.shutdownNow();
+        }
+
+        for (Thread thread : new Thread[] { frameIngester, frameGrabber, autonomyUpdater }) {
+            if (thread != null) {
+                thread.interrupt();
+                thread.join(THREAD_EXIT_WAIT_MILLIS);
+            }
+        }
+
+        // releases the frames still queued
+        if (detectStage != null) {
+            detectStage.close();
+        }
+        if (annotateStage != null) {
+            annotateStage.close();
+        }
+    }
+
+    /**
+     * 
+     * @param frame
+     * 
+     *            Takes in frame and draws rectangles with width, length and
+     *            center points matching the width, length and center points of
+     *            all barcodes in detected on the frame.
+     */
+    private void drawRectangleAndLabelAroundBarcodes(Mat frame, DetectionResult detected) {
+
+        List<QRElement> barcodes = detected.barcodes().getCollection();
+
+        for (QRElement barcode : barcodes) {
+            int topLeftX = barcode.x() - barcode.width() / 2;
+            int topLeftY = barcode.y() - barcode.height() / 2;
+
+            int bottomRightX = barcode.x() + barcode.width() / 2;
+            int bottomRightY = barcode.y() + barcode.height() / 2;
+
+            Point topLeft = new Point();
+            topLeft.x = topLeftX;
+            topLeft.y = topLeftY;
+
+            Point bottomRight = new Point();
+            bottomRight.x = bottomRightX;
+            bottomRight.y = bottomRightY;
+
+            Point textStart = new Point();
+            textStart.x = topLeft.x;
+            textStart.y = topLeft.y - 2;
+
+            Imgproc.rectangle(frame, topLeft, bottomRight, new Scalar(59, 59, 187), 1);
+
+            Imgproc.putText(frame, barcode.title().toString(), textStart, 2, .5, new Scalar(0, 59, 187));
+        }
+
+    }
+
+    /**
+     * 
+     * @param frame
+     * 
+     *            Takes in frame and draws circles around all circles in
+     *            detected on the frame.
+     */
+    private void drawCircleAroundBalls(Mat frame, DetectionResult detected) {
+
+        for (BallElement ball : detected.balls().getCollection()) {
+
+            Point drawPoint = new Point();
+            drawPoint.x = ball.x();
+            drawPoint.y = ball.y();
+
+            Point textPoint = textPoint(ball);
+
+            Point topLeft = topLeftInside(ball);
+
+            Point bottomRight = bottomRightInside(ball);
+
+            if (isInside(ball, frame)) {
+
+                Imgproc.circle(frame, drawPoint, ball.radius(), new Scalar(59, 59, 187));
+
+                Imgproc.rectangle(frame, topLeft, bottomRight, new Scalar(59, 59, 187), 1);
+
+                Imgproc.putText(frame, "BALL", textPoint, 2, .5, new Scalar(0, 59, 187));
+            }
+        }
+    }
+
+    /**
+     * Learns the colors of the balls in detected from frame, and if there are
+     * no balls, looks for one by its colors.
+     * 
+     * @return detected, with the ball found by its colors if it had no balls.
+     */
+    private DetectionResult followBalls(Mat frame, DetectionResult detected) {
+
+        List<BallElement> balls = detected.balls().getCollection();
+
+        // the colors are learned from one ball, and only where it was
+        // detected rather than predicted
+        boolean learned = !detectedThisFrame;
+
+        for (BallElement ball : balls) {
+
+            if (isInside(ball, frame)) {
+
+                Point topLeft = topLeftInside(ball);
+
+                Point bottomRight = bottomRightInside(ball);
+
+                averageBallColor = regionalAverage(frame, (int) topLeft.y, (int) bottomRight.y, (int) topLeft.x,
+                        (int) bottomRight.x);
+                if (!learned) {
+                    colorTracker.learn(frame, ball.x(), ball.y(), ball.radius());
+                    learned = true;
+                }
+            }
+        }
+        
+        if (balls.isEmpty()) {
+
+            // follow the ball by its colors from where it was last seen, and
+            // only look for it over the whole frame once that loses it
+            int[] bestFitData = colorTracker.track(frame);
+            if (bestFitData == null) {
+                bestFitData = searchForBestFitRegion(frame, averageBallColor);
+            }
+            
+            if(bestFitData != null){
+            BallElement ball = new BallElement(bestFitData[0], bestFitData[1], bestFitData[2], 
+                    BallParser.distance(bestFitData[2], frame.cols(), frame.rows()), frame.cols(), frame.rows());
+            
+            List<BallElement> ballList = new ArrayList<>();
+            
+            ballList.add(ball);
+            
+            return detected.withBalls(new BallCollection(ballList));
+            }
+
+        }
+
+        return detected;
+    }
+
+    private static Point textPoint(BallElement ball) {
+        return new Point(ball.x() - ball.radius(), ball.y() - ball.radius());
+    }
+
+    // the corners of the square inside the ball
+    private static Point topLeftInside(BallElement ball) {
+        return new Point(ball.x() - Math.sqrt(2) * .5 * ball.radius(), ball.y() - Math.sqrt(2) * .5 * ball.radius());
+    }
+
+    private static Point bottomRightInside(BallElement ball) {
+        return new Point(ball.x() + Math.sqrt(2) * .5 * ball.radius(), ball.y() + Math.sqrt(2) * .5 * ball.radius());
+    }
+
+    // whether the ball's label and the square inside it are in the frame
+    private static boolean isInside(BallElement ball, Mat frame) {
+        Point textPoint = textPoint(ball);
+        Point bottomRight = bottomRightInside(ball);
+        return textPoint.x > 0 && textPoint.y > 0 && bottomRight.x < frame.cols() && bottomRight.y < frame.rows();
+    }
+
+    private double[] regionalAverage(Mat frame, int dtop, int dbottom, int dleft, int dright) {
+        return regionStatistics.mean(frame, dtop, dbottom, dleft, dright);
+    }
+
+    private int[] searchForBestFitRegion(Mat frame, double[] averageColorToMatch) {
+        return colorBlobSearch.search(frame, averageColorToMatch);
+    }
+    
+    /*
+    private int blobAreaFromBlobSeed(Point seed){
+        
+        BlockingQueue
+        
+        while 
+    }
+    
+    private List<Point> successors(Mat frame, Point parent, Point seed){
+        List<Point> children = new ArrayList<>();
+        
+        List<Point> possibleChildren = new ArrayList<>();
+        possibleChildren.add(new Point(parent.x++,parent.y++));
+        possibleChildren.add(new Point(parent.x++,parent.y--));
+        possibleChildren.add(new Point(parent.x--,parent.y++));
+        possibleChildren.add(new Point(parent.x--,parent.y--));
+        possibleChildren.add(new Point(parent.x++,parent.y));
+        possibleChildren.add(new Point(parent.x,parent.y++));
+        possibleChildren.add(new Point(parent.x--,parent.y));
+        possibleChildren.add(new Point(parent.x,parent.y--));
+        
+        for(Point possibleChild : possibleChildren){
+            if(possibleChild.x > 0 && possibleChild.x < frame.cols() && possibleChild.y > 0 && possibleChild.y < frame.rows() && 
+                    colorDistance(frame.get((int)possibleChild.y, (int)possibleChild.x), frame.get((int)seed.y, (int)seed.x)) < 100){
+                children.add(possibleChild);
+            }
+        }
+        
+        return children;
+        
+    }
+    
+    */
+    
+    private double colorDistance(double[] color1, double[] color2){
+        return Math.abs(color1[0] - color2[0]) + Math.abs(color1[1] - color2[1]) + Math.abs(color1[2] - color2[2]);
+    }
+
+    /**
+     * A frame on its way through the detect and annotate stages, with what was
+     * detected in it once the detect stage has run. Like the frame, it is
+     * owned by one stage at a time.
+     */
+    private static class DetectedFrame {
+
+        /**
+         * Follows the last frame before the camera was turned off. If a stage
+         * drops it, it is to make room for frames after the camera came back
+         * on, which supersede it.
+         */
+        private static final DetectedFrame FRAMES_STOPPED = new DetectedFrame(null);
+
+        private final Frame frame;
+
+        private DetectionResult detections;
+
+        private DetectedFrame(Frame frame) {
+            this.frame = frame;
+        }
+
+        /**
+         * Releases the frame, for a stage that drops or is done with it.
+         */
+        private void release() {
+            if (frame != null) {
+                frame.release();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,417 @@
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import detectionutils.BallDetectorEngine;
+import localizationutils.GripperSearchMode;
+import pipelineutils.OverflowPolicy;
+import visionservers.DetectorTransport;
+import visionservers.DetectorTransportMode;
+import visionservers.VisionStreamMode;
+
+/**
+ *
+ * @author trist
+ *
+ *         The ports, thread counts and tuning of a VisionPipeline, read from a
+ *         properties file. Every key is optional. Keys left out keep the
+ *         pipeline doing what the ARM MARK 1 has always done: the same ports,
+ *         a connection per camera frame, balls found by BallFinder.py workers
+ *         in every frame's JPEG sent over a socket, no barcode detection and a
+ *         breadth-first gripper search. Keys for what it never had take the
+ *         defaults listed in server.properties. For example:
+ *
+ *         <pre>
+ *         vision.port = 9797
+ *         detection.threads = 2
+ *         workers.barcode = 2
+ *         ball.engine = IN_PROCESS
+ *         </pre>
+ */
+public class VisionPipelineConfig {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents a pipeline configuration in which each key has the value in
+     * properties, or its default if properties has none.
+     *
+     * Rep invariants:
+     *
+     * Every value in properties parses as the type of its key.
+     *
+     * Thread safety arguments:
+     *
+     * Immutable: properties is a private copy that is never modified after
+     * construction.
+     */
+
+    public static final String AUTONOMY_PORT = "autonomy.port";
+
+    public static final String VISION_PORT = "vision.port";
+
+    public static final String BARCODE_PORT = "barcode.port";
+
+    public static final String BALL_PORT = "ball.port";
+
+    public static final String VISION_STREAM_MODE = "vision.streamMode";
+
+    public static final String DETECTOR_TRANSPORT_MODE = "detector.transportMode";
+
+    public static final String DETECTOR_MAX_IN_FLIGHT = "detector.maxInFlight";
+
+    public static final String DETECTOR_REPLY_TIMEOUT_MILLIS = "detector.replyTimeoutMillis";
+
+    public static final String BALL_ENGINE = "ball.engine";
+
+    public static final String BALL_REGION_OF_INTEREST = "ball.regionOfInterest";
+
+    public static final String DETECT_BARCODES = "barcodes.detect";
+
+    public static final String DETECTION_INTERVAL = "detection.interval";
+
+    public static final String DETECTION_DEADLINE_MILLIS = "detection.deadlineMillis";
+
+    public static final String DETECTION_THREADS = "detection.threads";
+
+    public static final String BARCODE_WORKERS = "workers.barcode";
+
+    public static final String BALL_WORKERS = "workers.ball";
+
+    public static final String FRAME_CAPACITY = "frame.capacity";
+
+    public static final String FRAME_POOL_SIZE = "frame.poolSize";
+
+    public static final String DISPLAY_MAX_FRAMES_PER_SECOND = "display.maxFramesPerSecond";
+
+    public static final String DETECT_QUEUE_CAPACITY = "stage.detect.capacity";
+
+    public static final String DETECT_OVERFLOW_POLICY = "stage.detect.policy";
+
+    public static final String ANNOTATE_QUEUE_CAPACITY = "stage.annotate.capacity";
+
+    public static final String ANNOTATE_OVERFLOW_POLICY = "stage.annotate.policy";
+
+    public static final String GRIPPER_SEARCH_MODE = "search.mode";
+
+    public static final String GRIPPER_SEARCH_MAX_EXPANSIONS = "search.maxExpansions";
+
+    public static final String GRIPPER_SEARCH_TRAVEL_WEIGHT = "search.travelWeight";
+
+    public static final String GRIPPER_SEARCH_WRIST_STEP = "search.wristStep";
+
+    public static final String GRIPPER_SEARCH_TIME_BUDGET_MILLIS = "search.timeBudgetMillis";
+
+    public static final String GRIPPER_SEARCH_THREADS = "search.threads";
+
+    private static final Properties DEFAULTS = new Properties();
+
+    static {
+        DEFAULTS.setProperty(AUTONOMY_PORT, "4444");
+        DEFAULTS.setProperty(VISION_PORT, "9797");
+        DEFAULTS.setProperty(BARCODE_PORT, "9898");
+        DEFAULTS.setProperty(BALL_PORT, "9696");
+        // what the camera client on the arm speaks; PERSISTENT_STREAM needs a
+        // client that frames its frames
+        DEFAULTS.setProperty(VISION_STREAM_MODE, VisionStreamMode.ACCEPT_PER_FRAME.name());
+        // the workers may run on another host; SHARED_MEMORY is faster when
+        // they run on this one
+        DEFAULTS.setProperty(DETECTOR_TRANSPORT_MODE, DetectorTransportMode.JPEG_SOCKET.name());
+        DEFAULTS.setProperty(DETECTOR_MAX_IN_FLIGHT, "4");
+        DEFAULTS.setProperty(DETECTOR_REPLY_TIMEOUT_MILLIS,
+                String.valueOf(DetectorTransport.DEFAULT_REPLY_TIMEOUT_MILLIS));
+        DEFAULTS.setProperty(BALL_ENGINE, BallDetectorEngine.REMOTE.name());
+        // every frame is searched whole
+        DEFAULTS.setProperty(BALL_REGION_OF_INTEREST, "false");
+        DEFAULTS.setProperty(DETECT_BARCODES, "false");
+        // the detectors run on one frame in this many; the ball tracker
+        // predicts where the balls are on the others
+        DEFAULTS.setProperty(DETECTION_INTERVAL, "1");
+        // how long a frame waits for its slowest detector
+        DEFAULTS.setProperty(DETECTION_DEADLINE_MILLIS, "250");
+        DEFAULTS.setProperty(DETECTION_THREADS, "2");
+        DEFAULTS.setProperty(BARCODE_WORKERS, "1");
+        DEFAULTS.setProperty(BALL_WORKERS, "1");
+        DEFAULTS.setProperty(FRAME_CAPACITY, String.valueOf(64 * 1024));
+        // enough for a frame being decoded, and one in each stage and its
+        // queue
+        DEFAULTS.setProperty(FRAME_POOL_SIZE, "8");
+        DEFAULTS.setProperty(DISPLAY_MAX_FRAMES_PER_SECOND, "30");
+        // the stages work on the newest frames, dropping the ones they are
+        // too slow for
+        DEFAULTS.setProperty(DETECT_QUEUE_CAPACITY, "2");
+        DEFAULTS.setProperty(DETECT_OVERFLOW_POLICY, OverflowPolicy.DROP_OLDEST.name());
+        DEFAULTS.setProperty(ANNOTATE_QUEUE_CAPACITY, "2");
+        DEFAULTS.setProperty(ANNOTATE_OVERFLOW_POLICY, OverflowPolicy.DROP_OLDEST.name());
+        DEFAULTS.setProperty(GRIPPER_SEARCH_MODE, GripperSearchMode.BREADTH_FIRST.name());
+        DEFAULTS.setProperty(GRIPPER_SEARCH_MAX_EXPANSIONS, "4096");
+        DEFAULTS.setProperty(GRIPPER_SEARCH_TRAVEL_WEIGHT, "0.02");
+        DEFAULTS.setProperty(GRIPPER_SEARCH_WRIST_STEP, "5");
+        DEFAULTS.setProperty(GRIPPER_SEARCH_TIME_BUDGET_MILLIS, "200");
+        DEFAULTS.setProperty(GRIPPER_SEARCH_THREADS, "2");
+    }
+
+    private final Properties properties;
+
+    private VisionPipelineConfig(Properties properties) {
+        this.properties = new Properties();
+        this.properties.putAll(properties);
+        validate();
+    }
+
+    /**
+     * @return the configuration with every key at its default.
+     */
+    public static VisionPipelineConfig defaults() {
+        return new VisionPipelineConfig(new Properties());
+    }
+
+    /**
+     * @param path
+     *            a properties file.
+     * @return the configuration in the file.
+     * @throws IOException
+     *             if the file cannot be read.
+     * @throws IllegalArgumentException
+     *             if a value in the file is not valid for its key.
+     */
+    public static VisionPipelineConfig load(String path) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(path)) {
+            properties.load(in);
+        }
+        return new VisionPipelineConfig(properties);
+    }
+
+    /**
+     * @return the configuration in properties.
+     * @throws IllegalArgumentException
+     *             if a value is not valid for its key.
+     */
+    public static VisionPipelineConfig from(Properties properties) {
+        return new VisionPipelineConfig(properties);
+    }
+
+    public int autonomyPort() {
+        return intValue(AUTONOMY_PORT);
+    }
+
+    public int visionPort() {
+        return intValue(VISION_PORT);
+    }
+
+    public int barcodePort() {
+        return intValue(BARCODE_PORT);
+    }
+
+    public int ballPort() {
+        return intValue(BALL_PORT);
+    }
+
+    public VisionStreamMode visionStreamMode() {
+        return VisionStreamMode.valueOf(value(VISION_STREAM_MODE));
+    }
+
+    public DetectorTransportMode detectorTransportMode() {
+        return DetectorTransportMode.valueOf(value(DETECTOR_TRANSPORT_MODE));
+    }
+
+    public int detectorMaxInFlight() {
+        return intValue(DETECTOR_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @return how long a detector worker may leave a request unanswered
+     *         before it is disconnected.
+     */
+    public long detectorReplyTimeoutMillis() {
+        return Long.parseLong(value(DETECTOR_REPLY_TIMEOUT_MILLIS));
+    }
+
+    public BallDetectorEngine ballDetectorEngine() {
+        return BallDetectorEngine.valueOf(value(BALL_ENGINE));
+    }
+
+    public boolean ballRegionOfInterest() {
+        return Boolean.parseBoolean(value(BALL_REGION_OF_INTEREST));
+    }
+
+    public boolean detectBarcodes() {
+        return Boolean.parseBoolean(value(DETECT_BARCODES));
+    }
+
+    public int detectionInterval() {
+        return intValue(DETECTION_INTERVAL);
+    }
+
+    public long detectionDeadlineMillis() {
+        return Long.parseLong(value(DETECTION_DEADLINE_MILLIS));
+    }
+
+    /**
+     * @return the number of threads that wait for the detectors.
+     */
+    public int detectionThreads() {
+        return intValue(DETECTION_THREADS);
+    }
+
+    /**
+     * @return the number of BarcodeFinder.py workers to start.
+     */
+    public int barcodeWorkers() {
+        return intValue(BARCODE_WORKERS);
+    }
+
+    /**
+     * @return the number of BallFinder.py workers to start when ball
+     *         detection is REMOTE.
+     */
+    public int ballWorkers() {
+        return intValue(BALL_WORKERS);
+    }
+
+    public int frameCapacity() {
+        return intValue(FRAME_CAPACITY);
+    }
+
+    public int framePoolSize() {
+        return intValue(FRAME_POOL_SIZE);
+    }
+
+    public int displayMaxFramesPerSecond() {
+        return intValue(DISPLAY_MAX_FRAMES_PER_SECOND);
+    }
+
+    /**
+     * @return the most decoded frames that can wait for the detect stage.
+     */
+    public int detectQueueCapacity() {
+        return intValue(DETECT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @return what happens to a decoded frame when the detect stage's queue
+     *         is full.
+     */
+    public OverflowPolicy detectOverflowPolicy() {
+        return OverflowPolicy.valueOf(value(DETECT_OVERFLOW_POLICY));
+    }
+
+    /**
+     * @return the most frames that can wait for the annotate stage.
+     */
+    public int annotateQueueCapacity() {
+        return intValue(ANNOTATE_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @return what happens to a detected frame when the annotate stage's
+     *         queue is full.
+     */
+    public OverflowPolicy annotateOverflowPolicy() {
+        return OverflowPolicy.valueOf(value(ANNOTATE_OVERFLOW_POLICY));
+    }
+
+    /**
+     * @return how the arm searches for a way to reach an object.
+     */
+    public GripperSearchMode gripperSearchMode() {
+        return GripperSearchMode.valueOf(value(GRIPPER_SEARCH_MODE));
+    }
+
+    /**
+     * @return the most positions a BEST_FIRST search expands.
+     */
+    public int gripperSearchMaxExpansions() {
+        return intValue(GRIPPER_SEARCH_MAX_EXPANSIONS);
+    }
+
+    /**
+     * @return the centimeters of distance to the target a BEST_FIRST search
+     *         trades for a degree of joint travel.
+     */
+    public double gripperSearchTravelWeight() {
+        return Double.parseDouble(value(GRIPPER_SEARCH_TRAVEL_WEIGHT));
+    }
+
+    /**
+     * @return the degrees between the wrist positions a WRIST_SPACE search
+     *         tries.
+     */
+    public int gripperSearchWristStep() {
+        return intValue(GRIPPER_SEARCH_WRIST_STEP);
+    }
+
+    /**
+     * @return how long a WRIST_SPACE search may take before it settles for
+     *         the best position found so far.
+     */
+    public long gripperSearchTimeBudgetMillis() {
+        return Long.parseLong(value(GRIPPER_SEARCH_TIME_BUDGET_MILLIS));
+    }
+
+    /**
+     * @return the number of threads a WRIST_SPACE search runs on.
+     */
+    public int gripperSearchThreads() {
+        return intValue(GRIPPER_SEARCH_THREADS);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder string = new StringBuilder();
+        for (String key : new TreeSet<>(DEFAULTS.stringPropertyNames())) {
+            string.append(key).append(" = ").append(value(key)).append('\n');
+        }
+        return string.toString();
+    }
+
+    private String value(String key) {
+        return properties.getProperty(key, DEFAULTS.getProperty(key)).trim();
+    }
+
+    private int intValue(String key) {
+        return Integer.parseInt(value(key));
+    }
+
+    private void validate() {
+        try {
+            autonomyPort();
+            visionPort();
+            barcodePort();
+            ballPort();
+            visionStreamMode();
+            detectorTransportMode();
+            ballDetectorEngine();
+            detectionDeadlineMillis();
+            detectOverflowPolicy();
+            annotateOverflowPolicy();
+            gripperSearchMode();
+            if (gripperSearchTravelWeight() < 0) {
+                throw new IllegalArgumentException("the search travel weight cannot be negative");
+            }
+            if (detectorReplyTimeoutMillis() <= 0) {
+                throw new IllegalArgumentException("the detector reply timeout must be positive");
+            }
+            if (gripperSearchTimeBudgetMillis() <= 0) {
+                throw new IllegalArgumentException("the search time budget must be positive");
+            }
+            for (int positive : new int[] { detectorMaxInFlight(), detectionInterval(), detectionThreads(),
+                    frameCapacity(), framePoolSize(), displayMaxFramesPerSecond(), detectQueueCapacity(),
+                    annotateQueueCapacity(), gripperSearchMaxExpansions(), gripperSearchWristStep(),
+                    gripperSearchThreads() }) {
+                if (positive <= 0) {
+                    throw new IllegalArgumentException("expected a positive value, got " + positive);
+                }
+            }
+            if (barcodeWorkers() < 0 || ballWorkers() < 0) {
+                throw new IllegalArgumentException("worker counts cannot be negative");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid pipeline configuration: " + e.getMessage(), e);
+        }
+    }
+}
@@ -14,6 +14,18 @@ public class BallCollection {
         return new ArrayList<>(collection);
     }
 
+    /**
+     * @return the balls of this collection as seen in the same image rotated
+     *         by 180 degrees.
+     */
+    public BallCollection rotatedHalfTurn() {
+        List<BallElement> rotated = new ArrayList<>(collection.size());
+        for (BallElement ball : collection) {
+            rotated.add(ball.rotatedHalfTurn());
+        }
+        return new BallCollection(rotated);
+    }
+
     @Override
     public String toString() {
         return collection.toString();
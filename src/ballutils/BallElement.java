@@ -2,6 +2,10 @@ package ballutils;
 
 //TODO: specs!!!
 public class BallElement {
+
+    /** The trackId of a ball that is not being tracked. */
+    public static final int UNTRACKED = -1;
+
     // Al Balls shall have radius of .75". This way, the arm will be able to
     // determine distance to the Ball based on relative size
     private final int centerX;
@@ -14,7 +18,15 @@ public class BallElement {
     private final int imageWidth;
     private final int imageHeight;
 
+    // the same for every sighting of the same ball, see BallTracker
+    private final int trackId;
+
     public BallElement(int centerX, int centerY, int radius, double distance, int imageWidth, int imageHeight) {
+        this(centerX, centerY, radius, distance, imageWidth, imageHeight, UNTRACKED);
+    }
+
+    public BallElement(int centerX, int centerY, int radius, double distance, int imageWidth, int imageHeight,
+            int trackId) {
         this.centerX = centerX;
         this.centerY = centerY;
         this.radius = radius;
@@ -22,6 +34,7 @@ public class BallElement {
 
         this.imageWidth = imageWidth;
         this.imageHeight = imageHeight;
+        this.trackId = trackId;
     }
 
     public int x() {
@@ -52,6 +65,22 @@ public class BallElement {
         return imageWidth;
     }
 
+    /**
+     * @return the id of the track this ball belongs to, or UNTRACKED.
+     */
+    public int trackId() {
+        return trackId;
+    }
+
+    /**
+     * @return this ball as seen in the same image rotated by 180 degrees (the
+     *         center is mirrored through the image center).
+     */
+    public BallElement rotatedHalfTurn() {
+        return new BallElement(imageWidth - 1 - centerX, imageHeight - 1 - centerY, radius, distance, imageWidth,
+                imageHeight, trackId);
+    }
+
     @Override
     public boolean equals(Object that) {
         if (!(that instanceof BallElement)) {
@@ -69,6 +98,6 @@ public class BallElement {
 
     @Override
     public String toString() {
-        return "(" + x() + "," + y() + "," + radius() + "," + area() + "," + distance() + ")";
+        return "(" + (trackId == UNTRACKED ? "" : "#" + trackId + ",") + x() + "," + y() + "," + radius() + "," + area() + "," + distance() + ")";
     }
 }
@@ -0,0 +1,97 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+
+import localizationutils.ArmKinematics;
+import localizationutils.BestFirstGripperSearch;
+import localizationutils.BreadthFirstGripperSearch;
+import localizationutils.GripperSearchStrategy;
+import localizationutils.HandElement;
+import localizationutils.WristSpaceGripperSearch;
+
+/**
+ *
+ * @author trist
+ *
+ *         Times each GripperSearchStrategy, and counts the bytes it allocates
+ *         and how far it moves the joints, for a target near the arm's
+ *         starting pose, one across
+ *         the lattice from it (placed where the arm reaches with the bicep at
+ *         120 and the forearm at 60 degrees, holding the wrist the way
+ *         ArmServerAutonomous does) and one out of reach, which makes the
+ *         search visit every position. The wrist space search works on a
+ *         ForkJoinPool of its own, so the bytes it allocates there are not
+ *         counted.
+ *
+ *         Usage: ArmPositionSearchBenchmark [searches]
+ */
+public class ArmPositionSearchBenchmark {
+
+    private static final int DEFAULT_SEARCHES = 200;
+
+    private static final int WARMUP_SEARCHES = 200;
+
+    private static final int[] INITIAL_ARM = { 0, 0, 15 };
+
+    private static final int[] HAND = { 157, 90 };
+
+    // keeps the results alive so the search is not optimized away
+    private static int sink;
+
+    public static void main(String[] args) throws InterruptedException {
+        int searches = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SEARCHES;
+
+        double[] across = ArmKinematics.localizeHandElement(90, 120, 60, HAND[0], HAND[1], HandElement.GRIPPER,
+                new double[3]);
+        double[] near = ArmKinematics.localizeHandElement(90, 5, 20, HAND[0], HAND[1], HandElement.GRIPPER,
+                new double[3]);
+        double[] outOfReach = { 80, 90, 0 };
+
+        System.out.println(searches + " searches each");
+        for (GripperSearchStrategy strategy : new GripperSearchStrategy[] { new BreadthFirstGripperSearch(),
+                new BestFirstGripperSearch(), new WristSpaceGripperSearch(new ForkJoinPool(),
+                        WristSpaceGripperSearch.DEFAULT_WRIST_STEP, WristSpaceGripperSearch.DEFAULT_TIME_BUDGET_MILLIS) }) {
+            System.out.println(strategy);
+            run("near", strategy, near, searches);
+            run("across", strategy, across, searches);
+            run("out of reach", strategy, outOfReach, searches);
+        }
+    }
+
+    private static void run(String name, GripperSearchStrategy strategy, double[] target, int searches)
+            throws InterruptedException {
+        for (int search = 0; search < WARMUP_SEARCHES; search++) {
+            sink += travel(strategy, target);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int search = 0; search < searches; search++) {
+            sink += travel(strategy, target);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        int travel = travel(strategy, target);
+        System.out.println(String.format("  %-14s %10.1f us/search %10.0f bytes/search %10s", name,
+                elapsed / 1000.0 / searches, (double) allocated / searches,
+                travel < 0 ? "not found" : travel + " degrees"));
+    }
+
+    /**
+     * @return the degrees the bicep, forearm and wrist move to reach target,
+     *         or -1 if the search finds no way to.
+     */
+    private static int travel(GripperSearchStrategy strategy, double[] target) throws InterruptedException {
+        int[] positions = strategy.gripperPositionSearch(target, INITIAL_ARM, HAND);
+        if (positions == null) {
+            return -1;
+        }
+        return Math.abs(positions[1] - INITIAL_ARM[1]) + Math.abs(positions[2] - INITIAL_ARM[2])
+                + Math.abs(positions[3] - HAND[0]) + Math.abs(positions[4] - HAND[1]);
+    }
+}
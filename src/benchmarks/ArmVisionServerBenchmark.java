@@ -0,0 +1,128 @@
+package benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import visionservers.ArmVisionServer;
+import visionservers.EncodedFrame;
+import visionservers.VisionStreamMode;
+
+/**
+ *
+ * @author trist
+ *
+ *         Compares frames per second and ingest latency of ArmVisionServer in
+ *         ACCEPT_PER_FRAME mode against PERSISTENT_STREAM mode over loopback.
+ *         A client thread plays the part of the camera on the arm and sends
+ *         frames as fast as the server takes them.
+ *
+ *         Ingest latency is the time from the client starting to send a frame
+ *         to receiveFrame() returning it.
+ *
+ *         Usage: ArmVisionServerBenchmark [frames] [frameBytes]
+ */
+public class ArmVisionServerBenchmark {
+
+    private static final int DEFAULT_FRAMES = 2000;
+
+    // roughly a 640x480 JPEG from the arm's camera
+    private static final int DEFAULT_FRAME_BYTES = 40 * 1024;
+
+    private static final int WARMUP_FRAMES = 200;
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FRAMES;
+        int frameBytes = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_FRAME_BYTES;
+
+        byte[] payload = new byte[frameBytes];
+        new Random(7).nextBytes(payload);
+
+        for (VisionStreamMode mode : VisionStreamMode.values()) {
+            run(mode, WARMUP_FRAMES, payload, false);
+            run(mode, frames, payload, true);
+        }
+    }
+
+    private static void run(VisionStreamMode mode, int frames, byte[] payload, boolean report) throws Exception {
+        int port = freePort();
+        ArmVisionServer server = new ArmVisionServer(port, mode);
+        AtomicLongArray sendTimes = new AtomicLongArray(frames);
+
+        Thread camera = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mode == VisionStreamMode.PERSISTENT_STREAM) {
+                        streamFrames(port, frames, payload, sendTimes);
+                    } else {
+                        sendFramePerConnection(port, frames, payload, sendTimes);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        camera.setDaemon(true);
+        camera.start();
+
+        EncodedFrame frame = new EncodedFrame(payload.length);
+        long[] latencies = new long[frames];
+        long start = System.nanoTime();
+        for (int received = 0; received < frames; received++) {
+            server.receiveFrame(frame);
+            latencies[received] = frame.receiveTimeNanos() - sendTimes.get((int) frame.sequence());
+        }
+        long elapsed = System.nanoTime() - start;
+
+        camera.join();
+        server.close();
+
+        if (report) {
+            Arrays.sort(latencies);
+            System.out.println(mode + ": " + frames + " frames of " + payload.length + " bytes");
+            System.out.printf("    %.1f frames/sec%n", frames / (elapsed / 1e9));
+            System.out.printf("    p50 ingest latency %.1f us%n", latencies[frames / 2] / 1e3);
+            System.out.printf("    p99 ingest latency %.1f us%n", latencies[(int) (frames * .99)] / 1e3);
+        }
+    }
+
+    private static void sendFramePerConnection(int port, int frames, byte[] payload, AtomicLongArray sendTimes)
+            throws IOException {
+        for (int sequence = 0; sequence < frames; sequence++) {
+            sendTimes.set(sequence, System.nanoTime());
+            try (Socket socket = new Socket("localhost", port)) {
+                OutputStream out = socket.getOutputStream();
+                out.write(payload);
+            }
+        }
+    }
+
+    private static void streamFrames(int port, int frames, byte[] payload, AtomicLongArray sendTimes)
+            throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            for (int sequence = 0; sequence < frames; sequence++) {
+                sendTimes.set(sequence, System.nanoTime());
+                out.writeInt(payload.length);
+                out.writeLong(sequence);
+                out.writeLong(System.currentTimeMillis());
+                out.write(payload);
+                out.flush();
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
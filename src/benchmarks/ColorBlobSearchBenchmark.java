@@ -0,0 +1,137 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import detectionutils.ColorBlobSearch;
+
+/**
+ *
+ * @author trist
+ *
+ *         Compares finding a ball by its color the way FeatureDetectionController
+ *         used to (Mat.get(row, col) over the whole frame, then the points of
+ *         every contour) against ColorBlobSearch, on a noisy frame with one
+ *         ball in it. Prints the time per search and what each found.
+ *
+ *         Needs the OpenCV native library on java.library.path.
+ *
+ *         Usage: ColorBlobSearchBenchmark [searches] [frameWidth] [frameHeight]
+ */
+public class ColorBlobSearchBenchmark {
+
+    private static final int DEFAULT_SEARCHES = 50;
+
+    private static final int DEFAULT_FRAME_WIDTH = 640;
+
+    private static final int DEFAULT_FRAME_HEIGHT = 480;
+
+    private static final int WARMUP_SEARCHES = 10;
+
+    private static final double[] BALL_COLOR = { 30, 60, 200 };
+
+    private static final int BALL_RADIUS = 40;
+
+    public static void main(String[] args) {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        int searches = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SEARCHES;
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_FRAME_WIDTH;
+        int height = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_FRAME_HEIGHT;
+
+        // a background that never comes within the match threshold of the
+        // ball's color, and a ball with soft edges
+        Mat frame = new Mat(height, width, CvType.CV_8UC3);
+        Core.randu(frame, 0, 120);
+        Point center = new Point(width * 5 / 8, height * 5 / 8);
+        Imgproc.circle(frame, center, BALL_RADIUS, new Scalar(BALL_COLOR), -1);
+        Imgproc.GaussianBlur(frame, frame, new Size(5, 5), 0);
+        System.out.println(width + "x" + height + " frame, ball at " + (int) center.x + ", " + (int) center.y
+                + " radius " + BALL_RADIUS + ", " + searches + " searches");
+
+        ColorBlobSearch search = new ColorBlobSearch();
+        run("per-pixel scan", () -> legacySearch(frame, BALL_COLOR), searches);
+        run("ColorBlobSearch", () -> search.search(frame, BALL_COLOR), searches);
+        search.close();
+        frame.release();
+    }
+
+    private interface Search {
+        int[] run();
+    }
+
+    private static void run(String name, Search search, int searches) {
+        for (int index = 0; index < WARMUP_SEARCHES; index++) {
+            search.run();
+        }
+        int[] found = null;
+        long start = System.nanoTime();
+        for (int index = 0; index < searches; index++) {
+            found = search.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-16s %10.2f ms/search  found %s", name, elapsed / 1e6 / searches,
+                Arrays.toString(found)));
+    }
+
+    // FeatureDetectionController.searchForBestFitRegion as it was, without
+    // the drawing, and returning the radius in its own slot
+    private static int[] legacySearch(Mat frame, double[] color) {
+        Point closestPoint = new Point(0, 0);
+        double[] colorData = frame.get(0, 0);
+        double bestDifference = Math.abs(color[0] - colorData[0]) + Math.abs(color[1] - colorData[1])
+                + Math.abs(color[2] - colorData[2]);
+        for (int row = frame.rows() - 1; row >= 0; row--) {
+            for (int col = frame.cols() - 1; col >= 0; col--) {
+                double[] pixel = frame.get(row, col);
+                double difference = Math.abs(color[0] - pixel[0]) + Math.abs(color[1] - pixel[1])
+                        + Math.abs(color[2] - pixel[2]);
+                if (difference < bestDifference) {
+                    bestDifference = difference;
+                    closestPoint.x = col;
+                    closestPoint.y = row;
+                }
+            }
+        }
+        if (bestDifference >= 5) {
+            return null;
+        }
+
+        Mat mask = new Mat();
+        Core.inRange(frame, new Scalar(color[0] - 60, color[1] - 60, color[2] - 60),
+                new Scalar(color[0] + 60, color[1] + 60, color[2] + 60), mask);
+        List<MatOfPoint> contours = new ArrayList<>();
+        Mat hierarchy = new Mat();
+        Imgproc.findContours(mask, contours, hierarchy, 1, 1);
+        int contourPoints = 0;
+        for (MatOfPoint contour : contours) {
+            boolean containsClosest = false;
+            contourPoints = 0;
+            for (Point point : contour.toArray()) {
+                if (Math.abs(point.x - closestPoint.x) < 2 && Math.abs(point.y - closestPoint.y) < 2) {
+                    containsClosest = true;
+                }
+                contourPoints++;
+            }
+            if (containsClosest) {
+                break;
+            }
+        }
+        for (MatOfPoint contour : contours) {
+            contour.release();
+        }
+        hierarchy.release();
+        mask.release();
+        return new int[] { (int) closestPoint.x, (int) closestPoint.y,
+                (int) Math.sqrt(5 * contourPoints / Math.PI) };
+    }
+}
@@ -0,0 +1,132 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+
+import localizationutils.ArmKinematics;
+import localizationutils.HandElement;
+import localizationutils.LocalizeArm;
+
+/**
+ *
+ * @author trist
+ *
+ *         Compares localizing the gripper with LocalizeArm.localizeHandElement,
+ *         which returns a new array each call, against
+ *         ArmKinematics.localizeHandElement into one reused array, and against
+ *         ArmKinematics.localizeHandElements over the whole sweep as one
+ *         batch, on this thread and split across the common ForkJoinPool. Each
+ *         is measured in calls (configurations localized) per second and bytes
+ *         allocated per call. The joint positions swept are the ones
+ *         ArmPositionSearch visits: every bicep and forearm angle, with the
+ *         wrist held still.
+ *
+ *         In a loop this small the JIT can often prove the returned arrays
+ *         never escape and leave them out; run with -XX:-DoEscapeAnalysis to
+ *         see what each call allocates where it cannot. Bytes allocated are
+ *         counted on this thread only, so they leave out the pool's threads.
+ *
+ *         Usage: KinematicsBenchmark [sweeps]
+ */
+public class KinematicsBenchmark {
+
+    private static final int DEFAULT_SWEEPS = 200;
+
+    private static final int WARMUP_SWEEPS = 100;
+
+    private static final int BASE_DEGREES = 180;
+
+    private static final int UPPER_WRIST_DEGREES = 180;
+
+    private static final int LOWER_WRIST_DEGREES = 90;
+
+    // keeps the results alive so the localizing is not optimized away
+    private static double sink;
+
+    public static void main(String[] args) {
+        int sweeps = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SWEEPS;
+        double[] coordinates = new double[3];
+
+        int calls = callsPerSweep();
+        int[] base = new int[calls];
+        int[] bicep = new int[calls];
+        int[] forearm = new int[calls];
+        int[] upperWrist = new int[calls];
+        int[] lowerWrist = new int[calls];
+        int call = 0;
+        for (int bicepDegrees = 0; bicepDegrees <= 270; bicepDegrees++) {
+            for (int forearmDegrees = 15; forearmDegrees <= 90; forearmDegrees++) {
+                base[call] = BASE_DEGREES;
+                bicep[call] = bicepDegrees;
+                forearm[call] = forearmDegrees;
+                upperWrist[call] = UPPER_WRIST_DEGREES;
+                lowerWrist[call] = LOWER_WRIST_DEGREES;
+                call++;
+            }
+        }
+        double[] radial = new double[calls];
+        double[] angle = new double[calls];
+        double[] height = new double[calls];
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        System.out.println(sweeps + " sweeps of " + calls + " joint positions, " + pool.getParallelism()
+                + " pool threads");
+        run("LocalizeArm", KinematicsBenchmark::sweepAllocating, sweeps);
+        run("ArmKinematics", () -> sweepIntoBuffer(coordinates), sweeps);
+        run("batch", () -> {
+            ArmKinematics.localizeHandElements(base, bicep, forearm, upperWrist, lowerWrist, HandElement.GRIPPER,
+                    radial, angle, height, calls);
+            sink += radial[calls - 1] + angle[calls - 1] + height[calls - 1];
+        }, sweeps);
+        run("batch, parallel", () -> {
+            ArmKinematics.localizeHandElements(pool, base, bicep, forearm, upperWrist, lowerWrist,
+                    HandElement.GRIPPER, radial, angle, height, calls);
+            sink += radial[calls - 1] + angle[calls - 1] + height[calls - 1];
+        }, sweeps);
+    }
+
+    private static void run(String name, Runnable sweep, int sweeps) {
+        for (int warmup = 0; warmup < WARMUP_SWEEPS; warmup++) {
+            sweep.run();
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int repetition = 0; repetition < sweeps; repetition++) {
+            sweep.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        long calls = (long) sweeps * callsPerSweep();
+        System.out.println(String.format("%-16s %12.0f calls/s %8.1f ns/call %8.2f bytes/call", name,
+                calls * 1e9 / elapsed, (double) elapsed / calls, (double) allocated / calls));
+    }
+
+    private static int callsPerSweep() {
+        return 271 * 76;
+    }
+
+    private static void sweepAllocating() {
+        for (int bicep = 0; bicep <= 270; bicep++) {
+            for (int forearm = 15; forearm <= 90; forearm++) {
+                double[] coordinates = LocalizeArm.localizeHandElement(BASE_DEGREES, bicep, forearm,
+                        UPPER_WRIST_DEGREES, LOWER_WRIST_DEGREES, HandElement.GRIPPER);
+                sink += coordinates[0] + coordinates[1] + coordinates[2];
+            }
+        }
+    }
+
+    private static void sweepIntoBuffer(double[] coordinates) {
+        for (int bicep = 0; bicep <= 270; bicep++) {
+            for (int forearm = 15; forearm <= 90; forearm++) {
+                ArmKinematics.localizeHandElement(BASE_DEGREES, bicep, forearm, UPPER_WRIST_DEGREES,
+                        LOWER_WRIST_DEGREES, HandElement.GRIPPER, coordinates);
+                sink += coordinates[0] + coordinates[1] + coordinates[2];
+            }
+        }
+    }
+}
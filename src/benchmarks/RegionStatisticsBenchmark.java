@@ -0,0 +1,115 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import frameutils.RegionStatistics;
+
+/**
+ *
+ * @author trist
+ *
+ *         Compares averaging the color of a square region of a frame one
+ *         Mat.get(row, col) at a time (how FeatureDetectionController used to
+ *         average the color of a ball) against RegionStatistics: natively with
+ *         mean(), and in Java over one bulk copy with pixels(). Reports time
+ *         and bytes allocated per region, for regions of several sizes.
+ *
+ *         Needs the OpenCV native library on java.library.path.
+ *
+ *         Usage: RegionStatisticsBenchmark [repetitions]
+ */
+public class RegionStatisticsBenchmark {
+
+    private static final int DEFAULT_REPETITIONS = 200;
+
+    private static final int WARMUP_REPETITIONS = 50;
+
+    private static final int[] REGION_SIDES = { 16, 32, 64, 128, 256 };
+
+    private static final int IMAGE_WIDTH = 640;
+
+    private static final int IMAGE_HEIGHT = 480;
+
+    // keeps the results alive so the averaging is not optimized away
+    private static double sink;
+
+    public static void main(String[] args) {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_REPETITIONS;
+
+        Mat image = new Mat(IMAGE_HEIGHT, IMAGE_WIDTH, CvType.CV_8UC3);
+        Core.randu(image, 0, 256);
+        RegionStatistics statistics = new RegionStatistics();
+
+        for (int side : REGION_SIDES) {
+            int top = (IMAGE_HEIGHT - side) / 2;
+            int left = (IMAGE_WIDTH - side) / 2;
+            int bottom = top + side;
+            int right = left + side;
+
+            System.out.println(side + "x" + side + " region, " + repetitions + " repetitions");
+            run("per-pixel get", () -> perPixelAverage(image, top, bottom, left, right), repetitions);
+            run("native mean", () -> statistics.mean(image, top, bottom, left, right), repetitions);
+            run("bulk copy", () -> bulkAverage(statistics, image, top, bottom, left, right), repetitions);
+        }
+        image.release();
+    }
+
+    private static void run(String name, Supplier<double[]> average, int repetitions) {
+        for (int repetition = 0; repetition < WARMUP_REPETITIONS; repetition++) {
+            sink += average.get()[0];
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int repetition = 0; repetition < repetitions; repetition++) {
+            sink += average.get()[0];
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        System.out.println(String.format("  %-14s %10.1f us/region %10.1f bytes/region", name,
+                elapsed / 1000.0 / repetitions, (double) allocated / repetitions));
+    }
+
+    private static double[] perPixelAverage(Mat image, int top, int bottom, int left, int right) {
+        double[] sum = new double[3];
+        for (int row = top; row < bottom; row++) {
+            for (int col = left; col < right; col++) {
+                double[] pixel = image.get(row, col);
+                sum[0] += pixel[0];
+                sum[1] += pixel[1];
+                sum[2] += pixel[2];
+            }
+        }
+        int pixels = (bottom - top) * (right - left);
+        for (int channel = 0; channel < 3; channel++) {
+            sum[channel] /= pixels;
+        }
+        return sum;
+    }
+
+    private static double[] bulkAverage(RegionStatistics statistics, Mat image, int top, int bottom, int left,
+            int right) {
+        int length = statistics.pixels(image, top, bottom, left, right);
+        byte[] pixels = statistics.pixelArray();
+        long blue = 0;
+        long green = 0;
+        long red = 0;
+        for (int index = 0; index < length; index += 3) {
+            blue += pixels[index] & 0xFF;
+            green += pixels[index + 1] & 0xFF;
+            red += pixels[index + 2] & 0xFF;
+        }
+        double count = length / 3;
+        return new double[] { blue / count, green / count, red / count };
+    }
+}
@@ -0,0 +1,129 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+import parsers.BallParser;
+import parsers.BarcodeParser;
+import parsers.BinaryResultFormat;
+
+/**
+ *
+ * @author trist
+ *
+ *         Compares decoding detector replies in the string format (BallParser
+ *         and BarcodeParser's parse(String, ...)) against BinaryResultFormat
+ *         (parse(ByteBuffer, ...)), in time and in bytes allocated per reply.
+ *         The string side includes turning the reply bytes into a String, as
+ *         the extraction servers have to.
+ *
+ *         Usage: ResultParserBenchmark [replies] [detectionsPerReply]
+ */
+public class ResultParserBenchmark {
+
+    private static final int DEFAULT_REPLIES = 500000;
+
+    private static final int DEFAULT_DETECTIONS = 4;
+
+    private static final int WARMUP_REPLIES = 100000;
+
+    private static final int IMAGE_WIDTH = 640;
+
+    private static final int IMAGE_HEIGHT = 480;
+
+    // keeps the results alive so the parsing is not optimized away
+    private static int sink;
+
+    public static void main(String[] args) {
+        int replies = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_REPLIES;
+        int detections = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_DETECTIONS;
+
+        byte[] ballString = ballString(detections).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer ballBinary = ballBinary(detections);
+        byte[] barcodeString = barcodeString(detections).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer barcodeBinary = barcodeBinary(detections);
+
+        Supplier<Object> ballsFromString = () -> BallParser
+                .parse(new String(ballString, StandardCharsets.UTF_8), IMAGE_WIDTH, IMAGE_HEIGHT);
+        Supplier<Object> ballsFromBinary = () -> BallParser.parse(ballBinary.duplicate(), IMAGE_WIDTH, IMAGE_HEIGHT);
+        Supplier<Object> barcodesFromString = () -> BarcodeParser
+                .parse(new String(barcodeString, StandardCharsets.UTF_8), IMAGE_WIDTH, IMAGE_HEIGHT);
+        Supplier<Object> barcodesFromBinary = () -> BarcodeParser.parse(barcodeBinary.duplicate(), IMAGE_WIDTH,
+                IMAGE_HEIGHT);
+
+        System.out.println(detections + " detections per reply, " + replies + " replies");
+        run("balls, string", ballsFromString, replies);
+        run("balls, binary", ballsFromBinary, replies);
+        run("barcodes, string", barcodesFromString, replies);
+        run("barcodes, binary", barcodesFromBinary, replies);
+    }
+
+    private static void run(String name, Supplier<Object> parse, int replies) {
+        for (int reply = 0; reply < WARMUP_REPLIES; reply++) {
+            sink += parse.get().hashCode();
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int reply = 0; reply < replies; reply++) {
+            sink += parse.get().hashCode();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        System.out.println(String.format("%-18s %8.1f ns/reply %8.1f bytes/reply", name, (double) elapsed / replies,
+                (double) allocated / replies));
+    }
+
+    private static String ballString(int detections) {
+        StringBuilder reply = new StringBuilder();
+        for (int index = 0; index < detections; index++) {
+            if (index > 0) {
+                reply.append(';');
+            }
+            reply.append('[').append(100 + index).append(", ").append(200 + index).append(", ").append(30)
+                    .append(']');
+        }
+        return reply.toString();
+    }
+
+    private static ByteBuffer ballBinary(int detections) {
+        ByteBuffer reply = ByteBuffer.allocate(BinaryResultFormat.HEADER_BYTES
+                + detections * BinaryResultFormat.BALL_RECORD_BYTES);
+        reply.put(BinaryResultFormat.MARKER).put(BinaryResultFormat.VERSION).putInt(detections);
+        for (int index = 0; index < detections; index++) {
+            reply.putInt(100 + index).putInt(200 + index).putInt(30);
+        }
+        reply.flip();
+        return reply;
+    }
+
+    private static String barcodeString(int detections) {
+        StringBuilder reply = new StringBuilder();
+        for (int index = 0; index < detections; index++) {
+            if (index > 0) {
+                reply.append(';');
+            }
+            reply.append('[').append(100 + index).append(", ").append(200 + index).append(", 40, 40, 'mug']");
+        }
+        return reply.toString();
+    }
+
+    private static ByteBuffer barcodeBinary(int detections) {
+        byte[] title = "mug".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer reply = ByteBuffer.allocate(BinaryResultFormat.HEADER_BYTES
+                + detections * (BinaryResultFormat.BARCODE_RECORD_BYTES + title.length));
+        reply.put(BinaryResultFormat.MARKER).put(BinaryResultFormat.VERSION).putInt(detections);
+        for (int index = 0; index < detections; index++) {
+            reply.putInt(100 + index).putInt(200 + index).putInt(40).putInt(40).putShort((short) title.length)
+                    .put(title);
+        }
+        reply.flip();
+        return reply;
+    }
+}
@@ -0,0 +1,147 @@
+package concurrencyutils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 
+ * @author trist
+ *
+ *         A gate that worker threads pass while it is open and park at while
+ *         it is closed, so that a thread with nothing to do uses no CPU at
+ *         all. Opening the gate unparks every waiting thread right away.
+ *         Shutting it down releases the waiting threads for good, with
+ *         awaitOpen() returning false, so that they can exit.
+ */
+public class ActivationGate {
+
+    /*
+     * Abstraction function:
+     * 
+     * Represents a gate that is open, closed or shut down according to state,
+     * with the threads in waiters parked at it.
+     * 
+     * Rep invariants:
+     * 
+     * state is CLOSED, OPEN or SHUT_DOWN; once SHUT_DOWN it never changes.
+     * 
+     * Thread safety arguments:
+     * 
+     * state is atomic and waiters is a concurrent queue. A waiting thread
+     * joins waiters before it reads state, and open() and shutDown() change
+     * state before unparking waiters, so a thread either sees the new state
+     * or is unparked (an unpark before the park makes the park return at
+     * once).
+     */
+
+    private static final int CLOSED = 0;
+
+    private static final int OPEN = 1;
+
+    private static final int SHUT_DOWN = 2;
+
+    private final AtomicInteger state;
+
+    private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+    public ActivationGate(boolean open) {
+        this.state = new AtomicInteger(open ? OPEN : CLOSED);
+    }
+
+    /**
+     * Opens the gate, waking every thread waiting at it. Does nothing once the
+     * gate is shut down.
+     */
+    public void open() {
+        if (state.compareAndSet(CLOSED, OPEN)) {
+            unparkWaiters();
+        }
+    }
+
+    /**
+     * Closes the gate; threads that call awaitOpen() from now on park. Does
+     * nothing once the gate is shut down.
+     */
+    public void close() {
+        state.compareAndSet(OPEN, CLOSED);
+    }
+
+    /**
+     * Shuts the gate down for good, releasing every waiting thread.
+     */
+    public void shutDown() {
+        state.set(SHUT_DOWN);
+        unparkWaiters();
+    }
+
+    public boolean isOpen() {
+        return state.get() == OPEN;
+    }
+
+    public boolean isShutDown() {
+        return state.get() == SHUT_DOWN;
+    }
+
+    /**
+     * Parks until the gate is open or shut down.
+     *
+     * @return true if the gate is open, false if it is shut down.
+     */
+    public boolean awaitOpen() throws InterruptedException {
+        return awaitOpen(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Parks until the gate is open or shut down, or timeout has passed.
+     *
+     * @return true if the gate is open, false if it is shut down or still
+     *         closed after timeout.
+     */
+    public boolean awaitOpen(long timeout, TimeUnit unit) throws InterruptedException {
+        int current = state.get();
+        if (current != CLOSED) {
+            return current == OPEN;
+        }
+
+        Thread waiter = Thread.currentThread();
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        waiters.add(waiter);
+        try {
+            while ((current = state.get()) == CLOSED) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                remaining = deadline - System.nanoTime();
+            }
+            return current == OPEN;
+        } finally {
+            waiters.remove(waiter);
+        }
+    }
+
+    private void unparkWaiters() {
+        for (Thread waiter : waiters) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (state.get()) {
+        case OPEN:
+            return "open";
+        case CLOSED:
+            return "closed";
+        default:
+            return "shut down";
+        }
+    }
+}
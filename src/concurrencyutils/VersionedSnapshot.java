@@ -0,0 +1,221 @@
+package concurrencyutils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 
+ * @author trist
+ *
+ *         Holds the latest value published by one part of the program for
+ *         others to read, such as the latest detections for the autonomy
+ *         thread. Every publication is an immutable Snapshot carrying a
+ *         version that increases by one with each publication, the id and
+ *         capture time of the frame the value came from, and when it was
+ *         published. Readers never block publishers or each other; a reader
+ *         that has acted on one version can wait for a newer one with
+ *         awaitNewerThan(), and can reject a snapshot that is too old.
+ *
+ * @param <T>
+ *            the type of the values, which should be immutable.
+ */
+public class VersionedSnapshot<T> {
+
+    /*
+     * Abstraction function:
+     * 
+     * Represents the snapshot in current, with the threads in waiters waiting
+     * for a newer one.
+     * 
+     * Rep invariants:
+     * 
+     * current is never null, and its version only ever increases, by one per
+     * publication.
+     * 
+     * Thread safety arguments:
+     * 
+     * current is an atomic reference to an immutable snapshot, replaced by
+     * compare-and-set. A waiting thread joins waiters before it reads
+     * current, and publish() replaces current before unparking waiters, so a
+     * waiting thread either sees the new snapshot or is unparked.
+     */
+
+    /** The frame id of values that did not come from a frame. */
+    public static final long NO_FRAME = -1;
+
+    private final AtomicReference<Snapshot<T>> current;
+
+    private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param initial
+     *            the value of version 0.
+     */
+    public VersionedSnapshot(T initial) {
+        this.current = new AtomicReference<>(
+                new Snapshot<>(initial, 0, NO_FRAME, System.currentTimeMillis(), System.nanoTime()));
+    }
+
+    /**
+     * Publishes a value that came from the frame with id frameId, captured at
+     * captureTimeMillis, waking every thread waiting for a newer version.
+     *
+     * @return the published snapshot.
+     */
+    public Snapshot<T> publish(T value, long frameId, long captureTimeMillis) {
+        long publishTimeNanos = System.nanoTime();
+        Snapshot<T> previous;
+        Snapshot<T> next;
+        do {
+            previous = current.get();
+            next = new Snapshot<>(value, previous.version + 1, frameId, captureTimeMillis, publishTimeNanos);
+        } while (!current.compareAndSet(previous, next));
+
+        for (Thread waiter : waiters) {
+            LockSupport.unpark(waiter);
+        }
+        return next;
+    }
+
+    /**
+     * Publishes a value that did not come from a frame, as captured now.
+     *
+     * @return the published snapshot.
+     */
+    public Snapshot<T> publish(T value) {
+        return publish(value, NO_FRAME, System.currentTimeMillis());
+    }
+
+    /**
+     * @return the latest snapshot.
+     */
+    public Snapshot<T> snapshot() {
+        return current.get();
+    }
+
+    /**
+     * @return the latest value.
+     */
+    public T look() {
+        return current.get().value;
+    }
+
+    /**
+     * @return the version of the latest snapshot.
+     */
+    public long version() {
+        return current.get().version;
+    }
+
+    /**
+     * Parks until a snapshot newer than version is published, or timeout has
+     * passed.
+     *
+     * @return the latest snapshot if it is newer than version, or null after
+     *         a timeout.
+     */
+    public Snapshot<T> awaitNewerThan(long version, long timeout, TimeUnit unit) throws InterruptedException {
+        Snapshot<T> latest = current.get();
+        if (latest.version > version) {
+            return latest;
+        }
+
+        Thread waiter = Thread.currentThread();
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        waiters.add(waiter);
+        try {
+            while ((latest = current.get()).version <= version) {
+                if (remaining <= 0) {
+                    return null;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                remaining = deadline - System.nanoTime();
+            }
+            return latest;
+        } finally {
+            waiters.remove(waiter);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return current.get().toString();
+    }
+
+    /**
+     * One published value, with its version, the frame it came from and its
+     * age. Immutable.
+     */
+    public static final class Snapshot<T> {
+
+        private final T value;
+
+        private final long version;
+
+        private final long frameId;
+
+        private final long captureTimeMillis;
+
+        private final long publishTimeNanos;
+
+        private Snapshot(T value, long version, long frameId, long captureTimeMillis, long publishTimeNanos) {
+            this.value = value;
+            this.version = version;
+            this.frameId = frameId;
+            this.captureTimeMillis = captureTimeMillis;
+            this.publishTimeNanos = publishTimeNanos;
+        }
+
+        public T value() {
+            return value;
+        }
+
+        public long version() {
+            return version;
+        }
+
+        /**
+         * @return the id of the frame the value came from, or NO_FRAME.
+         */
+        public long frameId() {
+            return frameId;
+        }
+
+        /**
+         * @return when the frame the value came from was captured, in
+         *         milliseconds since the epoch by the camera's clock.
+         */
+        public long captureTimeMillis() {
+            return captureTimeMillis;
+        }
+
+        /**
+         * @return how long ago the value's frame was captured, in
+         *         milliseconds. Only as accurate as the camera's clock is
+         *         synchronized with this machine's.
+         */
+        public long ageMillis() {
+            return System.currentTimeMillis() - captureTimeMillis;
+        }
+
+        /**
+         * @return how long ago the value was published, in milliseconds, by
+         *         this machine's monotonic clock.
+         */
+        public long millisSincePublished() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - publishTimeNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "(version " + version + ", frame " + frameId + ", " + value + ")";
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package detectionutils;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import org.opencv.core.Mat;
+
+import ballutils.BallCollection;
+import frameutils.Frame;
+
+/**
+ * 
+ * @author trist
+ *
+ *         Finds the balls in decoded frames. Implementations either run the
+ *         detection in this process (HoughBallDetector) or hand the frame to
+ *         detector worker processes (visionservers.BallExtractionServer), so
+ *         which one is used can be decided at startup, see BallDetectorEngine.
+ */
+public interface BallDetector {
+
+    /**
+     * @param frame
+     *            a decoded frame; the caller keeps its reference.
+     * @return the balls in frame.image(), in its coordinates.
+     */
+    public BallCollection extractBalls(Frame frame) throws IOException, InterruptedException;
+
+    /**
+     * @param image
+     *            a BGR image, such as a region of a frame's image().
+     * @return the balls in image, in its coordinates.
+     */
+    public BallCollection extractBalls(Mat image) throws IOException, InterruptedException;
+
+    /**
+     * Like extractBalls(frame), but gives up at deadline, a System.nanoTime().
+     * By default the deadline is ignored, which suits detectors that wait on
+     * nothing but their own work.
+     *
+     * @return the balls in frame.image(), or null if detection did not finish
+     *         by deadline.
+     */
+    public default BallCollection extractBalls(Frame frame, long deadline) throws IOException, InterruptedException {
+        return extractBalls(frame);
+    }
+
+    /**
+     * Like extractBalls(image), but gives up at deadline; see
+     * extractBalls(frame, deadline).
+     */
+    public default BallCollection extractBalls(Mat image, long deadline) throws IOException, InterruptedException {
+        return extractBalls(image);
+    }
+
+    /**
+     * Starts finding the balls in frame without waiting for them, for
+     * detectors that are asynchronous anyway. The caller may release frame as
+     * soon as this returns, and may cancel the future once it no longer wants
+     * the balls.
+     *
+     * @param deadline
+     *            the System.nanoTime() by which the caller wants the balls;
+     *            this waits no longer than that for room to start detecting.
+     * @return a future completed with the balls in frame, or completed
+     *         exceptionally with the IOException detection failed with, or
+     *         with a TimeoutException if there was no room to start detecting
+     *         in time; or null (the default) if the detector runs in this
+     *         process, in which case the caller runs extractBalls(frame,
+     *         deadline) on a thread of its own.
+     */
+    public default CompletableFuture<BallCollection> submitBalls(Frame frame, long deadline)
+            throws IOException, InterruptedException {
+        return null;
+    }
+
+    /**
+     * Frees whatever the detector holds (sockets, native buffers).
+     */
+    public void close() throws IOException;
+}
@@ -0,0 +1,16 @@
+package detectionutils;
+
+/**
+ * Where ball detection runs.
+ */
+public enum BallDetectorEngine {
+    /**
+     * HoughBallDetector, on the detection stage's own threads, with no worker
+     * process.
+     */
+    IN_PROCESS,
+    /**
+     * BallFinder.py worker processes, reached through a BallExtractionServer.
+     */
+    REMOTE
+}
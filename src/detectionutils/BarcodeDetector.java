@@ -0,0 +1,49 @@
+package detectionutils;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import frameutils.Frame;
+import qrutils.QRCollection;
+
+/**
+ * 
+ * @author trist
+ *
+ *         Finds the barcodes in decoded frames, see BallDetector.
+ */
+public interface BarcodeDetector {
+
+    /**
+     * @param frame
+     *            a decoded frame; the caller keeps its reference.
+     * @return the barcodes in frame.image(), in its coordinates.
+     */
+    public QRCollection extractBarcodes(Frame frame) throws IOException, InterruptedException;
+
+    /**
+     * Starts finding the barcodes in frame without waiting for them, for
+     * detectors that are asynchronous anyway. The caller may release frame as
+     * soon as this returns, and may cancel the future once it no longer wants
+     * the barcodes.
+     *
+     * @param deadline
+     *            the System.nanoTime() by which the caller wants the barcodes;
+     *            this waits no longer than that for room to start detecting.
+     * @return a future completed with the barcodes in frame, or completed
+     *         exceptionally with the IOException detection failed with, or
+     *         with a TimeoutException if there was no room to start detecting
+     *         in time; or null (the default) if the detector runs in this
+     *         process, in which case the caller runs extractBarcodes() on a
+     *         thread of its own.
+     */
+    public default CompletableFuture<QRCollection> submitBarcodes(Frame frame, long deadline)
+            throws IOException, InterruptedException {
+        return null;
+    }
+
+    /**
+     * Frees whatever the detector holds (sockets, native buffers).
+     */
+    public void close() throws IOException;
+}
@@ -0,0 +1,264 @@
+package detectionutils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import frameutils.RegionStatistics;
+
+/**
+ *
+ * @author trist
+ *
+ *         Finds the blob in a BGR frame whose color is closest to a given
+ *         color, for when the circle detectors lose a ball whose color is
+ *         known.
+ *
+ *         The closest pixel is searched for coarse to fine: first over a
+ *         downsampled copy of the frame, split into bands of rows across a
+ *         fork-join pool, then at full resolution around the best coarse
+ *         pixel. If it is close enough, the blob is the connected component
+ *         containing it among the pixels within a tolerance of the color.
+ */
+public class ColorBlobSearch {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents a search that downsamples frames levels times, accepts a
+     * closest pixel whose color differs by less than matchThreshold in total
+     * over the three channels, and grows it into a blob of pixels within
+     * tolerance of the color in every channel.
+     *
+     * Rep invariants:
+     *
+     * levels >= 0, matchThreshold > 0, tolerance >= matchThreshold (so a
+     * pixel close enough to be accepted is within tolerance in every channel,
+     * and so in the mask).
+     *
+     * The Mats, coarsePixels and regionStatistics are only scratch space; they
+     * hold nothing between calls.
+     *
+     * Thread safety arguments:
+     *
+     * search() is synchronized, since it reuses the scratch space. The tasks it
+     * forks only read coarsePixels, which is not written while they run, and
+     * return their results through join().
+     */
+
+    // the thresholds FeatureDetectionController has always used
+    private static final int DEFAULT_LEVELS = 2;
+
+    private static final double DEFAULT_TOLERANCE = 60;
+
+    private static final double DEFAULT_MATCH_THRESHOLD = 5;
+
+    // bands of at most this many coarse rows are searched without forking
+    private static final int BAND_ROWS = 16;
+
+    // color differences are compared as fixed point numbers with this many
+    // steps per unit, so that a difference and a pixel index pack into a long
+    private static final int DIFFERENCE_STEPS = 16;
+
+    private static final long NO_PIXEL = Long.MAX_VALUE;
+
+    private final ForkJoinPool pool;
+
+    private final int levels;
+
+    private final double tolerance;
+
+    private final double matchThreshold;
+
+    private final Mat[] pyramid;
+
+    private final Mat mask = new Mat();
+
+    private final Mat labels = new Mat();
+
+    private final Mat stats = new Mat();
+
+    private final Mat centroids = new Mat();
+
+    private final RegionStatistics regionStatistics = new RegionStatistics();
+
+    private byte[] coarsePixels = new byte[0];
+
+    public ColorBlobSearch() {
+        this(ForkJoinPool.commonPool(), DEFAULT_LEVELS, DEFAULT_TOLERANCE, DEFAULT_MATCH_THRESHOLD);
+    }
+
+    /**
+     * @param pool
+     *            runs the coarse search.
+     * @param levels
+     *            how many times the frame is halved in each direction for the
+     *            coarse search; 0 searches the whole frame at full resolution.
+     * @param tolerance
+     *            how far, in each channel, a pixel's color may be from the
+     *            color searched for and still be part of the blob.
+     * @param matchThreshold
+     *            the closest pixel must differ from the color searched for by
+     *            less than this, summed over the three channels, or nothing is
+     *            found. At most tolerance.
+     */
+    public ColorBlobSearch(ForkJoinPool pool, int levels, double tolerance, double matchThreshold) {
+        if (levels < 0 || matchThreshold <= 0 || tolerance < matchThreshold) {
+            throw new IllegalArgumentException("invalid color blob search thresholds: " + levels + ", "
+                    + tolerance + ", " + matchThreshold);
+        }
+        this.pool = pool;
+        this.levels = levels;
+        this.tolerance = tolerance;
+        this.matchThreshold = matchThreshold;
+        this.pyramid = new Mat[levels];
+        for (int level = 0; level < levels; level++) {
+            pyramid[level] = new Mat();
+        }
+    }
+
+    /**
+     * @param frame
+     *            an 8 bit BGR image; not modified.
+     * @param color
+     *            the blue, green and red to search for.
+     * @return {x, y, radius} of the blob: its centroid, and the radius of a
+     *         circle with its area; or null if no pixel is close enough to
+     *         color.
+     */
+    public synchronized int[] search(Mat frame, double[] color) {
+        Mat coarse = frame;
+        for (int level = 0; level < levels; level++) {
+            Imgproc.pyrDown(coarse, pyramid[level]);
+            coarse = pyramid[level];
+        }
+
+        int coarseWidth = coarse.cols();
+        int coarseHeight = coarse.rows();
+        int length = coarseWidth * coarseHeight * 3;
+        if (coarsePixels.length < length) {
+            coarsePixels = new byte[length];
+        }
+        coarse.get(0, 0, coarsePixels);
+
+        long coarseBest = pool.invoke(new ClosestPixel(coarsePixels, color, 0, coarseHeight, coarseWidth));
+        if (coarseBest == NO_PIXEL) {
+            return null;
+        }
+        int coarseIndex = (int) coarseBest;
+        int coarseX = coarseIndex % coarseWidth;
+        int coarseY = coarseIndex / coarseWidth;
+
+        // refine over the full resolution pixels the coarse pixel was made
+        // from, and a coarse pixel's worth around them, since pyrDown blurs
+        int scale = 1 << levels;
+        int top = Math.max(0, (coarseY - 1) * scale);
+        int bottom = Math.min(frame.rows(), (coarseY + 2) * scale);
+        int left = Math.max(0, (coarseX - 1) * scale);
+        int right = Math.min(frame.cols(), (coarseX + 2) * scale);
+        int regionLength = regionStatistics.pixels(frame, top, bottom, left, right);
+        long best = closestPixel(regionStatistics.pixelArray(), color, 0, regionLength / 3);
+
+        if ((best >>> 32) >= matchThreshold * DIFFERENCE_STEPS) {
+            return null;
+        }
+        int regionIndex = (int) best;
+        int closestX = left + regionIndex % (right - left);
+        int closestY = top + regionIndex / (right - left);
+
+        Core.inRange(frame, new Scalar(color[0] - tolerance, color[1] - tolerance, color[2] - tolerance),
+                new Scalar(color[0] + tolerance, color[1] + tolerance, color[2] + tolerance), mask);
+        Imgproc.connectedComponentsWithStats(mask, labels, stats, centroids, 8, CvType.CV_32S);
+
+        // the closest pixel is within tolerance, so it should be in a blob;
+        // label 0 is the background, should rounding have left it out
+        int label = (int) labels.get(closestY, closestX)[0];
+        if (label == 0) {
+            return null;
+        }
+        double area = stats.get(label, Imgproc.CC_STAT_AREA)[0];
+        double[] centroid = new double[2];
+        centroids.get(label, 0, centroid);
+
+        int[] blob = new int[3];
+        blob[0] = (int) Math.round(centroid[0]);
+        blob[1] = (int) Math.round(centroid[1]);
+        blob[2] = (int) Math.sqrt(area / Math.PI);
+        return blob;
+    }
+
+    public synchronized void close() {
+        for (Mat level : pyramid) {
+            level.release();
+        }
+        mask.release();
+        labels.release();
+        stats.release();
+        centroids.release();
+    }
+
+    /**
+     * @return the difference, in fixed point, of the pixel among pixels
+     *         [from, to) of the interleaved BGR array that is closest to color,
+     *         packed above its index; the first such pixel on ties.
+     */
+    private static long closestPixel(byte[] pixels, double[] color, int from, int to) {
+        double blue = color[0];
+        double green = color[1];
+        double red = color[2];
+        long best = NO_PIXEL;
+        for (int pixel = from, index = from * 3; pixel < to; pixel++, index += 3) {
+            double difference = Math.abs(blue - (pixels[index] & 0xFF)) + Math.abs(green - (pixels[index + 1] & 0xFF))
+                    + Math.abs(red - (pixels[index + 2] & 0xFF));
+            long candidate = ((long) (difference * DIFFERENCE_STEPS) << 32) | pixel;
+            if (candidate < best) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Searches rows [top, bottom) of an image width pixels wide, splitting
+     * into bands of BAND_ROWS rows.
+     */
+    private static class ClosestPixel extends RecursiveTask<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] pixels;
+
+        private final double[] color;
+
+        private final int top;
+
+        private final int bottom;
+
+        private final int width;
+
+        ClosestPixel(byte[] pixels, double[] color, int top, int bottom, int width) {
+            this.pixels = pixels;
+            this.color = color;
+            this.top = top;
+            this.bottom = bottom;
+            this.width = width;
+        }
+
+        @Override
+        protected Long compute() {
+            if (bottom - top <= BAND_ROWS) {
+                return closestPixel(pixels, color, top * width, bottom * width);
+            }
+            int middle = (top + bottom) >>> 1;
+            ClosestPixel upper = new ClosestPixel(pixels, color, top, middle, width);
+            upper.fork();
+            long lower = new ClosestPixel(pixels, color, middle, bottom, width).compute();
+            return Math.min(upper.join(), lower);
+        }
+    }
+}
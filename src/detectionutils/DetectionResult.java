@@ -0,0 +1,102 @@
+package detectionutils;
+
+import java.util.ArrayList;
+
+import ballutils.BallCollection;
+import qrutils.QRCollection;
+
+/**
+ * 
+ * @author trist
+ *
+ *         Everything the detectors found in one frame: its barcodes and its
+ *         balls, published together so that no reader ever pairs the barcodes
+ *         of one frame with the balls of another.
+ */
+public class DetectionResult {
+
+    /*
+     * Abstraction function:
+     * 
+     * Represents the barcodes and balls found in the frame with sequence
+     * number frameId, captured at captureTimeMillis. complete is false if a
+     * detector missed the frame's deadline, in which case its collection is
+     * empty.
+     * 
+     * Rep invariants:
+     * 
+     * barcodes and balls are not null.
+     * 
+     * Safety from rep exposure:
+     * 
+     * All fields are private and final, and QRCollection and BallCollection
+     * are treated as immutable.
+     */
+
+    private final long frameId;
+
+    private final long captureTimeMillis;
+
+    private final QRCollection barcodes;
+
+    private final BallCollection balls;
+
+    private final boolean complete;
+
+    public DetectionResult(long frameId, long captureTimeMillis, QRCollection barcodes, BallCollection balls,
+            boolean complete) {
+        this.frameId = frameId;
+        this.captureTimeMillis = captureTimeMillis;
+        this.barcodes = barcodes;
+        this.balls = balls;
+        this.complete = complete;
+    }
+
+    /**
+     * @return a complete result with nothing found in the frame.
+     */
+    public static DetectionResult none(long frameId, long captureTimeMillis) {
+        return new DetectionResult(frameId, captureTimeMillis, new QRCollection(new ArrayList<>()),
+                new BallCollection(new ArrayList<>()), true);
+    }
+
+    /**
+     * @return the sequence number of the frame the detections were made in.
+     */
+    public long frameId() {
+        return frameId;
+    }
+
+    public long captureTimeMillis() {
+        return captureTimeMillis;
+    }
+
+    public QRCollection barcodes() {
+        return barcodes;
+    }
+
+    public BallCollection balls() {
+        return balls;
+    }
+
+    /**
+     * @return false if some detector did not answer before the frame's
+     *         deadline.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return this result with its balls replaced by balls.
+     */
+    public DetectionResult withBalls(BallCollection balls) {
+        return new DetectionResult(frameId, captureTimeMillis, barcodes, balls, complete);
+    }
+
+    @Override
+    public String toString() {
+        return "(frame " + frameId + ", barcodes " + barcodes + ", balls " + balls + (complete ? "" : ", incomplete")
+                + ")";
+    }
+}
@@ -0,0 +1,249 @@
+package detectionutils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ballutils.BallCollection;
+import frameutils.Frame;
+import qrutils.QRCollection;
+
+/**
+ * 
+ * @author trist
+ *
+ *         Runs every enabled detector on the same frame at once and joins
+ *         their results into one DetectionResult, so a frame takes as long as
+ *         its slowest detector rather than the sum of them. A detector that
+ *         has not answered by the frame's deadline contributes nothing to
+ *         that frame's result, and neither does one that could not even be
+ *         handed the frame by then (no worker connected, or every worker or
+ *         detection thread busy); either way the frame counts as a missed
+ *         deadline, and detect() never waits past the deadline.
+ */
+public class DetectionStage {
+
+    /*
+     * Abstraction function:
+     * 
+     * Represents a stage that finds balls with ballDetector (unless it is
+     * null) and barcodes with barcodeDetector (unless it is null), giving each
+     * frame deadlineNanos.
+     * 
+     * Rep invariants:
+     * 
+     * deadlineNanos > 0.
+     * 
+     * Thread safety arguments:
+     * 
+     * The detectors are threadsafe, executor is a threadsafe executor service
+     * (whose queue holds at most one detection per thread) and the counters
+     * are atomic. detect() may be called from several
+     * threads at once.
+     */
+
+    private final BallDetector ballDetector;
+
+    private final BarcodeDetector barcodeDetector;
+
+    private final long deadlineNanos;
+
+    private final ExecutorService executor;
+
+    private final AtomicLong framesDetected = new AtomicLong();
+
+    private final AtomicLong deadlinesMissed = new AtomicLong();
+
+    /**
+     * Starts a daemon thread for each detector that runs in this process.
+     *
+     * @param ballDetector
+     *            finds the balls, or null to not look for balls.
+     * @param barcodeDetector
+     *            finds the barcodes, or null to not look for barcodes.
+     * @param deadlineMillis
+     *            how long detect() waits for the detectors.
+     */
+    public DetectionStage(BallDetector ballDetector, BarcodeDetector barcodeDetector, long deadlineMillis) {
+        this(ballDetector, barcodeDetector, deadlineMillis, 2);
+    }
+
+    /**
+     * Like DetectionStage(ballDetector, barcodeDetector, deadlineMillis), but
+     * with threads daemon threads shared by the detectors that run in this
+     * process.
+     */
+    public DetectionStage(BallDetector ballDetector, BarcodeDetector barcodeDetector, long deadlineMillis,
+            int threads) {
+        this.ballDetector = ballDetector;
+        this.barcodeDetector = barcodeDetector;
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        // detections beyond the queue are rejected, rather than queued up
+        // behind frames whose deadlines will have passed by the time they run
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads), runnable -> {
+                    Thread thread = new Thread(runnable, "detection-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Submits frame to every enabled detector and waits, until the deadline
+     * at most, for all of them. Detections still running at the deadline are
+     * cancelled. frame may be released as soon as this returns.
+     *
+     * @return what the detectors found in frame, tagged with its sequence
+     *         number; incomplete if a detector missed the deadline.
+     * @throws IOException
+     *             if a detector failed, for example because its worker
+     *             disconnected.
+     */
+    public DetectionResult detect(Frame frame) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + deadlineNanos;
+
+        CompletableFuture<BallCollection> balls = null;
+        if (ballDetector != null) {
+            balls = ballDetector.submitBalls(frame, deadline);
+            if (balls == null) {
+                balls = submitInProcess(frame, retained -> ballDetector.extractBalls(retained, deadline));
+            }
+        }
+        CompletableFuture<QRCollection> barcodes = null;
+        if (barcodeDetector != null) {
+            barcodes = barcodeDetector.submitBarcodes(frame, deadline);
+            if (barcodes == null) {
+                barcodes = submitInProcess(frame, barcodeDetector::extractBarcodes);
+            }
+        }
+
+        BallCollection foundBalls = join(balls, deadline);
+        QRCollection foundBarcodes = join(barcodes, deadline);
+
+        boolean complete = (balls == null || foundBalls != null) && (barcodes == null || foundBarcodes != null);
+        framesDetected.incrementAndGet();
+        if (!complete) {
+            deadlinesMissed.incrementAndGet();
+        }
+
+        return new DetectionResult(frame.sequence(), frame.captureTimeMillis(),
+                foundBarcodes != null ? foundBarcodes : new QRCollection(new ArrayList<>()),
+                foundBalls != null ? foundBalls : new BallCollection(new ArrayList<>()), complete);
+    }
+
+    /**
+     * Runs detection on frame on executor, holding a reference to frame until
+     * it is done. Cancelling the future skips the detection if it has not
+     * started.
+     *
+     * @return a future completed with what detection found, or completed
+     *         exceptionally with the exception it failed with, or with a
+     *         TimeoutException if executor had no room for it or detection
+     *         gave up at the deadline (returned null).
+     */
+    private <T> CompletableFuture<T> submitInProcess(Frame frame, FrameDetection<T> detection) {
+        CompletableFuture<T> found = new CompletableFuture<>();
+        Frame retained = frame.retain();
+        try {
+            executor.execute(() -> {
+                try {
+                    if (!found.isDone()) {
+                        T detected = detection.detect(retained);
+                        if (detected != null) {
+                            found.complete(detected);
+                        } else {
+                            found.completeExceptionally(new TimeoutException("Detection gave up at the deadline"));
+                        }
+                    }
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    found.completeExceptionally(e);
+                } finally {
+                    retained.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            retained.release();
+            found.completeExceptionally(new TimeoutException("No room to start detecting"));
+        }
+        return found;
+    }
+
+    /**
+     * @return the result of detection, or null if it is not done by deadline
+     *         (in which case it is cancelled), could not be started in time,
+     *         or was never started.
+     */
+    private static <T> T join(CompletableFuture<T> detection, long deadline)
+            throws IOException, InterruptedException {
+        if (detection == null) {
+            return null;
+        }
+        try {
+            return detection.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            detection.cancel(true);
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                return null;
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the number of frames detect() has finished.
+     */
+    public long framesDetected() {
+        return framesDetected.get();
+    }
+
+    /**
+     * @return the number of frames for which some detector missed the
+     *         deadline.
+     */
+    public long deadlinesMissed() {
+        return deadlinesMissed.get();
+    }
+
+    /**
+     * Stops the detection threads and closes the detectors.
+     */
+    public void close() throws IOException {
+        executor.shutdownNow();
+        if (ballDetector != null) {
+            ballDetector.close();
+        }
+        if (barcodeDetector != null) {
+            barcodeDetector.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "(frames " + framesDetected() + ", deadlines missed " + deadlinesMissed() + ", ball detector "
+                + ballDetector + ")";
+    }
+
+    /**
+     * A detector's synchronous extractBalls() or extractBarcodes(), which
+     * returns null if it gave up at the frame's deadline.
+     */
+    private interface FrameDetection<T> {
+        T detect(Frame frame) throws IOException, InterruptedException;
+    }
+}
@@ -0,0 +1,66 @@
+package detectionutils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 
+ * @author trist
+ *
+ *         A detector worker script (such as BarcodeFinder.py) running as a
+ *         child process. The process is held by its handle, so closing it
+ *         stops exactly that process, on any platform, rather than every
+ *         Python process on the machine.
+ */
+public class DetectorProcess {
+
+    // how long close() lets the worker exit before killing it
+    private static final long EXIT_WAIT_MILLIS = 2000;
+
+    private final String script;
+
+    private final Process process;
+
+    private DetectorProcess(String script, Process process) {
+        this.script = script;
+        this.process = process;
+    }
+
+    /**
+     * Starts "python script" in the working directory. The worker's output
+     * goes to this process's output.
+     */
+    public static DetectorProcess start(String script) throws IOException {
+        Process process = new ProcessBuilder("python", script).inheritIO().start();
+        return new DetectorProcess(script, process);
+    }
+
+    /**
+     * Like start(script), but tells the worker to connect to port rather than
+     * the port written in the script.
+     */
+    public static DetectorProcess start(String script, int port) throws IOException {
+        Process process = new ProcessBuilder("python", script, String.valueOf(port)).inheritIO().start();
+        return new DetectorProcess(script, process);
+    }
+
+    public boolean isAlive() {
+        return process.isAlive();
+    }
+
+    /**
+     * Asks the worker to exit, and kills it if it has not within
+     * EXIT_WAIT_MILLIS.
+     */
+    public void close() throws InterruptedException {
+        process.destroy();
+        if (!process.waitFor(EXIT_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "(" + script + ", " + (isAlive() ? "running" : "exited " + process.exitValue()) + ")";
+    }
+}
@@ -0,0 +1,112 @@
+package detectionutils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import ballutils.BallCollection;
+import ballutils.BallElement;
+import frameutils.Frame;
+import parsers.BallParser;
+
+/**
+ * 
+ * @author trist
+ *
+ *         Finds balls with the same Hough circle transform BallFinder.py runs,
+ *         but in this process and directly on the decoded frame, so there is
+ *         no socket round trip, no string protocol and no Python process to
+ *         manage.
+ */
+public class HoughBallDetector implements BallDetector {
+
+    /*
+     * Abstraction function:
+     * 
+     * Represents a Hough circle detector with accumulator resolution
+     * inverseRatio and minimum distance between centers minDistance.
+     * 
+     * Rep invariants:
+     * 
+     * gray and circles are only scratch space; they hold nothing between
+     * calls.
+     * 
+     * Thread safety arguments:
+     * 
+     * extractBalls() is synchronized, since it reuses gray and circles.
+     */
+
+    // the parameters BallFinder.py passes to cv2.HoughCircles
+    private static final double DEFAULT_INVERSE_RATIO = 1.2;
+
+    private static final double DEFAULT_MIN_DISTANCE = 100;
+
+    private final double inverseRatio;
+
+    private final double minDistance;
+
+    private final Mat gray = new Mat();
+
+    private final Mat circles = new Mat();
+
+    private float[] circleData = new float[0];
+
+    public HoughBallDetector() {
+        this(DEFAULT_INVERSE_RATIO, DEFAULT_MIN_DISTANCE);
+    }
+
+    /**
+     * @param inverseRatio
+     *            the ratio of the image resolution to the accumulator
+     *            resolution.
+     * @param minDistance
+     *            the smallest distance, in pixels, between the centers of two
+     *            detected balls.
+     */
+    public HoughBallDetector(double inverseRatio, double minDistance) {
+        this.inverseRatio = inverseRatio;
+        this.minDistance = minDistance;
+    }
+
+    @Override
+    public BallCollection extractBalls(Frame frame) {
+        return extractBalls(frame.image());
+    }
+
+    /**
+     * @return the balls in image, strongest first.
+     */
+    @Override
+    public synchronized BallCollection extractBalls(Mat image) {
+        Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+        Imgproc.HoughCircles(gray, circles, Imgproc.CV_HOUGH_GRADIENT, inverseRatio, minDistance);
+
+        int width = image.cols();
+        int height = image.rows();
+        List<BallElement> balls = new ArrayList<>();
+        if (!circles.empty()) {
+            // one row of (x, y, radius) triples
+            int length = (int) circles.total() * circles.channels();
+            if (circleData.length < length) {
+                circleData = new float[length];
+            }
+            circles.get(0, 0, circleData);
+            for (int index = 0; index < length; index += 3) {
+                int x = (int) circleData[index];
+                int y = (int) circleData[index + 1];
+                int radius = (int) circleData[index + 2];
+                balls.add(new BallElement(x, y, radius, BallParser.distance(radius, width, height), width, height));
+            }
+        }
+        return new BallCollection(balls);
+    }
+
+    @Override
+    public synchronized void close() {
+        gray.release();
+        circles.release();
+    }
+
+}
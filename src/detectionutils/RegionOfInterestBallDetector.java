@@ -0,0 +1,252 @@
+package detectionutils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+
+import ballutils.BallCollection;
+import ballutils.BallElement;
+import frameutils.Frame;
+import parsers.BallParser;
+
+/**
+ * 
+ * @author trist
+ *
+ *         Wraps another BallDetector so that, while a ball is being tracked,
+ *         only a region around where it was last seen is searched. The region
+ *         is centered on the last ball and reaches its radius plus a motion
+ *         margin beyond it in every direction; detections in it are mapped
+ *         back to the coordinates of the whole frame. The whole frame is
+ *         searched every fullSearchInterval frames, and whenever the region
+ *         turns up no ball.
+ */
+public class RegionOfInterestBallDetector implements BallDetector {
+
+    /*
+     * Abstraction function:
+     * 
+     * Represents a detector that searches the whole image with detector
+     * unless lastBall is not null and fewer than fullSearchInterval frames
+     * have passed since the last whole-image search, in which case it searches
+     * the region around lastBall first.
+     * 
+     * Rep invariants:
+     * 
+     * fullSearchInterval >= 1, motionMargin >= 0, minMarginPixels >= 0,
+     * framesSinceFullSearch >= 0. lastBall is in the coordinates of the whole
+     * image.
+     * 
+     * Thread safety arguments:
+     * 
+     * All mutable state is guarded by the lock on this, and detector is
+     * threadsafe.
+     */
+
+    private static final int DEFAULT_FULL_SEARCH_INTERVAL = 15;
+
+    // how far, in radii, a ball may move between two searched frames
+    private static final double DEFAULT_MOTION_MARGIN = 1.5;
+
+    private static final int DEFAULT_MIN_MARGIN_PIXELS = 24;
+
+    private final BallDetector detector;
+
+    private final int fullSearchInterval;
+
+    private final double motionMargin;
+
+    private final int minMarginPixels;
+
+    private BallElement lastBall = null;
+
+    private int framesSinceFullSearch = 0;
+
+    private long fullSearches = 0;
+
+    private long regionSearches = 0;
+
+    private long tracksLost = 0;
+
+    private long pixelsSearched = 0;
+
+    private long pixelsInFrames = 0;
+
+    public RegionOfInterestBallDetector(BallDetector detector) {
+        this(detector, DEFAULT_FULL_SEARCH_INTERVAL, DEFAULT_MOTION_MARGIN, DEFAULT_MIN_MARGIN_PIXELS);
+    }
+
+    /**
+     * @param detector
+     *            searches whole images and regions of them.
+     * @param fullSearchInterval
+     *            the whole image is searched at least once every this many
+     *            frames, so that new balls are found.
+     * @param motionMargin
+     *            how far, in radii of the last ball, the region extends beyond
+     *            the ball.
+     * @param minMarginPixels
+     *            how far the region extends beyond the ball at least, for
+     *            small balls.
+     */
+    public RegionOfInterestBallDetector(BallDetector detector, int fullSearchInterval, double motionMargin,
+            int minMarginPixels) {
+        this.detector = detector;
+        this.fullSearchInterval = fullSearchInterval;
+        this.motionMargin = motionMargin;
+        this.minMarginPixels = minMarginPixels;
+    }
+
+    @Override
+    public BallCollection extractBalls(Frame frame) throws IOException, InterruptedException {
+        return extractBalls(frame, frame.image(), false, 0);
+    }
+
+    @Override
+    public BallCollection extractBalls(Mat image) throws IOException, InterruptedException {
+        return extractBalls(null, image, false, 0);
+    }
+
+    /**
+     * Like extractBalls(frame), but passes deadline on to detector, so that
+     * a detector that has to wait for a worker gives up in time rather than
+     * holding the lock on this.
+     */
+    @Override
+    public BallCollection extractBalls(Frame frame, long deadline) throws IOException, InterruptedException {
+        return extractBalls(frame, frame.image(), true, deadline);
+    }
+
+    @Override
+    public BallCollection extractBalls(Mat image, long deadline) throws IOException, InterruptedException {
+        return extractBalls(null, image, true, deadline);
+    }
+
+    /**
+     * @param frame
+     *            the frame whose image() is image, so that a whole-frame
+     *            search can hand detector the frame itself, or null if image
+     *            is not a whole frame.
+     * @return the balls in image, or null if timed and detector did not
+     *         finish by deadline.
+     */
+    private synchronized BallCollection extractBalls(Frame frame, Mat image, boolean timed, long deadline)
+            throws IOException, InterruptedException {
+        pixelsInFrames += (long) image.cols() * image.rows();
+        if (shouldSearchRegion()) {
+            BallCollection balls = searchRegion(image, timed, deadline);
+            if (balls == null || !balls.getCollection().isEmpty()) {
+                return balls;
+            }
+        }
+        BallCollection balls;
+        if (frame != null) {
+            balls = timed ? detector.extractBalls(frame, deadline) : detector.extractBalls(frame);
+        } else {
+            balls = timed ? detector.extractBalls(image, deadline) : detector.extractBalls(image);
+        }
+        if (balls != null) {
+            recordFullSearch(balls, image.cols(), image.rows());
+        }
+        return balls;
+    }
+
+    private boolean shouldSearchRegion() {
+        return lastBall != null && framesSinceFullSearch < fullSearchInterval;
+    }
+
+    /**
+     * @return the balls found in the region around lastBall, in the
+     *         coordinates of image; none if the track is lost; or null if
+     *         timed and detector did not finish by deadline.
+     */
+    private BallCollection searchRegion(Mat image, boolean timed, long deadline)
+            throws IOException, InterruptedException {
+        int width = image.cols();
+        int height = image.rows();
+        int reach = lastBall.radius() + Math.max(minMarginPixels, (int) Math.ceil(motionMargin * lastBall.radius()));
+
+        int left = Math.max(0, lastBall.x() - reach);
+        int top = Math.max(0, lastBall.y() - reach);
+        int right = Math.min(width, lastBall.x() + reach + 1);
+        int bottom = Math.min(height, lastBall.y() + reach + 1);
+        if (right <= left || bottom <= top) {
+            lostTrack();
+            return new BallCollection(new ArrayList<>());
+        }
+
+        Mat region = image.submat(top, bottom, left, right);
+        BallCollection found;
+        try {
+            found = timed ? detector.extractBalls(region, deadline) : detector.extractBalls(region);
+        } finally {
+            region.release();
+        }
+        if (found == null) {
+            return null;
+        }
+        regionSearches++;
+        pixelsSearched += (long) (right - left) * (bottom - top);
+
+        if (found.getCollection().isEmpty()) {
+            lostTrack();
+            return found;
+        }
+
+        List<BallElement> balls = new ArrayList<>();
+        for (BallElement ball : found.getCollection()) {
+            balls.add(new BallElement(ball.x() + left, ball.y() + top, ball.radius(),
+                    BallParser.distance(ball.radius(), width, height), width, height));
+        }
+        lastBall = balls.get(0);
+        framesSinceFullSearch++;
+        return new BallCollection(balls);
+    }
+
+    private void lostTrack() {
+        lastBall = null;
+        tracksLost++;
+    }
+
+    private void recordFullSearch(BallCollection balls, int width, int height) {
+        fullSearches++;
+        pixelsSearched += (long) width * height;
+        lastBall = balls.getCollection().isEmpty() ? null : balls.getCollection().get(0);
+        framesSinceFullSearch = 0;
+    }
+
+    /**
+     * @return the number of times the whole image was searched.
+     */
+    public synchronized long fullSearches() {
+        return fullSearches;
+    }
+
+    /**
+     * @return the number of times only a region was searched.
+     */
+    public synchronized long regionSearches() {
+        return regionSearches;
+    }
+
+    /**
+     * @return the number of pixels searched over the number of pixels in the
+     *         frames seen; above 1 when lost tracks cost a second search.
+     */
+    public synchronized double fractionSearched() {
+        return pixelsInFrames == 0 ? 1 : (double) pixelsSearched / pixelsInFrames;
+    }
+
+    @Override
+    public void close() throws IOException {
+        detector.close();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "(full searches " + fullSearches + ", region searches " + regionSearches + ", tracks lost "
+                + tracksLost + ", fraction searched " + String.format("%.3f", fractionSearched()) + ")";
+    }
+}
@@ -0,0 +1,233 @@
+package displayutils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import javafx.application.Platform;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ *
+ * @author trist
+ *
+ *         Shows annotated frames in an ImageView without holding up the
+ *         thread that produces them. offer() converts a frame's pixels into a
+ *         buffer and hands it to the JavaFX application thread, which copies
+ *         it into a WritableImage that is reused for as long as the frames
+ *         stay the same size. Nothing is encoded, and the ImageView is only
+ *         touched on the application thread.
+ *
+ *         Frames offered faster than the display refresh cap are skipped
+ *         before any pixel is copied, and a frame still waiting for the
+ *         application thread when a newer one arrives is replaced by it, so
+ *         only the newest frame is ever rendered.
+ */
+public class FrameDisplay implements FrameListener {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents the display of frames in view, at most one frame every
+     * minIntervalNanos. pending is the newest converted frame not yet
+     * rendered, if any, and image is the frame on screen.
+     *
+     * Rep invariants:
+     *
+     * Every buffer is in exactly one of: free, pending, or in the hands of
+     * one thread (the offering thread filling it, or the application thread
+     * rendering it). A render is scheduled on the application thread
+     * whenever pending goes from null to a frame.
+     *
+     * Thread safety arguments:
+     *
+     * offer() and clear() are called by one thread at a time: the thread
+     * producing frames (for a VisionPipeline, its annotate stage's, which
+     * makes both calls, see FrameListener). Buffers pass between that thread and the application
+     * thread through pending and free, which are threadsafe. image and view
+     * are only touched on the application thread. Counters are atomic.
+     */
+
+    // one buffer being filled, one pending and one being rendered
+    private static final int BUFFERS = 3;
+
+    private static final PixelFormat<ByteBuffer> RGB = PixelFormat.getByteRgbInstance();
+
+    private final ImageView view;
+
+    private final long minIntervalNanos;
+
+    private final AtomicReference<DisplayBuffer> pending = new AtomicReference<>();
+
+    private final BlockingQueue<DisplayBuffer> free = new ArrayBlockingQueue<>(BUFFERS);
+
+    private final Mat rgb = new Mat();
+
+    private long lastOfferNanos = 0;
+
+    private WritableImage image = null;
+
+    private final AtomicLong framesShown = new AtomicLong();
+
+    private final AtomicLong framesReplaced = new AtomicLong();
+
+    private final AtomicLong framesSkipped = new AtomicLong();
+
+    /**
+     * @param maxFramesPerSecond
+     *            the most frames shown per second, however fast they are
+     *            offered.
+     */
+    public FrameDisplay(ImageView view, int maxFramesPerSecond) {
+        this.view = view;
+        this.minIntervalNanos = 1000000000L / maxFramesPerSecond;
+        for (int buffer = 0; buffer < BUFFERS; buffer++) {
+            free.add(new DisplayBuffer());
+        }
+    }
+
+    /**
+     * Shows frame, unless a frame was offered too recently. Never waits for
+     * the application thread.
+     *
+     * @param frame
+     *            an 8 bit BGR image; only read during the call.
+     * @return whether frame will be shown, unless a newer frame is offered
+     *         before the application thread gets to it.
+     */
+    public boolean offer(Mat frame) {
+        long now = System.nanoTime();
+        if (lastOfferNanos != 0 && now - lastOfferNanos < minIntervalNanos) {
+            framesSkipped.incrementAndGet();
+            return false;
+        }
+        lastOfferNanos = now;
+
+        // the rendering thread hands one back as soon as it is done with it
+        DisplayBuffer buffer = free.poll();
+        if (buffer == null) {
+            framesSkipped.incrementAndGet();
+            return false;
+        }
+
+        Imgproc.cvtColor(frame, rgb, Imgproc.COLOR_BGR2RGB);
+        buffer.fill(rgb);
+
+        DisplayBuffer replaced = pending.getAndSet(buffer);
+        if (replaced == null) {
+            Platform.runLater(this::render);
+        } else {
+            // the scheduled render will pick up buffer instead
+            framesReplaced.incrementAndGet();
+            free.add(replaced);
+        }
+        return true;
+    }
+
+    /**
+     * Same as offer(image).
+     */
+    @Override
+    public void frameProcessed(Mat image) {
+        offer(image);
+    }
+
+    /**
+     * Same as clear().
+     */
+    @Override
+    public void framesStopped() {
+        clear();
+    }
+
+    /**
+     * Blanks the display, dropping any frame not yet rendered.
+     */
+    public void clear() {
+        DisplayBuffer dropped = pending.getAndSet(null);
+        if (dropped != null) {
+            free.add(dropped);
+        }
+        Platform.runLater(() -> {
+            image = null;
+            view.setImage(null);
+        });
+    }
+
+    /**
+     * @return the number of frames rendered.
+     */
+    public long framesShown() {
+        return framesShown.get();
+    }
+
+    /**
+     * @return the number of frames replaced by newer ones before they were
+     *         rendered.
+     */
+    public long framesReplaced() {
+        return framesReplaced.get();
+    }
+
+    /**
+     * @return the number of frames skipped by the refresh cap, or because
+     *         every buffer was in use.
+     */
+    public long framesSkipped() {
+        return framesSkipped.get();
+    }
+
+    @Override
+    public String toString() {
+        return "shown " + framesShown() + ", replaced " + framesReplaced() + ", skipped " + framesSkipped();
+    }
+
+    // runs on the application thread
+    private void render() {
+        DisplayBuffer buffer = pending.getAndSet(null);
+        if (buffer == null) {
+            // cleared after this render was scheduled
+            return;
+        }
+        try {
+            if (image == null || (int) image.getWidth() != buffer.width || (int) image.getHeight() != buffer.height) {
+                image = new WritableImage(buffer.width, buffer.height);
+                view.setImage(image);
+            }
+            image.getPixelWriter().setPixels(0, 0, buffer.width, buffer.height, RGB, buffer.pixels, 0,
+                    buffer.width * 3);
+            framesShown.incrementAndGet();
+        } finally {
+            free.add(buffer);
+        }
+    }
+
+    /**
+     * The RGB pixels of one frame.
+     */
+    private static class DisplayBuffer {
+
+        private byte[] pixels = new byte[0];
+
+        private int width;
+
+        private int height;
+
+        private void fill(Mat rgb) {
+            width = rgb.cols();
+            height = rgb.rows();
+            int length = width * height * 3;
+            if (pixels.length < length) {
+                pixels = new byte[length];
+            }
+            rgb.get(0, 0, pixels);
+        }
+    }
+}
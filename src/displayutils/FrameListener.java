@@ -0,0 +1,32 @@
+package displayutils;
+
+import org.opencv.core.Mat;
+
+/**
+ * 
+ * @author trist
+ *
+ *         Something that wants to see the frames a pipeline has processed,
+ *         such as a display. Both methods are called on one of the
+ *         pipeline's own threads, one call at a time, so they must return
+ *         quickly and must not block.
+ */
+public interface FrameListener {
+
+    /**
+     * Called once for each processed frame.
+     * 
+     * @param image
+     *            the frame's 8 bit BGR image with the detections drawn on it;
+     *            only valid during the call.
+     */
+    void frameProcessed(Mat image);
+
+    /**
+     * Called when the pipeline stops producing frames, for example because
+     * the camera was turned off, after frameProcessed() for every frame
+     * processed before that.
+     */
+    default void framesStopped() {
+    }
+}
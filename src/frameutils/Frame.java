@@ -0,0 +1,222 @@
+package frameutils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import visionservers.EncodedFrame;
+
+/**
+ *
+ * @author trist
+ *
+ *         A camera frame that has been decoded exactly once. The decoded,
+ *         upright BGR image is shared by reference between detection,
+ *         annotation and display; nobody re-encodes it to pass it along.
+ *
+ *         The camera on the arm is mounted upside down, so the JPEG it sends
+ *         is rotated half a turn relative to image(). The original JPEG bytes
+ *         are kept so that they can be forwarded as they are wherever a JPEG
+ *         is needed (for example to a detector in another process); results
+ *         computed on them must be rotated half a turn (see
+ *         BallCollection.rotatedHalfTurn()) to line up with image().
+ *
+ *         Frames normally come from a FramePool and are reference counted:
+ *         every stage a frame is handed to calls retain() before the hand-off
+ *         and release() once it is done, and the last release() returns the
+ *         frame to its pool. decode() overwrites whatever the frame held
+ *         before, so it must only be called on a freshly acquired frame.
+ */
+public class Frame {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents the sequence-th camera frame, captured at captureTimeMillis,
+     * whose upright pixels are image and whose original encoding is the first
+     * encodedLength bytes of encodedData.
+     *
+     * Rep invariants:
+     *
+     * image is width x height, CV_8UC3 (BGR) once decode() has succeeded.
+     * encoded is 1 x encodedData.length, CV_8UC1. references >= 0, and a
+     * pooled frame with references == 0 is back in its pool.
+     *
+     * Thread safety arguments:
+     *
+     * The reference count is atomic. The contents are only written by decode()
+     * while the decoding thread holds the only reference, and are published to
+     * other threads by whatever threadsafe hand-off passes the frame on.
+     * Threads sharing a frame only read it, with the exception of annotations
+     * drawn into image(), which happen on one thread before the frame is
+     * handed to display.
+     */
+
+    // null for a frame created outside of a pool
+    private final FramePool pool;
+
+    private final int poolIndex;
+
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private final Mat image = new Mat();
+
+    // native copy of encodedData for imdecode
+    private Mat encoded;
+
+    private byte[] encodedData;
+
+    private int encodedLength;
+
+    private long sequence;
+
+    private long captureTimeMillis;
+
+    private long receiveTimeNanos;
+
+    /**
+     * Creates a frame that does not belong to any pool. release() simply
+     * drops references to it.
+     */
+    public Frame() {
+        this(null, -1, 64 * 1024);
+    }
+
+    Frame(FramePool pool, int poolIndex, int encodedCapacity) {
+        this.pool = pool;
+        this.poolIndex = poolIndex;
+        this.encodedData = new byte[encodedCapacity];
+        this.encoded = new Mat(1, encodedCapacity, CvType.CV_8UC1);
+    }
+
+    /**
+     * Decodes source into this frame, replacing its previous contents. The
+     * encoded bytes are copied into storage owned by this frame, so source may
+     * be refilled as soon as this returns.
+     *
+     * @param source
+     *            a JPEG frame as sent by the camera on the arm.
+     * @return true if source could be decoded, false otherwise (this frame's
+     *         contents are then unspecified).
+     */
+    public boolean decode(EncodedFrame source) {
+        int length = source.length();
+        if (length > encodedData.length) {
+            // only happens if the camera starts sending larger frames than
+            // the pool was sized for
+            encodedData = new byte[length];
+            encoded.release();
+            encoded = new Mat(1, length, CvType.CV_8UC1);
+        }
+        System.arraycopy(source.data(), 0, encodedData, 0, length);
+
+        Mat window = encoded.colRange(0, length);
+        window.put(0, 0, encodedData);
+        // decode as color so that image is always BGR, whatever the JPEG holds
+        Mat upsideDown = Imgcodecs.imdecode(window, Imgcodecs.CV_LOAD_IMAGE_COLOR);
+        window.release();
+
+        if (upsideDown.empty()) {
+            upsideDown.release();
+            return false;
+        }
+
+        // image keeps its native buffer between frames of the same size
+        Core.flip(upsideDown, image, -1);
+        upsideDown.release();
+
+        encodedLength = length;
+        sequence = source.sequence();
+        captureTimeMillis = source.captureTimeMillis();
+        receiveTimeNanos = source.receiveTimeNanos();
+        return true;
+    }
+
+    /**
+     * @return the upright BGR image. Mutating it (for example to draw
+     *         annotations) is seen by everyone sharing this frame.
+     */
+    public Mat image() {
+        return image;
+    }
+
+    public int width() {
+        return image.cols();
+    }
+
+    public int height() {
+        return image.rows();
+    }
+
+    /**
+     * @return the array holding the original JPEG, rotated half a turn
+     *         relative to image(). Only the first encodedLength() bytes belong
+     *         to this frame.
+     */
+    public byte[] encodedData() {
+        return encodedData;
+    }
+
+    public int encodedLength() {
+        return encodedLength;
+    }
+
+    public long sequence() {
+        return sequence;
+    }
+
+    public long captureTimeMillis() {
+        return captureTimeMillis;
+    }
+
+    public long receiveTimeNanos() {
+        return receiveTimeNanos;
+    }
+
+    /**
+     * Adds a reference to this frame. Call before handing the frame to another
+     * stage that will release() it independently.
+     *
+     * @return this frame
+     */
+    public Frame retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Drops a reference to this frame. The last release returns a pooled frame
+     * to its pool, after which it must not be touched.
+     */
+    public void release() {
+        int remaining = references.decrementAndGet();
+        if (remaining == 0 && pool != null) {
+            pool.recycle(this);
+        } else if (remaining < 0) {
+            throw new IllegalStateException("Frame " + sequence + " released more often than retained");
+        }
+    }
+
+    /**
+     * @return the number of outstanding references to this frame.
+     */
+    public int references() {
+        return references.get();
+    }
+
+    int poolIndex() {
+        return poolIndex;
+    }
+
+    void reset() {
+        references.set(1);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + sequence + "," + width() + "x" + height() + ")";
+    }
+}
@@ -0,0 +1,137 @@
+package frameutils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author trist
+ *
+ *         A fixed-size pool of Frames. The frames' native Mats and encoded
+ *         buffers are allocated once, when the pool is created, so a frame
+ *         that goes through the pipeline in the steady state does not allocate
+ *         any image storage, and native memory no longer waits on the garbage
+ *         collector to be given back.
+ *
+ *         acquire() hands out a frame with one reference; the frame comes back
+ *         to the pool when its last reference is released (see Frame).
+ */
+public class FramePool {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents the set of frames that are free to be acquired (those with
+     * inUse[index] == 0) and the set that are currently referenced somewhere
+     * in the pipeline.
+     *
+     * Rep invariants:
+     *
+     * frames[index].poolIndex() == index. framesInUse equals the number of
+     * ones in inUse, and peakFramesInUse >= framesInUse.
+     *
+     * Thread safety arguments:
+     *
+     * A frame is claimed by compare-and-set on its inUse flag, so two threads
+     * can never acquire the same frame. Frames are recycled by whichever thread
+     * drops their last reference. All counters are atomic. No locks are taken
+     * and nothing is allocated by acquire() or recycle().
+     */
+
+    private final Frame[] frames;
+
+    private final AtomicIntegerArray inUse;
+
+    private final AtomicInteger framesInUse = new AtomicInteger();
+
+    private final AtomicInteger peakFramesInUse = new AtomicInteger();
+
+    private final AtomicLong acquisitions = new AtomicLong();
+
+    private final AtomicLong exhaustions = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            the number of frames in the pool. Should cover every frame
+     *            that can be in flight at once (being detected, annotated and
+     *            displayed) plus one being decoded.
+     * @param encodedCapacity
+     *            the size in bytes of the largest JPEG expected from the
+     *            camera.
+     */
+    public FramePool(int capacity, int encodedCapacity) {
+        frames = new Frame[capacity];
+        inUse = new AtomicIntegerArray(capacity);
+        for (int index = 0; index < capacity; index++) {
+            frames[index] = new Frame(this, index, encodedCapacity);
+        }
+    }
+
+    /**
+     * Never blocks.
+     *
+     * @return a free frame holding one reference, or null if every frame is
+     *         in use (the caller should drop the frame it wanted to decode).
+     */
+    public Frame acquire() {
+        for (int index = 0; index < frames.length; index++) {
+            if (inUse.get(index) == 0 && inUse.compareAndSet(index, 0, 1)) {
+                frames[index].reset();
+                acquisitions.incrementAndGet();
+
+                int occupied = framesInUse.incrementAndGet();
+                int peak = peakFramesInUse.get();
+                while (occupied > peak && !peakFramesInUse.compareAndSet(peak, occupied)) {
+                    peak = peakFramesInUse.get();
+                }
+                return frames[index];
+            }
+        }
+        exhaustions.incrementAndGet();
+        return null;
+    }
+
+    void recycle(Frame frame) {
+        framesInUse.decrementAndGet();
+        inUse.set(frame.poolIndex(), 0);
+    }
+
+    public int capacity() {
+        return frames.length;
+    }
+
+    /**
+     * @return the number of frames currently acquired and not yet released.
+     */
+    public int framesInUse() {
+        return framesInUse.get();
+    }
+
+    /**
+     * @return the largest number of frames that have been in use at once.
+     */
+    public int peakFramesInUse() {
+        return peakFramesInUse.get();
+    }
+
+    /**
+     * @return the number of successful calls to acquire().
+     */
+    public long acquisitions() {
+        return acquisitions.get();
+    }
+
+    /**
+     * @return the number of calls to acquire() that found the pool empty.
+     */
+    public long exhaustions() {
+        return exhaustions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "(in use " + framesInUse() + "/" + capacity() + ", peak " + peakFramesInUse() + ", acquired "
+                + acquisitions() + ", exhausted " + exhaustions() + ")";
+    }
+}
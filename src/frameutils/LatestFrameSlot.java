@@ -0,0 +1,208 @@
+package frameutils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ *
+ * @author trist
+ *
+ *         A lock-free triple buffer that hands the newest frame from one
+ *         producer thread to one consumer thread. The producer never waits
+ *         for the consumer: if it publishes again before the consumer has
+ *         taken the last frame, that frame is dropped and counted. The
+ *         consumer therefore always works on the freshest frame there is.
+ *
+ *         Usage, producer side:
+ *
+ *         <pre>
+ *         T buffer = slot.writeBuffer();
+ *         // fill buffer
+ *         slot.publish();
+ *         </pre>
+ *
+ *         Consumer side:
+ *
+ *         <pre>
+ *         T latest = slot.awaitLatest(100, TimeUnit.MILLISECONDS);
+ *         // read latest until the next call to takeLatest() or awaitLatest()
+ *         </pre>
+ *
+ * @param <T>
+ *            the (mutable) buffer type, for example visionservers.EncodedFrame
+ */
+public class LatestFrameSlot<T> {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents the most recently published frame that the consumer has not
+     * taken yet (if the fresh bit of middle is set), plus the buffer the
+     * producer is filling and the buffer the consumer is reading.
+     *
+     * Rep invariants:
+     *
+     * writeIndex, readIndex and (middle & INDEX_MASK) are always a
+     * permutation of 0, 1, 2. published == dropped + consumed + (1 if the
+     * fresh bit of middle is set, else 0).
+     *
+     * Thread safety arguments:
+     *
+     * writeIndex is only touched by the producer and readIndex only by the
+     * consumer. The two exchange buffers solely through atomic swaps of
+     * middle, so each buffer is owned by exactly one thread at a time and the
+     * swap publishes its contents. Only one producer thread and one consumer
+     * thread may use a slot.
+     */
+
+    private static final int INDEX_MASK = 3;
+
+    private static final int FRESH = 4;
+
+    private final Object[] buffers = new Object[3];
+
+    private int writeIndex = 0;
+
+    private final AtomicInteger middle = new AtomicInteger(1);
+
+    private int readIndex = 2;
+
+    // the consumer, while it is parked in awaitLatest()
+    private volatile Thread waitingConsumer;
+
+    private final AtomicLong published = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong consumed = new AtomicLong();
+
+    /**
+     * @param bufferFactory
+     *            called three times to create the buffers that are cycled
+     *            between producer and consumer.
+     */
+    public LatestFrameSlot(Supplier<T> bufferFactory) {
+        for (int index = 0; index < buffers.length; index++) {
+            buffers[index] = bufferFactory.get();
+        }
+    }
+
+    /**
+     * Producer only.
+     *
+     * @return the buffer the producer may fill. It stays owned by the producer
+     *         until publish() is called.
+     */
+    @SuppressWarnings("unchecked")
+    public T writeBuffer() {
+        return (T) buffers[writeIndex];
+    }
+
+    /**
+     * Producer only. Makes the buffer returned by writeBuffer() the latest
+     * frame, dropping the previous latest frame if the consumer never took it.
+     */
+    public void publish() {
+        int previous = middle.getAndSet(writeIndex | FRESH);
+        writeIndex = previous & INDEX_MASK;
+
+        published.incrementAndGet();
+        if ((previous & FRESH) != 0) {
+            dropped.incrementAndGet();
+        }
+
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Consumer only. Never blocks.
+     *
+     * @return the latest published frame, or null if nothing was published
+     *         since the last take. The returned buffer stays valid until the
+     *         next call to takeLatest() or awaitLatest().
+     */
+    @SuppressWarnings("unchecked")
+    public T takeLatest() {
+        if ((middle.get() & FRESH) == 0) {
+            return null;
+        }
+        int previous = middle.getAndSet(readIndex);
+        readIndex = previous & INDEX_MASK;
+        consumed.incrementAndGet();
+        return (T) buffers[readIndex];
+    }
+
+    /**
+     * Consumer only. Like takeLatest(), but parks until a frame is published
+     * or the timeout passes.
+     *
+     * @return the latest published frame, or null on timeout.
+     * @throws InterruptedException
+     *             if the consumer is interrupted while waiting.
+     */
+    public T awaitLatest(long timeout, TimeUnit unit) throws InterruptedException {
+        T latest = takeLatest();
+        if (latest != null) {
+            return latest;
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        waitingConsumer = Thread.currentThread();
+        try {
+            while ((latest = takeLatest()) == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return latest;
+        } finally {
+            waitingConsumer = null;
+        }
+    }
+
+    /**
+     * @return the number of frames the producer has published.
+     */
+    public long framesPublished() {
+        return published.get();
+    }
+
+    /**
+     * @return the number of published frames that were replaced by a newer
+     *         frame before the consumer took them.
+     */
+    public long framesDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of published frames the consumer took.
+     */
+    public long framesConsumed() {
+        return consumed.get();
+    }
+
+    /**
+     * @return 1 if a published frame is waiting for the consumer, else 0.
+     */
+    public int framesWaiting() {
+        return (middle.get() & FRESH) != 0 ? 1 : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "(published " + framesPublished() + ", consumed " + framesConsumed() + ", dropped "
+                + framesDropped() + ")";
+    }
+}
@@ -0,0 +1,162 @@
+package frameutils;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.Scalar;
+
+/**
+ * 
+ * @author trist
+ *
+ *         Statistics of rectangular regions of 8 bit images (for example the
+ *         color of a ball in a frame), without reading the image one pixel at
+ *         a time. Means and deviations are computed natively by OpenCV;
+ *         anything else reads the region into a reused Java array with a
+ *         single bulk copy (see pixels()).
+ * 
+ *         Regions are given as rows top (inclusive) to bottom (exclusive) and
+ *         columns left (inclusive) to right (exclusive), like Mat.submat().
+ */
+public class RegionStatistics {
+
+    /*
+     * Abstraction function:
+     * 
+     * Represents scratch space for computing region statistics: pixels holds
+     * the last region read by pixels(), and mean and deviation the last
+     * results of meanStdDev().
+     * 
+     * Rep invariants:
+     * 
+     * pixels is never null.
+     * 
+     * Thread safety arguments:
+     * 
+     * Not threadsafe: each thread that computes statistics needs its own
+     * RegionStatistics.
+     */
+
+    private byte[] pixels = new byte[0];
+
+    private final MatOfDouble mean = new MatOfDouble();
+
+    private final MatOfDouble deviation = new MatOfDouble();
+
+    /**
+     * @return the mean of each channel of the region, computed natively.
+     */
+    public double[] mean(Mat image, int top, int bottom, int left, int right) {
+        Mat region = image.submat(top, bottom, left, right);
+        try {
+            return channels(Core.mean(region), image.channels());
+        } finally {
+            region.release();
+        }
+    }
+
+    /**
+     * @param mask
+     *            an 8 bit single channel image the size of the region; only
+     *            pixels where it is not zero are averaged.
+     * @return the mean of each channel of the masked region, computed
+     *         natively.
+     */
+    public double[] mean(Mat image, int top, int bottom, int left, int right, Mat mask) {
+        Mat region = image.submat(top, bottom, left, right);
+        try {
+            return channels(Core.mean(region, mask), image.channels());
+        } finally {
+            region.release();
+        }
+    }
+
+    /**
+     * Computes the mean and the standard deviation of each channel of the
+     * region natively.
+     *
+     * @param means
+     *            receives the mean of each channel.
+     * @param deviations
+     *            receives the standard deviation of each channel.
+     */
+    public void meanStdDev(Mat image, int top, int bottom, int left, int right, double[] means,
+            double[] deviations) {
+        Mat region = image.submat(top, bottom, left, right);
+        try {
+            Core.meanStdDev(region, mean, deviation);
+        } finally {
+            region.release();
+        }
+        for (int channel = 0; channel < image.channels(); channel++) {
+            means[channel] = mean.get(channel, 0)[0];
+            deviations[channel] = deviation.get(channel, 0)[0];
+        }
+    }
+
+    /**
+     * @return the variance of each channel of the region.
+     */
+    public double[] variance(Mat image, int top, int bottom, int left, int right) {
+        double[] means = new double[image.channels()];
+        double[] variances = new double[image.channels()];
+        meanStdDev(image, top, bottom, left, right, means, variances);
+        for (int channel = 0; channel < variances.length; channel++) {
+            variances[channel] *= variances[channel];
+        }
+        return variances;
+    }
+
+    /**
+     * Counts the values of one channel of the region into bins equal bins
+     * spanning 0 to 255.
+     *
+     * @param histogram
+     *            receives the counts; its length is the number of bins, at
+     *            most 256.
+     */
+    public void histogram(Mat image, int top, int bottom, int left, int right, int channel, int[] histogram) {
+        int channels = image.channels();
+        int length = pixels(image, top, bottom, left, right);
+        int bins = histogram.length;
+        java.util.Arrays.fill(histogram, 0);
+        for (int index = channel; index < length; index += channels) {
+            histogram[((pixels[index] & 0xFF) * bins) >> 8]++;
+        }
+    }
+
+    /**
+     * Reads the region into a reused array with one bulk copy, rows one after
+     * another and the channels of each pixel interleaved.
+     *
+     * @return the number of bytes read, which are at the start of
+     *         pixelArray(); valid until the next call.
+     */
+    public int pixels(Mat image, int top, int bottom, int left, int right) {
+        int length = (bottom - top) * (right - left) * image.channels();
+        if (pixels.length < length) {
+            pixels = new byte[length];
+        }
+        Mat region = image.submat(top, bottom, left, right);
+        try {
+            region.get(0, 0, pixels);
+        } finally {
+            region.release();
+        }
+        return length;
+    }
+
+    /**
+     * @return the array pixels() read into; owned by this object, so only
+     *         valid until the next call of pixels() or histogram().
+     */
+    public byte[] pixelArray() {
+        return pixels;
+    }
+
+    private static double[] channels(Scalar scalar, int channels) {
+        double[] values = new double[channels];
+        System.arraycopy(scalar.val, 0, values, 0, channels);
+        return values;
+    }
+}
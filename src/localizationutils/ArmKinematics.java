@@ -0,0 +1,437 @@
+package localizationutils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *
+ * @author trist
+ *
+ *         Localizes the hand elements of the arm in cylindrical coordinates,
+ *         exactly as LocalizeArm.localizeHandElement always has, but fast
+ *         enough to run for every node of a search. Nothing is allocated: the
+ *         result is written into an array the caller supplies and can reuse.
+ *         No sine or cosine is computed: every joint is driven in whole
+ *         degrees, so the vector each link adds for every angle it can take is
+ *         worked out once, when the class is initialized, from the link's
+ *         measured length.
+ *
+ *         The links up to the end of the forearm are the same for every hand
+ *         element; the wrist links differ, so each HandElement has a LinkModel
+ *         of its own.
+ *
+ *         To sweep many joint configurations at once, localizeHandElements
+ *         takes them as parallel arrays, one per joint, and fills parallel
+ *         arrays of coordinates, optionally splitting the batch across a
+ *         ForkJoinPool.
+ *
+ *         See LocalizeArm.localizeHandElement for the joint degree ranges and
+ *         the coordinate system.
+ */
+public class ArmKinematics {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents the arm's forward kinematics, where the entry at index i of
+     * each table is the vector (or factor) for the angle TrigTable.MIN_DEGREES
+     * + i, and LINKS[e.ordinal()] is the wrist of hand element e.
+     *
+     * Rep invariants:
+     *
+     * Every table has TABLE_SIZE entries, each computed with the same
+     * arithmetic LocalizeArm used to compute on every call.
+     *
+     * Thread safety arguments:
+     *
+     * The tables are filled when the class is initialized and never written
+     * again or exposed, so any number of threads can localize at once.
+     */
+
+    private static final double BICEP_LENGTH = 14.85;
+
+    private static final double FOREARM_LENGTH = 16;
+
+    private static final double UPPER_WRIST_LENGTH = 3.48;
+
+    private static final double INHERENT_ANGLE_BETWEEN_MIDDLE_AND_UPPER_WRIST = 48.98;
+
+    private static final int FOREARM_DEGREE_OFFSET = 23;
+
+    private static final double BICEP_BASE_HEIGHT = 9.5;
+
+    private static final double BICEP_BASE_RADIAL_OFFSET = 1;
+
+    // toDegrees(sin(toRadians(90))), which the law of sines step multiplies by
+    private static final double RIGHT_ANGLE_SINE_IN_DEGREES = Math.toDegrees(Math.sin(Math.toRadians(90)));
+
+    private static final int TABLE_SIZE = TrigTable.MAX_DEGREES - TrigTable.MIN_DEGREES + 1;
+
+    // the vector each link adds, by its joint's degrees
+    private static final double[] BICEP_RADIAL = new double[TABLE_SIZE];
+
+    private static final double[] BICEP_HEIGHT = new double[TABLE_SIZE];
+
+    private static final double[] FOREARM_RADIAL = new double[TABLE_SIZE];
+
+    private static final double[] FOREARM_HEIGHT = new double[TABLE_SIZE];
+
+    // the tilted plane the lower wrist swings in, by wrist angle: the height
+    // gained is TILT_SCALE * x / TILT_DIVISOR
+    private static final double[] TILT_SCALE = new double[TABLE_SIZE];
+
+    private static final double[] TILT_DIVISOR = new double[TABLE_SIZE];
+
+    // -1 where the wrist angle is past 270 degrees and the wrist is flipped
+    // over, 1 elsewhere
+    private static final double[] TILT_SIGN = new double[TABLE_SIZE];
+
+    // the fewest configurations of a batch worth localizing on a thread of
+    // their own
+    private static final int BATCH_SLICE = 4096;
+
+    private static final LinkModel[] LINKS = new LinkModel[HandElement.values().length];
+
+    static {
+        for (int index = 0; index < TABLE_SIZE; index++) {
+            int degrees = TrigTable.MIN_DEGREES + index;
+
+            if (degrees >= 0 && degrees <= 90) {
+                BICEP_RADIAL[index] = -BICEP_LENGTH * TrigTable.cos(degrees);
+                BICEP_HEIGHT[index] = BICEP_LENGTH * TrigTable.sin(degrees);
+            } else if (degrees > 90 && degrees <= 180) {
+                BICEP_RADIAL[index] = BICEP_LENGTH * TrigTable.sin(degrees - 90);
+                BICEP_HEIGHT[index] = BICEP_LENGTH * TrigTable.cos(degrees - 90);
+            } else {
+                BICEP_RADIAL[index] = BICEP_LENGTH * TrigTable.cos(degrees - 180);
+                BICEP_HEIGHT[index] = -BICEP_LENGTH * TrigTable.sin(degrees - 180);
+            }
+
+            if (degrees >= 0 && degrees <= 90) {
+                FOREARM_RADIAL[index] = FOREARM_LENGTH * TrigTable.cos(degrees);
+                FOREARM_HEIGHT[index] = -FOREARM_LENGTH * TrigTable.sin(degrees);
+            } else {
+                FOREARM_RADIAL[index] = -FOREARM_LENGTH * TrigTable.sin(degrees - 90);
+                FOREARM_HEIGHT[index] = -FOREARM_LENGTH * TrigTable.cos(degrees - 90);
+            }
+
+            if (degrees <= 90) {
+                TILT_SCALE[index] = -TrigTable.sin(degrees);
+                TILT_DIVISOR[index] = TrigTable.cos(degrees);
+            } else if (degrees <= 180) {
+                TILT_SCALE[index] = TrigTable.cos(degrees - 90);
+                TILT_DIVISOR[index] = TrigTable.sin(degrees - 90);
+            } else if (degrees <= 270) {
+                TILT_SCALE[index] = -TrigTable.sin(degrees - 180);
+                TILT_DIVISOR[index] = TrigTable.cos(degrees - 180);
+            } else {
+                TILT_SCALE[index] = TrigTable.cos(degrees - 270);
+                TILT_DIVISOR[index] = TrigTable.sin(degrees - 270);
+            }
+            TILT_SIGN[index] = degrees > 270 ? -1 : 1;
+        }
+
+        LINKS[HandElement.GRIPPER.ordinal()] = new LinkModel(3.5, 10);
+        LINKS[HandElement.DISTANCE_SENSOR.ordinal()] = new LinkModel(0, 9);
+        LINKS[HandElement.CENTIMETER_BEHIND_DISTANCE_SENSOR.ordinal()] = new LinkModel(0, 8);
+    }
+
+    /**
+     * Same as LocalizeArm.localizeHandElement, but writes the coordinates
+     * into coordinates instead of a new array.
+     *
+     * @param coordinates
+     *            an array of length at least 3, which is given the radial
+     *            component, angle and z component of the hand element, in that
+     *            order.
+     * @return coordinates
+     * @throws IllegalArgumentException
+     *             if a joint, or the sum of the forearm and upper wrist
+     *             degrees plus 23, is outside TrigTable.MIN_DEGREES to
+     *             TrigTable.MAX_DEGREES; no arm can reach such angles.
+     */
+    public static double[] localizeHandElement(int baseDegrees, int bicepDegrees, int forearmDegrees,
+            int upperWristDegrees, int lowerWristDegrees, HandElement handElement, double[] coordinates) {
+        localize(LINKS[handElement.ordinal()], baseDegrees, bicepDegrees, forearmDegrees, upperWristDegrees,
+                lowerWristDegrees, coordinates, 0, coordinates, 1, coordinates, 2);
+        return coordinates;
+    }
+
+    /**
+     * Localizes handElement for each of the first count joint configurations,
+     * where configuration i is given by the ith entry of each joint array.
+     * The same as calling localizeHandElement for each configuration, but the
+     * hand element's link model is looked up once for the whole batch.
+     *
+     * @param radial
+     *            given the radial component for each configuration.
+     * @param angle
+     *            given the angle for each configuration.
+     * @param height
+     *            given the z component for each configuration.
+     * @throws IllegalArgumentException
+     *             as localizeHandElement, for the first configuration out of
+     *             range; the ones before it are localized.
+     */
+    public static void localizeHandElements(int[] baseDegrees, int[] bicepDegrees, int[] forearmDegrees,
+            int[] upperWristDegrees, int[] lowerWristDegrees, HandElement handElement, double[] radial,
+            double[] angle, double[] height, int count) {
+        localizeRange(LINKS[handElement.ordinal()], baseDegrees, bicepDegrees, forearmDegrees, upperWristDegrees,
+                lowerWristDegrees, radial, angle, height, 0, count);
+    }
+
+    /**
+     * Same as localizeHandElements, but splits the batch into slices of
+     * BATCH_SLICE configurations localized in parallel on pool. Worth it for
+     * sweeps of the joint space, not for a few configurations.
+     *
+     * @throws IllegalArgumentException
+     *             as localizeHandElement, for a configuration out of range;
+     *             which of the others have been localized is unspecified.
+     */
+    public static void localizeHandElements(ForkJoinPool pool, int[] baseDegrees, int[] bicepDegrees,
+            int[] forearmDegrees, int[] upperWristDegrees, int[] lowerWristDegrees, HandElement handElement,
+            double[] radial, double[] angle, double[] height, int count) {
+        pool.invoke(new BatchSlice(LINKS[handElement.ordinal()], baseDegrees, bicepDegrees, forearmDegrees,
+                upperWristDegrees, lowerWristDegrees, radial, angle, height, 0, count));
+    }
+
+    /**
+     * Whether handElement, localized as localizeHandElement would localize
+     * it, is within tolerance of target in each of the three cylindrical
+     * coordinates. The answer is the same as localizing and comparing each
+     * coordinate, but the z component is compared first, and the radial
+     * component and angle are only worked out for configurations that pass
+     * it; across a search most do not.
+     *
+     * @param target
+     *            the radial component, angle and z component to compare with.
+     * @throws IllegalArgumentException
+     *             as localizeHandElement.
+     */
+    public static boolean isWithin(int baseDegrees, int bicepDegrees, int forearmDegrees, int upperWristDegrees,
+            int lowerWristDegrees, HandElement handElement, double[] target, double tolerance) {
+        final LinkModel link = LINKS[handElement.ordinal()];
+        final int wristDegrees = upperWristDegrees + forearmDegrees;
+        final int wristAngle = wristDegrees + FOREARM_DEGREE_OFFSET;
+        checkRange(bicepDegrees, forearmDegrees, upperWristDegrees, lowerWristDegrees);
+        final int bicep = bicepDegrees - TrigTable.MIN_DEGREES;
+        final int forearm = forearmDegrees - TrigTable.MIN_DEGREES;
+        final int wrist = wristDegrees - TrigTable.MIN_DEGREES;
+        final int tilt = wristAngle - TrigTable.MIN_DEGREES;
+        final int lowerWrist = lowerWristDegrees - TrigTable.MIN_DEGREES;
+
+        // the same arithmetic as localize(), in the order the coordinates
+        // are compared
+        final double xVectorToHand = link.lowerWristX[lowerWrist] * TILT_SIGN[tilt];
+        final double zVectorToHand = TILT_SCALE[tilt] * xVectorToHand / TILT_DIVISOR[tilt];
+        final double middleWristHeight = BICEP_BASE_HEIGHT + BICEP_HEIGHT[bicep] + FOREARM_HEIGHT[forearm]
+                + link.middleWristHeight[wrist];
+        if (Math.abs(zVectorToHand + middleWristHeight - target[2]) > tolerance) {
+            return false;
+        }
+
+        final double middleWristRadial = BICEP_BASE_RADIAL_OFFSET + BICEP_RADIAL[bicep] + FOREARM_RADIAL[forearm]
+                + link.middleWristRadial[wrist];
+        final double yVectorToHand = link.lowerWristY[lowerWrist] * TILT_SIGN[tilt];
+        final double xCoordinateToHand = xVectorToHand + middleWristRadial;
+        final double handRadiusFromOrigin = Math.sqrt(xCoordinateToHand * xCoordinateToHand
+                + yVectorToHand * yVectorToHand);
+        if (Math.abs(handRadiusFromOrigin - target[0]) > tolerance) {
+            return false;
+        }
+
+        final double additionalAngleResultingFromYOffset = Math.toDegrees(Math.asin(Math.toRadians(
+                (yVectorToHand * RIGHT_ANGLE_SINE_IN_DEGREES / handRadiusFromOrigin))));
+        return !(Math.abs(baseDegrees + additionalAngleResultingFromYOffset - target[1]) > tolerance);
+    }
+
+    private static void localizeRange(LinkModel link, int[] baseDegrees, int[] bicepDegrees, int[] forearmDegrees,
+            int[] upperWristDegrees, int[] lowerWristDegrees, double[] radial, double[] angle, double[] height,
+            int from, int to) {
+        for (int index = from; index < to; index++) {
+            localize(link, baseDegrees[index], bicepDegrees[index], forearmDegrees[index],
+                    upperWristDegrees[index], lowerWristDegrees[index], radial, index, angle, index, height,
+                    index);
+        }
+    }
+
+    /**
+     * Localizes one configuration, writing its radial component to
+     * radial[radialIndex], its angle to angle[angleIndex] and its z component
+     * to height[heightIndex], so that a single result and a batch can share
+     * it.
+     */
+    private static void localize(LinkModel link, int baseDegrees, int bicepDegrees, int forearmDegrees,
+            int upperWristDegrees, int lowerWristDegrees, double[] radial, int radialIndex, double[] angle,
+            int angleIndex, double[] height, int heightIndex) {
+        final int wristDegrees = upperWristDegrees + forearmDegrees;
+        final int wristAngle = wristDegrees + FOREARM_DEGREE_OFFSET;
+        checkRange(bicepDegrees, forearmDegrees, upperWristDegrees, lowerWristDegrees);
+        final int bicep = bicepDegrees - TrigTable.MIN_DEGREES;
+        final int forearm = forearmDegrees - TrigTable.MIN_DEGREES;
+        final int wrist = wristDegrees - TrigTable.MIN_DEGREES;
+        final int tilt = wristAngle - TrigTable.MIN_DEGREES;
+        final int lowerWrist = lowerWristDegrees - TrigTable.MIN_DEGREES;
+
+        // the middle wrist, from the base up each link in turn; the angle of
+        // every link vector is 0, so the angle stays the base's
+        final double middleWristRadial = BICEP_BASE_RADIAL_OFFSET + BICEP_RADIAL[bicep] + FOREARM_RADIAL[forearm]
+                + link.middleWristRadial[wrist];
+        final double middleWristHeight = BICEP_BASE_HEIGHT + BICEP_HEIGHT[bicep] + FOREARM_HEIGHT[forearm]
+                + link.middleWristHeight[wrist];
+
+        // the lower wrist, briefly in 3D cartesian coordinates; past 270
+        // degrees the wrist is flipped over, which TILT_SIGN applies without
+        // a branch
+        final double xVectorToHand = link.lowerWristX[lowerWrist] * TILT_SIGN[tilt];
+        final double yVectorToHand = link.lowerWristY[lowerWrist] * TILT_SIGN[tilt];
+        final double xCoordinateToHand = xVectorToHand + middleWristRadial;
+        final double zVectorToHand = TILT_SCALE[tilt] * xVectorToHand / TILT_DIVISOR[tilt];
+
+        final double handRadiusFromOrigin = Math.sqrt(xCoordinateToHand * xCoordinateToHand
+                + yVectorToHand * yVectorToHand);
+
+        // using the law of sines
+        final double additionalAngleResultingFromYOffset = Math.toDegrees(Math.asin(Math.toRadians(
+                (yVectorToHand * RIGHT_ANGLE_SINE_IN_DEGREES / handRadiusFromOrigin))));
+
+        radial[radialIndex] = handRadiusFromOrigin;
+        angle[angleIndex] = baseDegrees + additionalAngleResultingFromYOffset;
+        height[heightIndex] = zVectorToHand + middleWristHeight;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the tables do not cover the configuration.
+     */
+    private static void checkRange(int bicepDegrees, int forearmDegrees, int upperWristDegrees,
+            int lowerWristDegrees) {
+        final int wristDegrees = upperWristDegrees + forearmDegrees;
+        if (!TrigTable.covers(bicepDegrees) || !TrigTable.covers(forearmDegrees)
+                || !TrigTable.covers(lowerWristDegrees) || !TrigTable.covers(wristDegrees)
+                || !TrigTable.covers(wristDegrees + FOREARM_DEGREE_OFFSET)) {
+            throw new IllegalArgumentException("joint degrees out of range: " + bicepDegrees + ", "
+                    + forearmDegrees + ", " + upperWristDegrees + ", " + lowerWristDegrees);
+        }
+    }
+
+    /**
+     * Localizes configurations [from, to) of a batch, splitting into slices
+     * of BATCH_SLICE configurations.
+     */
+    private static class BatchSlice extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final LinkModel link;
+
+        private final int[] baseDegrees;
+
+        private final int[] bicepDegrees;
+
+        private final int[] forearmDegrees;
+
+        private final int[] upperWristDegrees;
+
+        private final int[] lowerWristDegrees;
+
+        private final double[] radial;
+
+        private final double[] angle;
+
+        private final double[] height;
+
+        private final int from;
+
+        private final int to;
+
+        BatchSlice(LinkModel link, int[] baseDegrees, int[] bicepDegrees, int[] forearmDegrees,
+                int[] upperWristDegrees, int[] lowerWristDegrees, double[] radial, double[] angle,
+                double[] height, int from, int to) {
+            this.link = link;
+            this.baseDegrees = baseDegrees;
+            this.bicepDegrees = bicepDegrees;
+            this.forearmDegrees = forearmDegrees;
+            this.upperWristDegrees = upperWristDegrees;
+            this.lowerWristDegrees = lowerWristDegrees;
+            this.radial = radial;
+            this.angle = angle;
+            this.height = height;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SLICE) {
+                localizeRange(link, baseDegrees, bicepDegrees, forearmDegrees, upperWristDegrees,
+                        lowerWristDegrees, radial, angle, height, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            BatchSlice upper = new BatchSlice(link, baseDegrees, bicepDegrees, forearmDegrees, upperWristDegrees,
+                    lowerWristDegrees, radial, angle, height, from, middle);
+            upper.fork();
+            new BatchSlice(link, baseDegrees, bicepDegrees, forearmDegrees, upperWristDegrees, lowerWristDegrees,
+                    radial, angle, height, middle, to).compute();
+            upper.join();
+        }
+    }
+
+    /**
+     * The wrist of one hand element: the vectors its middle and lower wrist
+     * links add, by joint degrees.
+     */
+    private static class LinkModel {
+
+        // by upper wrist degrees plus forearm degrees
+        private final double[] middleWristRadial = new double[TABLE_SIZE];
+
+        private final double[] middleWristHeight = new double[TABLE_SIZE];
+
+        // by lower wrist degrees
+        private final double[] lowerWristX = new double[TABLE_SIZE];
+
+        private final double[] lowerWristY = new double[TABLE_SIZE];
+
+        /**
+         * @param middleWristLength
+         *            how far the hand element sits off the axis the lower
+         *            wrist swings about.
+         * @param lowerWristLength
+         *            how far along the lower wrist the hand element is.
+         */
+        private LinkModel(double middleWristLength, double lowerWristLength) {
+            final double lineBetweenMiddleAndUpperWrist = Math.sqrt(UPPER_WRIST_LENGTH * UPPER_WRIST_LENGTH
+                    + middleWristLength * middleWristLength);
+
+            for (int index = 0; index < TABLE_SIZE; index++) {
+                int degrees = TrigTable.MIN_DEGREES + index;
+
+                // not a whole number of degrees, so computed directly
+                double middleWristDegrees = INHERENT_ANGLE_BETWEEN_MIDDLE_AND_UPPER_WRIST + degrees
+                        + FOREARM_DEGREE_OFFSET;
+                if (middleWristDegrees > 90 && middleWristDegrees <= 180) {
+                    middleWristRadial[index] = lineBetweenMiddleAndUpperWrist
+                            * Math.sin(Math.toRadians(middleWristDegrees - 90));
+                    middleWristHeight[index] = lineBetweenMiddleAndUpperWrist
+                            * Math.cos(Math.toRadians(middleWristDegrees - 90));
+                } else if (middleWristDegrees > 180 && middleWristDegrees <= 270) {
+                    middleWristRadial[index] = lineBetweenMiddleAndUpperWrist
+                            * Math.cos(Math.toRadians(middleWristDegrees - 180));
+                    middleWristHeight[index] = -lineBetweenMiddleAndUpperWrist
+                            * Math.sin(Math.toRadians(middleWristDegrees - 180));
+                } else {
+                    middleWristRadial[index] = -lineBetweenMiddleAndUpperWrist
+                            * Math.sin(Math.toRadians(middleWristDegrees - 270));
+                    middleWristHeight[index] = -lineBetweenMiddleAndUpperWrist
+                            * Math.cos(Math.toRadians(middleWristDegrees - 270));
+                }
+
+                lowerWristX[index] = lowerWristLength * TrigTable.sin(degrees);
+                lowerWristY[index] = -lowerWristLength * TrigTable.cos(degrees);
+            }
+        }
+    }
+}
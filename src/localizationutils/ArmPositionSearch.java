@@ -1,11 +1,5 @@
 package localizationutils;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.BitSet;
 
 /**
  * This class contains static methods used to search for arm positions that cause the arm to travel to possible locations. 
@@ -13,11 +7,21 @@ import java.util.concurrent.BlockingQueue;
 
 public class ArmPositionSearch {
     
+    // how far the gripper may be from the requested point in each coordinate
+    static final double REACH = 1;
+    
+    // how many positions a timed search expands between looks at the clock
+    private static final int DEADLINE_CHECK_INTERVAL = 64;
+    
 /**
  * This method utilizes BFS to search over the space of possible locations that can be reached given the constraints. 
  * LocalizeHandElement can be used to find the coordinates of the gripper given integer joint positions representing degrees.
  * See LocalizeArmExperimental for the degree range of each joint).
  * 
+ * The search keeps its state in primitives: positions are numbered by a JointLattice, the visited positions are a bitset 
+ * of those numbers and the frontier is a ring buffer of those numbers that grows whenever it fills up, so nothing is 
+ * allocated per node and the search never waits on its own frontier.
+ * 
  * @param requestedCylindricalCoordinates the desired position of the center of the gripper in cylindrical coordinates 
  *        (the origin is the center of the base of the arm, as always).
  * @param initialArmJointPositions the initial positions of the arm joints: an array with 0th index the base rotation degrees,
@@ -26,53 +30,100 @@ public class ArmPositionSearch {
  *        the 1st index the wrist left/right degrees.
  * @return the positions of all of the servos, (in the order of the second input to the method followed by the third input) in degrees (must be integers), that will cause the center of the gripper to end up in the 
  *         cylindrical coordinates requested with an error of at most .1 for each coordinate, or null if the coordinates are not reachable within the specified range of error.
- * @throws InterruptedException
+ * @throws InterruptedException if the calling thread is interrupted during the search
  */
 public static int[] gripperPositionSearch(double[] requestedCylindricalCoordinates, int[] initialArmJointPositions, int[] givenHandJointPositions) throws InterruptedException{
+        return search(requestedCylindricalCoordinates, initialArmJointPositions, givenHandJointPositions, false, Integer.MAX_VALUE, false, 0);
+    }
+    
+    /**
+     * The breadth first search of gripperPositionSearch, for searches that try many hand positions (see WristSpaceGripperSearch).
+     * Unlike gripperPositionSearch, the initial position is tested first, and the search gives up on positions more than maxTravel 
+     * degrees of bicep and forearm travel away from it. Every position one degree further away is searched after every position 
+     * one degree nearer, so the position found is one that moves the bicep and forearm the least.
+     * 
+     * @param maxTravel the most degrees the bicep and forearm may move between them; must not be negative
+     * @param deadline the System.nanoTime() at which the search gives up
+     * @return as gripperPositionSearch, or null if the search gave up at deadline
+     * @throws InterruptedException as gripperPositionSearch
+     */
+    static int[] nearestGripperPosition(double[] requestedCylindricalCoordinates, int[] initialArmJointPositions, int[] givenHandJointPositions, int maxTravel, 
+            long deadline) throws InterruptedException{
+        return search(requestedCylindricalCoordinates, initialArmJointPositions, givenHandJointPositions, true, maxTravel, true, deadline);
+    }
+    
+    /**
+     * @return whether each coordinate of position is within REACH of the same coordinate of requested.
+     */
+    static boolean isWithinReach(double[] position, double[] requested){
+        for(int index = 0; index < position.length; index++){
+            if(Math.abs(position[index] - requested[index]) > REACH){
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @param testInitialFirst whether to test the initial position before its successors; if not, it is only tested when it is 
+     *        reached again as a successor, as gripperPositionSearch always has.
+     * @param maxTravel the most degrees the bicep and forearm may move between them.
+     * @param timed whether to give up, returning null, once System.nanoTime() passes deadline.
+     */
+    private static int[] search(double[] requestedCylindricalCoordinates, int[] initialArmJointPositions, int[] givenHandJointPositions, 
+            boolean testInitialFirst, int maxTravel, boolean timed, long deadline) throws InterruptedException{
         
-        int[] initialJointPositionsWithCorrectBaseRotation = initialArmJointPositions.clone();
-        initialJointPositionsWithCorrectBaseRotation[0] = (int) requestedCylindricalCoordinates[1];
-        List<Integer> initialJointPositionsWithCorrectBaseRotationAsList = Arrays.asList(initialJointPositionsWithCorrectBaseRotation[0], initialJointPositionsWithCorrectBaseRotation[1], 
-                initialJointPositionsWithCorrectBaseRotation[2]);
+        final int baseDegrees = (int) requestedCylindricalCoordinates[1];
+        final JointLattice lattice = new JointLattice(initialArmJointPositions[1], initialArmJointPositions[2]);
+        final int initialNode = lattice.index(initialArmJointPositions[1], initialArmJointPositions[2]);
         
-        BlockingQueue<int[]> queue = new ArrayBlockingQueue<>(10000);
-        queue.put(initialJointPositionsWithCorrectBaseRotation);
+        final IntRingQueue queue = new IntRingQueue();
+        queue.add(initialNode);
         
-        Set<List<Integer>> visited = new HashSet<>();
-        visited.add(initialJointPositionsWithCorrectBaseRotationAsList);
+        final BitSet visited = new BitSet(lattice.size());
+        visited.set(initialNode);
         
-        while(queue.peek() != null){
-            int[] currentNode = queue.take();
+        final int[] children = new int[JointLattice.MAX_SUCCESSORS];
+        
+        if(testInitialFirst){
+            if (ArmKinematics.isWithin(baseDegrees,initialArmJointPositions[1],initialArmJointPositions[2],givenHandJointPositions[0],givenHandJointPositions[1],HandElement.GRIPPER,requestedCylindricalCoordinates,REACH)){
+                return positions(baseDegrees, initialArmJointPositions[1], initialArmJointPositions[2], givenHandJointPositions);
+            }
+        }
+        
+        int expansions = 0;
+        while(!queue.isEmpty()){
+            if(Thread.interrupted()){
+                throw new InterruptedException();
+            }
+            if(timed && ++expansions % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() - deadline > 0){
+                return null;
+            }
+            int currentNode = queue.poll();
+            //the queue holds positions in order of travel, and the successors not yet visited are a degree further away
+            if(Math.abs(lattice.bicep(currentNode) - initialArmJointPositions[1]) + Math.abs(lattice.forearm(currentNode) - initialArmJointPositions[2]) >= maxTravel){
+                break;
+            }
+            int childCount = lattice.successors(currentNode, children);
             
-            for(int[] childNode : successors(currentNode)){
+            for(int child = 0; child < childCount; child++){
+                int childNode = children[child];
                 
-                //when computers become about 10,000 times faster at least, then search over the space of all joint movements. for now, leave out the hand joint space search because it would take 
-                //48,000 times longer
-                double[] childPosition = LocalizeArm.localizeHandElement(childNode[0],childNode[1],childNode[2],givenHandJointPositions[0],givenHandJointPositions[1],HandElement.GRIPPER);
-                boolean positionFound = true;
-                for(int index = 0; index < childPosition.length; index++){
-                    if(Math.abs(childPosition[index] - requestedCylindricalCoordinates[index]) > 1){
-                        positionFound = false;
-                    }
+                //a visited child has already been found not to be the goal, except for the initial position, which unless 
+                //testInitialFirst is never tested until it is reached as a child
+                if(visited.get(childNode) && (childNode != initialNode || testInitialFirst)){
+                    continue;
                 }
-                if (positionFound){
-                    int[] positions = new int[5];
-                    positions[0] = childNode[0];
-                    positions[1] = childNode[1];
-                    positions[2] = childNode[2];
-                    positions[3] = givenHandJointPositions[0];
-                    positions[4] = givenHandJointPositions[1];
-                    for(double pos : childPosition){
-                        System.out.println(pos);
-                    }
-                    
-                    return positions;
+                
+                //the hand joints stay where they are given; WristSpaceGripperSearch searches over them too, by running this search 
+                //for many hand positions in parallel
+                if (ArmKinematics.isWithin(baseDegrees,lattice.bicep(childNode),lattice.forearm(childNode),givenHandJointPositions[0],givenHandJointPositions[1],HandElement.GRIPPER,requestedCylindricalCoordinates,REACH)){
+                    return positions(baseDegrees, lattice.bicep(childNode), lattice.forearm(childNode), givenHandJointPositions);
                 }
                 
-                List<Integer> childNodeAsList = Arrays.asList(childNode[0], childNode[1], childNode[2]);
-                if(!visited.contains(childNodeAsList)){
-                    queue.put(childNode);
-                    visited.add(childNodeAsList);
+                if(!visited.get(childNode)){
+                    queue.add(childNode);
+                    visited.set(childNode);
                 }
             }
             
@@ -83,45 +134,70 @@ public static int[] gripperPositionSearch(double[] requestedCylindricalCoordinat
         
     }
     
+    private static int[] positions(int baseDegrees, int bicepDegrees, int forearmDegrees, int[] givenHandJointPositions){
+        int[] positions = new int[5];
+        positions[0] = baseDegrees;
+        positions[1] = bicepDegrees;
+        positions[2] = forearmDegrees;
+        positions[3] = givenHandJointPositions[0];
+        positions[4] = givenHandJointPositions[1];
+        return positions;
+    }
+    
     /**
-     * 
-     * @param node; an array with 0th index base degrees, 1st index bicep degrees and 2nd index forearmDegrees
-     * @return a list containing the following successors:
-     *              -a copy of the input array with bicep degrees incremented if it is still <= 270 (this is the upper limit of the bicep)
-     *              -a copy of the input array with bicep degrees decremented if it is still >= 0 (this is the lower limit of the bicep)
-     *              -a copy of the input array with forearm degrees incremented if it is still <= 180 (this is the upper limit of the forearm)
-     *              -a copy of the input array with bicep degrees decremented if it is sill >= 0 (this is the lower limit of the forearm)
+     * A first in, first out queue of ints, in a ring buffer that doubles in size whenever it fills up.
      */
-    private static List<int[]> successors(int[] node){
-        List<int[]>successors = new ArrayList<>();
-        
-        int[] potentialSuccessor1 = node.clone();
-        int[] potentialSuccessor2 = node.clone();
-        int[] potentialSuccessor3 = node.clone();
-        int[] potentialSuccessor4 = node.clone();
-        
-        //bicep up and down 1 degree successors
-        if(potentialSuccessor1[1]<270){
-            potentialSuccessor1[1]++;
-            successors.add(potentialSuccessor1);
-        }
-        if(potentialSuccessor2[1]>0){
-            potentialSuccessor2[1]--;
-            successors.add(potentialSuccessor2);
+    private static class IntRingQueue {
+        
+        /*
+         * Abstraction function:
+         * 
+         * Represents the queue ring[head], ring[(head + 1) % ring.length], ..., of size elements.
+         * 
+         * Rep invariants:
+         * 
+         * ring.length is a power of two, 0 <= head < ring.length, 0 <= size <= ring.length.
+         * 
+         * Thread safety arguments:
+         * 
+         * Not threadsafe; each search has its own.
+         */
+        
+        // enough for the frontier of most searches, which grows about a position per degree moved
+        private static final int INITIAL_CAPACITY = 256;
+        
+        private int[] ring = new int[INITIAL_CAPACITY];
+        
+        private int head = 0;
+        
+        private int size = 0;
+        
+        void add(int value){
+            if(size == ring.length){
+                int[] larger = new int[ring.length * 2];
+                for(int index = 0; index < size; index++){
+                    larger[index] = ring[(head + index) & (ring.length - 1)];
+                }
+                ring = larger;
+                head = 0;
+            }
+            ring[(head + size) & (ring.length - 1)] = value;
+            size++;
         }
         
-        //forearm up and down 1 degree successors
-        if(potentialSuccessor3[2]<90){
-            potentialSuccessor3[2]++;
-            successors.add(potentialSuccessor3);
-        }
-        if(potentialSuccessor4[2]>15){
-            potentialSuccessor4[2]--;
-            successors.add(potentialSuccessor4);
+        /**
+         * @return the value added longest ago, removing it; the queue must not be empty.
+         */
+        int poll(){
+            int value = ring[head];
+            head = (head + 1) & (ring.length - 1);
+            size--;
+            return value;
         }
-
-        return successors;
         
+        boolean isEmpty(){
+            return size == 0;
+        }
     }
     
     public static void main(String[] args) throws InterruptedException{
@@ -0,0 +1,166 @@
+package localizationutils;
+
+import java.util.BitSet;
+
+/**
+ *
+ * @author trist
+ *
+ *         A best first search over the same joint lattice and with the same
+ *         goal as ArmPositionSearch.gripperPositionSearch. Instead of
+ *         expanding outward from the initial pose one degree at a time, it
+ *         always expands the position of least priority:
+ *
+ *         <pre>
+ *         distance from the gripper to the target, in centimeters
+ *             + travelWeight * joint travel from the initial pose, in degrees
+ *         </pre>
+ *
+ *         so it heads straight for the target, and of positions about as close
+ *         to it prefers the ones the arm reaches with the least movement. On
+ *         the lattice every move is one degree of one joint and nothing is in
+ *         the way, so the joint travel to a position is the sum of how far
+ *         each joint has moved from its initial degrees.
+ *
+ *         The number of positions expanded is bounded, so that a target out of
+ *         reach costs at most maxExpansions expansions instead of the whole
+ *         lattice.
+ */
+public class BestFirstGripperSearch implements GripperSearchStrategy {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents a best first gripper search that expands at most
+     * maxExpansions positions, ordered by distance plus travelWeight times
+     * joint travel.
+     *
+     * Rep invariants:
+     *
+     * maxExpansions > 0, travelWeight >= 0.
+     *
+     * Thread safety arguments:
+     *
+     * Immutable; every search keeps its state to itself.
+     */
+
+    // the joint lattice has about 20,000 positions; targets in reach are
+    // usually found after a few hundred expansions
+    public static final int DEFAULT_MAX_EXPANSIONS = 4096;
+
+    // a degree of joint travel is worth this many centimeters of distance
+    public static final double DEFAULT_TRAVEL_WEIGHT = 0.02;
+
+    private final int maxExpansions;
+
+    private final double travelWeight;
+
+    public BestFirstGripperSearch() {
+        this(DEFAULT_MAX_EXPANSIONS, DEFAULT_TRAVEL_WEIGHT);
+    }
+
+    /**
+     * @param maxExpansions
+     *            the most positions whose successors a search looks at before
+     *            giving up; must be positive.
+     * @param travelWeight
+     *            how many centimeters nearer the target a position must be to
+     *            be worth an extra degree of joint travel; must not be
+     *            negative.
+     */
+    public BestFirstGripperSearch(int maxExpansions, double travelWeight) {
+        if (maxExpansions <= 0 || travelWeight < 0) {
+            throw new IllegalArgumentException("invalid best first search bounds: " + maxExpansions + ", "
+                    + travelWeight);
+        }
+        this.maxExpansions = maxExpansions;
+        this.travelWeight = travelWeight;
+    }
+
+    /**
+     * See GripperSearchStrategy. Unlike the breadth first search, the
+     * initial pose is returned if it already reaches the target.
+     */
+    @Override
+    public int[] gripperPositionSearch(double[] requestedCylindricalCoordinates, int[] initialArmJointPositions,
+            int[] givenHandJointPositions) throws InterruptedException {
+        final int baseDegrees = (int) requestedCylindricalCoordinates[1];
+        final int initialBicep = initialArmJointPositions[1];
+        final int initialForearm = initialArmJointPositions[2];
+        final JointLattice lattice = new JointLattice(initialBicep, initialForearm);
+        final int initialNode = lattice.index(initialBicep, initialForearm);
+
+        final BitSet visited = new BitSet(lattice.size());
+        final NodeHeap frontier = new NodeHeap();
+        final int[] children = new int[JointLattice.MAX_SUCCESSORS];
+        // reused for every position, so that localizing allocates nothing
+        final double[] position = new double[3];
+
+        localize(lattice, baseDegrees, initialNode, givenHandJointPositions, position);
+        if (ArmPositionSearch.isWithinReach(position, requestedCylindricalCoordinates)) {
+            return positions(lattice, baseDegrees, initialNode, givenHandJointPositions);
+        }
+        visited.set(initialNode);
+        frontier.add(distance(position, requestedCylindricalCoordinates), initialNode);
+
+        for (int expansions = 0; expansions < maxExpansions && !frontier.isEmpty(); expansions++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            int childCount = lattice.successors(frontier.poll(), children);
+
+            for (int child = 0; child < childCount; child++) {
+                int childNode = children[child];
+                if (visited.get(childNode)) {
+                    continue;
+                }
+                visited.set(childNode);
+
+                localize(lattice, baseDegrees, childNode, givenHandJointPositions, position);
+                if (ArmPositionSearch.isWithinReach(position, requestedCylindricalCoordinates)) {
+                    return positions(lattice, baseDegrees, childNode, givenHandJointPositions);
+                }
+
+                int travel = Math.abs(lattice.bicep(childNode) - initialBicep)
+                        + Math.abs(lattice.forearm(childNode) - initialForearm);
+                frontier.add(distance(position, requestedCylindricalCoordinates) + travelWeight * travel,
+                        childNode);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "best first, at most " + maxExpansions + " expansions, travel weight " + travelWeight;
+    }
+
+    private static void localize(JointLattice lattice, int baseDegrees, int node, int[] givenHandJointPositions,
+            double[] position) {
+        ArmKinematics.localizeHandElement(baseDegrees, lattice.bicep(node), lattice.forearm(node),
+                givenHandJointPositions[0], givenHandJointPositions[1], HandElement.GRIPPER, position);
+    }
+
+    /**
+     * @return the straight line distance between two points in cylindrical
+     *         coordinates, by the law of cosines.
+     */
+    private static double distance(double[] position, double[] target) {
+        double height = position[2] - target[2];
+        double squared = position[0] * position[0] + target[0] * target[0]
+                - 2 * position[0] * target[0] * Math.cos(Math.toRadians(position[1] - target[1]))
+                + height * height;
+        // rounding can take it just below 0 when the points coincide
+        return Math.sqrt(Math.max(0, squared));
+    }
+
+    private static int[] positions(JointLattice lattice, int baseDegrees, int node, int[] givenHandJointPositions) {
+        int[] positions = new int[5];
+        positions[0] = baseDegrees;
+        positions[1] = lattice.bicep(node);
+        positions[2] = lattice.forearm(node);
+        positions[3] = givenHandJointPositions[0];
+        positions[4] = givenHandJointPositions[1];
+        return positions;
+    }
+}
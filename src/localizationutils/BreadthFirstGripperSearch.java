@@ -0,0 +1,27 @@
+package localizationutils;
+
+/**
+ *
+ * @author trist
+ *
+ *         ArmPositionSearch.gripperPositionSearch as a GripperSearchStrategy:
+ *         a breadth first search outward from the initial pose, which finds a
+ *         position in the fewest one degree moves but expands most of the
+ *         joint lattice before reaching far away targets.
+ *
+ *         Threadsafe: every search keeps its state to itself.
+ */
+public class BreadthFirstGripperSearch implements GripperSearchStrategy {
+
+    @Override
+    public int[] gripperPositionSearch(double[] requestedCylindricalCoordinates, int[] initialArmJointPositions,
+            int[] givenHandJointPositions) throws InterruptedException {
+        return ArmPositionSearch.gripperPositionSearch(requestedCylindricalCoordinates, initialArmJointPositions,
+                givenHandJointPositions);
+    }
+
+    @Override
+    public String toString() {
+        return "breadth first";
+    }
+}
@@ -0,0 +1,23 @@
+package localizationutils;
+
+/**
+ * Which GripperSearchStrategy the arm uses to reach for an object.
+ */
+public enum GripperSearchMode {
+    /**
+     * BreadthFirstGripperSearch: every position one degree away from the
+     * initial pose, then every position two degrees away, and so on.
+     */
+    BREADTH_FIRST,
+    /**
+     * BestFirstGripperSearch: the positions nearest the target first, with
+     * a bounded number of expansions.
+     */
+    BEST_FIRST,
+    /**
+     * WristSpaceGripperSearch: also moves the wrist, searching wrist
+     * positions in parallel for the position that moves the joints least,
+     * within a time budget.
+     */
+    WRIST_SPACE
+}
@@ -0,0 +1,36 @@
+package localizationutils;
+
+/**
+ *
+ * @author trist
+ *
+ *         A way of finding bicep and forearm positions that put the center of
+ *         the gripper at a requested point, holding the base at the point's
+ *         angle and the wrist still. See BreadthFirstGripperSearch and
+ *         BestFirstGripperSearch.
+ */
+public interface GripperSearchStrategy {
+
+    /**
+     * @param requestedCylindricalCoordinates
+     *            the desired position of the center of the gripper in
+     *            cylindrical coordinates (the origin is the center of the base
+     *            of the arm, as always).
+     * @param initialArmJointPositions
+     *            the initial positions of the arm joints: an array with 0th
+     *            index the base rotation degrees, the 1st index the bicep
+     *            degrees and the 2nd index the forearm degrees.
+     * @param givenHandJointPositions
+     *            the hand positions that must stay static: an array with 0th
+     *            index the wrist up/down degrees and the 1st index the wrist
+     *            left/right degrees.
+     * @return the positions of all five servos in degrees (base, bicep,
+     *         forearm, then the two hand positions given) that put the center
+     *         of the gripper within 1 of each requested coordinate, or null if
+     *         the search finds none.
+     * @throws InterruptedException
+     *             if the calling thread is interrupted during the search.
+     */
+    int[] gripperPositionSearch(double[] requestedCylindricalCoordinates, int[] initialArmJointPositions,
+            int[] givenHandJointPositions) throws InterruptedException;
+}
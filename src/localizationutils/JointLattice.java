@@ -0,0 +1,122 @@
+package localizationutils;
+
+/**
+ *
+ * @author trist
+ *
+ *         The bicep and forearm positions a gripper search can move the arm
+ *         through, numbered so that a search can keep its state in primitive
+ *         arrays: a position is a single int, its index, instead of an array
+ *         or a list of boxed degrees.
+ *
+ *         The lattice is every whole degree from 0 to 270 for the bicep and
+ *         from 15 to 90 for the forearm, stretched to take in the arm's
+ *         initial position if that lies outside those ranges (a search can
+ *         always move back in from where the arm starts).
+ */
+class JointLattice {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents the positions (bicep, forearm) with minBicep <= bicep <=
+     * maxBicep and minForearm <= forearm <= maxForearm, where position
+     * (bicep, forearm) has index (bicep - minBicep) * forearms + (forearm -
+     * minForearm).
+     *
+     * Rep invariants:
+     *
+     * minBicep <= MIN_BICEP, maxBicep >= MAX_BICEP, minForearm <= MIN_FOREARM,
+     * maxForearm >= MAX_FOREARM, forearms == maxForearm - minForearm + 1.
+     *
+     * Thread safety arguments:
+     *
+     * Immutable.
+     */
+
+    // the joint limits a search moves within
+    static final int MIN_BICEP = 0;
+
+    static final int MAX_BICEP = 270;
+
+    static final int MIN_FOREARM = 15;
+
+    static final int MAX_FOREARM = 90;
+
+    // the most successors a position has
+    static final int MAX_SUCCESSORS = 4;
+
+    private final int minBicep;
+
+    private final int maxBicep;
+
+    private final int minForearm;
+
+    private final int maxForearm;
+
+    private final int forearms;
+
+    /**
+     * Makes the lattice that takes in a search starting from (initialBicep,
+     * initialForearm).
+     */
+    JointLattice(int initialBicep, int initialForearm) {
+        this.minBicep = Math.min(MIN_BICEP, initialBicep);
+        this.maxBicep = Math.max(MAX_BICEP, initialBicep);
+        this.minForearm = Math.min(MIN_FOREARM, initialForearm);
+        this.maxForearm = Math.max(MAX_FOREARM, initialForearm);
+        this.forearms = maxForearm - minForearm + 1;
+    }
+
+    /**
+     * @return the number of positions in the lattice; indices run from 0 to
+     *         size() - 1.
+     */
+    int size() {
+        return (maxBicep - minBicep + 1) * forearms;
+    }
+
+    /**
+     * @return the index of (bicep, forearm), which must be in the lattice.
+     */
+    int index(int bicep, int forearm) {
+        return (bicep - minBicep) * forearms + (forearm - minForearm);
+    }
+
+    int bicep(int index) {
+        return index / forearms + minBicep;
+    }
+
+    int forearm(int index) {
+        return index % forearms + minForearm;
+    }
+
+    /**
+     * Writes the indices of the successors of index into successors, in the
+     * order ArmPositionSearch has always expanded them: bicep up a degree if
+     * it is below MAX_BICEP, bicep down if it is above MIN_BICEP, forearm up
+     * if it is below MAX_FOREARM, forearm down if it is above MIN_FOREARM.
+     *
+     * @param successors
+     *            an array of length at least MAX_SUCCESSORS.
+     * @return the number of successors written.
+     */
+    int successors(int index, int[] successors) {
+        int bicep = bicep(index);
+        int forearm = forearm(index);
+        int count = 0;
+        if (bicep < MAX_BICEP) {
+            successors[count++] = index + forearms;
+        }
+        if (bicep > MIN_BICEP) {
+            successors[count++] = index - forearms;
+        }
+        if (forearm < MAX_FOREARM) {
+            successors[count++] = index + 1;
+        }
+        if (forearm > MIN_FOREARM) {
+            successors[count++] = index - 1;
+        }
+        return count;
+    }
+}
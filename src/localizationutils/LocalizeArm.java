@@ -29,46 +29,13 @@ public class LocalizeArm {
      *         This method uses certain values such as measured lengths of pieces of the arm and may have a smail amount of error.
      *         
      *         See drawing for more information about where the degrees of different joints are defined to start.
+     *         
+     *         The work is done by ArmKinematics, which can also write the coordinates into an array the caller reuses.
+     * @throws IllegalArgumentException if a joint is more than a full turn outside its range (see ArmKinematics).
      */
     public static double[] localizeHandElement(int baseDegrees, int bicepDegrees, int forearmDegrees, int upperWristDegrees, int lowerWristDegrees, HandElement handElement){
-        final double bicepLength = 14.85;
-        final double forearmLength = 16;
-        final double upperWristLength = 3.48;
-        
-        final double middleWristLength;
-        final double lowerWristLength;
-        
-        if(handElement == HandElement.GRIPPER){
-            middleWristLength = 3.5;
-            lowerWristLength = 10;
-        }else if(handElement == HandElement.DISTANCE_SENSOR){
-            middleWristLength = 0;
-            lowerWristLength = 9;
-        }else{
-            middleWristLength = 0;
-            lowerWristLength = 8;
-        }
-        
-        final double lineBetweenMiddleAndUpperWrist = Math.sqrt(upperWristLength*upperWristLength + middleWristLength*middleWristLength);
-        final double inherentAngleBetweenMiddleAndUpperWrist = 48.98;
-        final double forearmDegreeOffset = 23;
-        final double conglomerateWristAngleToMiddleWrist = inherentAngleBetweenMiddleAndUpperWrist + upperWristDegrees + forearmDegrees + forearmDegreeOffset;
-        final double wristAngle = upperWristDegrees + forearmDegrees + forearmDegreeOffset;
-        final double bicepBaseHeight = 9.5;
-        final double bicepBaseRadialOffset = 1;
-        
-        final double[] coordinatesAtBicepBase = new double[3];
-        coordinatesAtBicepBase[0] = bicepBaseRadialOffset;
-        coordinatesAtBicepBase[1] = baseDegrees;
-        coordinatesAtBicepBase[2] = bicepBaseHeight;
-        final double[] coordinatesAtBicep = localizeBicep(coordinatesAtBicepBase,bicepDegrees,bicepLength);
-        final double[] coordinatesAtForearm = localizeForearm(coordinatesAtBicep, forearmDegrees, forearmLength);
-        //the definition of the middle wrist changes based on the hand element
-        final double[] coordinatesAtMiddleWrist = localizeMiddleWrist(coordinatesAtForearm, conglomerateWristAngleToMiddleWrist, lineBetweenMiddleAndUpperWrist);
-        
-        
-        return getCoordinatesAtHandElement(coordinatesAtMiddleWrist, wristAngle, lowerWristDegrees, lowerWristLength);
-        
+        return ArmKinematics.localizeHandElement(baseDegrees, bicepDegrees, forearmDegrees, upperWristDegrees, lowerWristDegrees,
+                handElement, new double[3]);
     }
     
     /**
@@ -82,17 +49,17 @@ public class LocalizeArm {
         final double[] vectorToBicep = new double[3];
         
         if(bicepDegrees >= 0 && bicepDegrees <= 90){
-            vectorToBicep[0] = -bicepLength*Math.cos(Math.toRadians(bicepDegrees));
+            vectorToBicep[0] = -bicepLength*TrigTable.cos(bicepDegrees);
             vectorToBicep[1] = 0;
-            vectorToBicep[2] = bicepLength*Math.sin(Math.toRadians(bicepDegrees));
+            vectorToBicep[2] = bicepLength*TrigTable.sin(bicepDegrees);
         }else if(bicepDegrees > 90 && bicepDegrees <= 180){
-            vectorToBicep[0] = bicepLength*Math.sin(Math.toRadians(bicepDegrees - 90));
+            vectorToBicep[0] = bicepLength*TrigTable.sin(bicepDegrees - 90);
             vectorToBicep[1] = 0;
-            vectorToBicep[2] = bicepLength*Math.cos(Math.toRadians(bicepDegrees - 90));
+            vectorToBicep[2] = bicepLength*TrigTable.cos(bicepDegrees - 90);
         }else{//bicepDegrees is in (180,270]
-            vectorToBicep[0] = bicepLength*Math.cos(Math.toRadians(bicepDegrees - 180));
+            vectorToBicep[0] = bicepLength*TrigTable.cos(bicepDegrees - 180);
             vectorToBicep[1] = 0;
-            vectorToBicep[2] = -bicepLength*Math.sin(Math.toRadians(bicepDegrees - 180));
+            vectorToBicep[2] = -bicepLength*TrigTable.sin(bicepDegrees - 180);
         }
         return addVectors(vectorToBicep, vectorOrigin);
     }
@@ -108,111 +75,18 @@ public class LocalizeArm {
         final double[] vectorToForearm = new double[3];
         
         if(forearmDegrees >= 0 && forearmDegrees <= 90){
-            vectorToForearm[0] = forearmLength*Math.cos(Math.toRadians(forearmDegrees));
+            vectorToForearm[0] = forearmLength*TrigTable.cos(forearmDegrees);
             vectorToForearm[1] = 0;
-            vectorToForearm[2] = -forearmLength*Math.sin(Math.toRadians(forearmDegrees));
+            vectorToForearm[2] = -forearmLength*TrigTable.sin(forearmDegrees);
         }else{//forearmDegrees + forearmDegreeOffset is in (90, 180]
-            vectorToForearm[0] = -forearmLength*Math.sin(Math.toRadians(forearmDegrees - 90));
+            vectorToForearm[0] = -forearmLength*TrigTable.sin(forearmDegrees - 90);
             vectorToForearm[1] = 0;
-            vectorToForearm[2] = -forearmLength*Math.cos(Math.toRadians(forearmDegrees - 90));
+            vectorToForearm[2] = -forearmLength*TrigTable.cos(forearmDegrees - 90);
         }
         
         return addVectors(vectorToForearm, vectorOrigin);
     }
     
-    /**
-     * 
-     * @param vectorOrigin the point at which the middle wrist starts
-     * @param middleWristDegrees the degrees that the middle wrist is tilted. See drawing for the starting degree position definition.
-     * @param middleWristLength the length from the start to the tip of the middle wrist.
-     * @return the cylindrical coordinates of the tip of the MiddleWrist. See drawing for more information.
-     */
-    private static double[] localizeMiddleWrist(double[] vectorOrigin, double middleWristDegrees, double middleWristLength){
-        final double[] vectorToMiddleWrist = new double[3];
-        if(middleWristDegrees > 90 && middleWristDegrees <= 180){
-            vectorToMiddleWrist[0] = middleWristLength*Math.sin(Math.toRadians(middleWristDegrees - 90));
-            vectorToMiddleWrist[1] = 0;
-            vectorToMiddleWrist[2] = middleWristLength*Math.cos(Math.toRadians(middleWristDegrees - 90));
-        }else if(middleWristDegrees > 180 && middleWristDegrees <= 270){
-            vectorToMiddleWrist[0] = middleWristLength*Math.cos(Math.toRadians(middleWristDegrees - 180));
-            vectorToMiddleWrist[1] = 0;
-            vectorToMiddleWrist[2] = - middleWristLength*Math.sin(Math.toRadians(middleWristDegrees - 180));
-        }else{//conglomerateWristAngle is in (270, 360]
-            vectorToMiddleWrist[0] = - middleWristLength*Math.sin(Math.toRadians(middleWristDegrees - 270));
-            vectorToMiddleWrist[1] = 0;
-            vectorToMiddleWrist[2] = - middleWristLength*Math.cos(Math.toRadians(middleWristDegrees - 270));
-        }
-        
-        return addVectors(vectorToMiddleWrist,vectorOrigin);
-    }
-    
-    /**
-     * 
-     * @param coordinatesAtMiddleWrist the coordinates on the axis that the hand spins left or right. 
-     *        One can travel parallel to the lower hand (wrist) from this point to reach the hand element.
-     * @param wristAngle the angle that the lower wrist is tilted (up down) with respect to the forearm. See drawing for more information. Should be between 
-     *        90 and 360.
-     * @param lowerWristDegrees the left/right degrees from 0 to 180 with 90 being center, that the wrist is at.
-     * @param lowerWristLength the length from the coordinates at the middle wrist to the hand element.
-     * @return the coordinates of the hand element.
-     */
-    private static double[] getCoordinatesAtHandElement(double[] coordinatesAtMiddleWrist, double wristAngle, double lowerWristDegrees, double lowerWristLength){
-        final double[] coordinatesAtGripper = new double[3];
-        
-        //I perform some transformations that briefly use a vector in 3D cartesian coordinates to figure the final cylindrical coordinates
-        double yVectorToGripper = - lowerWristLength*Math.cos(Math.toRadians(lowerWristDegrees));
-        if(wristAngle > 270){
-            yVectorToGripper = - yVectorToGripper;
-        }
-        double yCoordinateToGripper = yVectorToGripper;
-        
-        double xVectorToGripper = lowerWristLength*Math.sin(Math.toRadians(lowerWristDegrees));
-        if(wristAngle > 270){
-            xVectorToGripper = -xVectorToGripper;
-        }
-        double xCoordinateToGripper = xVectorToGripper + coordinatesAtMiddleWrist[0];
-        
-        double zVectorToGripper = mapToTiltedPlaneAlongYAxisAndGetZVectorAtPoint(wristAngle, xVectorToGripper);
-        
-        final double gripperRadiusFromOrigin = Math.sqrt((xCoordinateToGripper)*(xCoordinateToGripper) +
-                yCoordinateToGripper*yCoordinateToGripper);
-        
-        //using the law of sines
-        final double additionalAngleResultingFromYOffset = Math.toDegrees( Math.asin(Math.toRadians( (yCoordinateToGripper*Math.toDegrees( Math.sin(Math.toRadians(90)) )/gripperRadiusFromOrigin) )) );
-        
-        coordinatesAtGripper[0] = gripperRadiusFromOrigin;
-        coordinatesAtGripper[1] = coordinatesAtMiddleWrist[1] + additionalAngleResultingFromYOffset;
-        coordinatesAtGripper[2] = zVectorToGripper + coordinatesAtMiddleWrist[2];
-        
-        return coordinatesAtGripper;
-    }
-    
-    /**
-     * In this method, x and y are arbitrarily defined and are designed for specific use as a subroutine of getCoordinatesAtHandElement
-     * to get the elevation that the hand gains or looses from spinning left or right.
-     * 
-     * @param tilt the tilt of a plane starting from the xy plane on the -x side
-     * @param x the value of the x coordinate on the tilted plane
-     * @return z the corresponding z coordinate on the tilted plane
-     */
-    private static double mapToTiltedPlaneAlongYAxisAndGetZVectorAtPoint(double tilt, double x){
-        double z;
-        if(tilt <= 90){
-            z = -Math.sin(Math.toRadians(tilt))*x/Math.cos(Math.toRadians(tilt));
-        }else if(tilt > 90 && tilt <= 180){
-            z = Math.cos(Math.toRadians(tilt-90))*x/Math.sin(Math.toRadians(tilt-90));
-        }else if(tilt > 180 && tilt <= 270){
-            z = -Math.sin(Math.toRadians(tilt-180))*x/Math.cos(Math.toRadians(tilt-180));
-        }else{
-            z = Math.cos(Math.toRadians(tilt-270))*x/Math.sin(Math.toRadians(tilt-270));
-        }
-        return z;
-    }
-    
-    
-    
-    
-    
     /**
      * 
      * @param vector1 an array of length 3
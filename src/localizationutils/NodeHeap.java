@@ -0,0 +1,93 @@
+package localizationutils;
+
+import java.util.Arrays;
+
+/**
+ *
+ * @author trist
+ *
+ *         A priority queue of lattice positions (see JointLattice) for best
+ *         first searches: a binary min-heap of int positions keyed by double
+ *         priorities, kept in primitive arrays that double in size whenever
+ *         they fill up, so that nothing is boxed or allocated per position.
+ */
+class NodeHeap {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents the positions nodes[0..size), each with priority
+     * priorities[i].
+     *
+     * Rep invariants:
+     *
+     * priorities.length == nodes.length >= size; for every 0 < i < size,
+     * priorities[(i - 1) / 2] <= priorities[i].
+     *
+     * Thread safety arguments:
+     *
+     * Not threadsafe; each search has its own.
+     */
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private double[] priorities = new double[INITIAL_CAPACITY];
+
+    private int[] nodes = new int[INITIAL_CAPACITY];
+
+    private int size = 0;
+
+    void add(double priority, int node) {
+        if (size == nodes.length) {
+            priorities = Arrays.copyOf(priorities, size * 2);
+            nodes = Arrays.copyOf(nodes, size * 2);
+        }
+        int index = size++;
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (priorities[parent] <= priority) {
+                break;
+            }
+            priorities[index] = priorities[parent];
+            nodes[index] = nodes[parent];
+            index = parent;
+        }
+        priorities[index] = priority;
+        nodes[index] = node;
+    }
+
+    /**
+     * @return the position of least priority, removing it; the heap must not
+     *         be empty. Of positions with equal priorities, which is returned
+     *         first is unspecified.
+     */
+    int poll() {
+        int first = nodes[0];
+        size--;
+        double priority = priorities[size];
+        int node = nodes[size];
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && priorities[child + 1] < priorities[child]) {
+                child++;
+            }
+            if (priority <= priorities[child]) {
+                break;
+            }
+            priorities[index] = priorities[child];
+            nodes[index] = nodes[child];
+            index = child;
+        }
+        priorities[index] = priority;
+        nodes[index] = node;
+        return first;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+}
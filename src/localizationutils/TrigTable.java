@@ -0,0 +1,77 @@
+package localizationutils;
+
+/**
+ *
+ * @author trist
+ *
+ *         Sines and cosines of whole numbers of degrees, looked up instead of
+ *         computed. Every joint of the arm is driven in whole degrees, so the
+ *         kinematics only ever needs these. Each entry is computed once with
+ *         Math.sin(Math.toRadians(degrees)) (or Math.cos), so a lookup gives
+ *         exactly the same result as the call it replaces.
+ */
+public class TrigTable {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents the sine and cosine of every whole number of degrees from
+     * MIN_DEGREES to MAX_DEGREES.
+     *
+     * Rep invariants:
+     *
+     * SIN[i] == Math.sin(Math.toRadians(MIN_DEGREES + i)) and COS[i] ==
+     * Math.cos(Math.toRadians(MIN_DEGREES + i)) for every i.
+     *
+     * Thread safety arguments:
+     *
+     * The tables are filled when the class is initialized and never written
+     * again or exposed.
+     */
+
+    // a full turn either side of the joints' ranges
+    public static final int MIN_DEGREES = -360;
+
+    public static final int MAX_DEGREES = 720;
+
+    private static final double[] SIN = new double[MAX_DEGREES - MIN_DEGREES + 1];
+
+    private static final double[] COS = new double[MAX_DEGREES - MIN_DEGREES + 1];
+
+    static {
+        for (int index = 0; index < SIN.length; index++) {
+            SIN[index] = Math.sin(Math.toRadians(MIN_DEGREES + index));
+            COS[index] = Math.cos(Math.toRadians(MIN_DEGREES + index));
+        }
+    }
+
+    /**
+     * @return Math.sin(Math.toRadians(degrees)), looked up if degrees is
+     *         covered.
+     */
+    public static double sin(int degrees) {
+        if (!covers(degrees)) {
+            return Math.sin(Math.toRadians(degrees));
+        }
+        return SIN[degrees - MIN_DEGREES];
+    }
+
+    /**
+     * @return Math.cos(Math.toRadians(degrees)), looked up if degrees is
+     *         covered.
+     */
+    public static double cos(int degrees) {
+        if (!covers(degrees)) {
+            return Math.cos(Math.toRadians(degrees));
+        }
+        return COS[degrees - MIN_DEGREES];
+    }
+
+    /**
+     * @return whether degrees is between MIN_DEGREES and MAX_DEGREES,
+     *         inclusive.
+     */
+    public static boolean covers(int degrees) {
+        return degrees >= MIN_DEGREES && degrees <= MAX_DEGREES;
+    }
+}
@@ -0,0 +1,312 @@
+package localizationutils;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *
+ * @author trist
+ *
+ *         A gripper search that may also move the wrist. The other searches
+ *         hold the wrist where they are given it, so a target the gripper
+ *         could reach with the wrist tilted or turned is reported out of
+ *         reach. This one tries wrist positions every wristStep degrees,
+ *         up/down from 90 (exclusive) to 180 and left/right from 0 to 180,
+ *         counted from the wrist position it is given, and for each runs the
+ *         breadth first bicep and forearm search (see
+ *         ArmPositionSearch.nearestGripperPosition). It returns the position
+ *         that moves the joints least in total: the degrees moved by the
+ *         bicep, forearm and both wrist joints, from the initial arm and
+ *         given wrist positions.
+ *
+ *         The wrist positions are split across a ForkJoinPool, nearest the
+ *         given wrist position first. Every slice shares the best
+ *         position found so far: a wrist position that alone moves the joints
+ *         further than the best is skipped, and the bicep and forearm search
+ *         for any other gives up at the travel that would no longer beat it.
+ *         The whole search stops at a time budget, returning the best position
+ *         found by then; a bicep and forearm search still running then gives
+ *         up too. The pool should be one of the search's own, so that a
+ *         search using all of it for the length of its budget holds up
+ *         nothing else.
+ */
+public class WristSpaceGripperSearch implements GripperSearchStrategy {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents a search over wrist positions wristStep degrees apart, on
+     * pool, that stops after timeBudgetNanos.
+     *
+     * Rep invariants:
+     *
+     * wristStep > 0, timeBudgetNanos > 0.
+     *
+     * Thread safety arguments:
+     *
+     * Immutable; every search keeps its state to a Search of its own, whose
+     * shared fields are atomic.
+     */
+
+    // the wrist may tilt up/down between these, exclusive of the minimum
+    private static final int MIN_UPPER_WRIST = 90;
+
+    private static final int MAX_UPPER_WRIST = 180;
+
+    // and turn left/right between these, inclusive
+    private static final int MIN_LOWER_WRIST = 0;
+
+    private static final int MAX_LOWER_WRIST = 180;
+
+    // the fewest wrist positions worth searching on a thread of their own
+    private static final int WRIST_SLICE = 8;
+
+    public static final int DEFAULT_WRIST_STEP = 5;
+
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 200;
+
+    private final ForkJoinPool pool;
+
+    private final int wristStep;
+
+    private final long timeBudgetNanos;
+
+    /**
+     * @param pool
+     *            runs the searches; not shared with work that must not wait
+     *            for a search.
+     * @param wristStep
+     *            the degrees between the wrist positions tried; must be
+     *            positive.
+     * @param timeBudgetMillis
+     *            how long a search may take before it settles for the best
+     *            position found so far; must be positive.
+     */
+    public WristSpaceGripperSearch(ForkJoinPool pool, int wristStep, long timeBudgetMillis) {
+        if (wristStep <= 0 || timeBudgetMillis <= 0) {
+            throw new IllegalArgumentException("invalid wrist search bounds: " + wristStep + ", "
+                    + timeBudgetMillis);
+        }
+        this.pool = pool;
+        this.wristStep = wristStep;
+        this.timeBudgetNanos = timeBudgetMillis * 1000000;
+    }
+
+    /**
+     * See GripperSearchStrategy, except that givenHandJointPositions are
+     * where the wrist starts rather than where it must stay, and the
+     * position returned moves the bicep, forearm and wrist the least of
+     * those found within the time budget. Targets beyond
+     * LocalizeArm.maximumReachableRadius() are not searched for.
+     */
+    @Override
+    public int[] gripperPositionSearch(double[] requestedCylindricalCoordinates, int[] initialArmJointPositions,
+            int[] givenHandJointPositions) throws InterruptedException {
+        if (requestedCylindricalCoordinates[0] > LocalizeArm.maximumReachableRadius()) {
+            return null;
+        }
+
+        Search search = new Search(requestedCylindricalCoordinates, initialArmJointPositions,
+                givenHandJointPositions, System.nanoTime() + timeBudgetNanos);
+        ForkJoinTask<Void> task = pool.submit(new WristSlice(search, 0, search.upperWrist.length));
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            search.cancelled.set(true);
+            throw e;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        Solution best = search.best.get();
+        return best == null ? null : best.positions;
+    }
+
+    @Override
+    public String toString() {
+        return "wrist space, every " + wristStep + " degrees, at most " + timeBudgetNanos / 1000000 + " ms";
+    }
+
+    /**
+     * One search: the target, the wrist positions to try in order of how far
+     * the wrist moves to them, and the best position found so far.
+     */
+    private class Search {
+
+        private final double[] requested;
+
+        private final int[] initialArm;
+
+        private final int[] upperWrist;
+
+        private final int[] lowerWrist;
+
+        // the degrees the wrist moves to each wrist position, in
+        // nondecreasing order
+        private final int[] wristTravel;
+
+        private final long deadline;
+
+        private final AtomicReference<Solution> best = new AtomicReference<>();
+
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        Search(double[] requested, int[] initialArm, int[] givenHand, long deadline) {
+            this.requested = requested;
+            this.initialArm = initialArm;
+            this.deadline = deadline;
+
+            int[] uppers = steps(givenHand[0], MIN_UPPER_WRIST + 1, MAX_UPPER_WRIST);
+            int[] lowers = steps(givenHand[1], MIN_LOWER_WRIST, MAX_LOWER_WRIST);
+
+            // travel in the high half, position in the low half, so that
+            // sorting orders by travel
+            long[] order = new long[uppers.length * lowers.length];
+            for (int upper = 0; upper < uppers.length; upper++) {
+                for (int lower = 0; lower < lowers.length; lower++) {
+                    long travel = Math.abs(uppers[upper] - givenHand[0]) + Math.abs(lowers[lower] - givenHand[1]);
+                    order[upper * lowers.length + lower] = travel << 32 | (upper * lowers.length + lower);
+                }
+            }
+            Arrays.sort(order);
+
+            upperWrist = new int[order.length];
+            lowerWrist = new int[order.length];
+            wristTravel = new int[order.length];
+            for (int index = 0; index < order.length; index++) {
+                int position = (int) order[index];
+                upperWrist[index] = uppers[position / lowers.length];
+                lowerWrist[index] = lowers[position % lowers.length];
+                wristTravel[index] = (int) (order[index] >>> 32);
+            }
+        }
+
+        /**
+         * @return whether the search should stop: it was cancelled or is out
+         *         of time.
+         */
+        boolean stopped() {
+            return cancelled.get() || System.nanoTime() - deadline > 0;
+        }
+
+        /**
+         * Makes candidate the best position, if it is better.
+         */
+        void offer(Solution candidate) {
+            Solution current = best.get();
+            while (current == null || candidate.isBetterThan(current)) {
+                if (best.compareAndSet(current, candidate)) {
+                    return;
+                }
+                current = best.get();
+            }
+        }
+
+        /**
+         * @return wristStep apart, from and including given, every degree
+         *         from min to max, and given even if it is outside them.
+         */
+        private int[] steps(int given, int min, int max) {
+            int below = given >= min ? (given - min) / wristStep : 0;
+            int above = given <= max ? (max - given) / wristStep : 0;
+            int[] steps = new int[below + above + 1];
+            for (int step = -below; step <= above; step++) {
+                steps[step + below] = given + step * wristStep;
+            }
+            return steps;
+        }
+    }
+
+    /**
+     * A position found for the gripper, and how far it moves the joints.
+     */
+    private static class Solution {
+
+        private final int[] positions;
+
+        private final int travel;
+
+        // the index of its wrist position, to break ties the same way however
+        // the slices are scheduled
+        private final int order;
+
+        Solution(int[] positions, int travel, int order) {
+            this.positions = positions;
+            this.travel = travel;
+            this.order = order;
+        }
+
+        boolean isBetterThan(Solution other) {
+            return travel < other.travel || (travel == other.travel && order < other.order);
+        }
+    }
+
+    /**
+     * Searches wrist positions [from, to) of a search, splitting into slices
+     * of WRIST_SLICE positions.
+     */
+    private static class WristSlice extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Search search;
+
+        private final int from;
+
+        private final int to;
+
+        WristSlice(Search search, int from, int to) {
+            this.search = search;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= WRIST_SLICE) {
+                try {
+                    searchSlice();
+                } catch (InterruptedException e) {
+                    search.cancelled.set(true);
+                    // the pool's worker thread was interrupted, not just
+                    // this search, so the pool must still see it
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            WristSlice further = new WristSlice(search, middle, to);
+            further.fork();
+            new WristSlice(search, from, middle).compute();
+            further.join();
+        }
+
+        private void searchSlice() throws InterruptedException {
+            int[] hand = new int[2];
+            for (int index = from; index < to && !search.stopped(); index++) {
+                int wristTravel = search.wristTravel[index];
+                Solution best = search.best.get();
+                // the rest of the slice moves the wrist at least as far
+                if (best != null && wristTravel > best.travel) {
+                    return;
+                }
+                int maxArmTravel = best == null ? Integer.MAX_VALUE : best.travel - wristTravel;
+
+                hand[0] = search.upperWrist[index];
+                hand[1] = search.lowerWrist[index];
+                int[] positions = ArmPositionSearch.nearestGripperPosition(search.requested, search.initialArm,
+                        hand, maxArmTravel, search.deadline);
+                if (positions != null) {
+                    int armTravel = Math.abs(positions[1] - search.initialArm[1])
+                            + Math.abs(positions[2] - search.initialArm[2]);
+                    search.offer(new Solution(positions, wristTravel + armTravel, index));
+                }
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package parsers;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,6 +26,28 @@ public class BallParser {
         return new BallCollection(output);
     }
     
+    /**
+     * Decodes balls in BinaryResultFormat from reply's position on, leaving
+     * reply positioned after them.
+     *
+     * @throws IllegalArgumentException
+     *             if reply is not in the supported version of the format.
+     */
+    public static BallCollection parse(ByteBuffer reply, int imageWidth, int imageHeight) {
+        int count = BinaryResultFormat.readHeader(reply, BinaryResultFormat.BALL_RECORD_BYTES);
+        List<BallElement> output = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            int x = reply.getInt();
+            int y = reply.getInt();
+            int radius = reply.getInt();
+
+            double distance = distance(radius, imageHeight, imageWidth);
+
+            output.add(new BallElement(x, y, radius, distance, imageWidth, imageHeight));
+        }
+        return new BallCollection(output);
+    }
+
     public static double distance(int radius, int imageWidth, int imageHeight){
         double ballArea = Math.PI * radius * radius;
         double totalArea = imageWidth * imageHeight;
@@ -1,5 +1,7 @@
 package parsers;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -9,6 +11,11 @@ import qrutils.QRTitle;
 
 public class BarcodeParser {
     
+    // the barcode data BarcodeFinder.py reports for each title
+    private static final byte[] MUG = "mug".getBytes(StandardCharsets.UTF_8);
+    
+    private static final byte[] CUBE = "cube".getBytes(StandardCharsets.UTF_8);
+    
     public static QRCollection parse(String input, int imageWidth, int imageHeight){
         List<QRElement> output = new ArrayList<>();
         String[] barcodeStrings = parseIndividualBarcodeStrings(input);
@@ -19,17 +26,77 @@ public class BarcodeParser {
             int y = locationInfo[1];
             int width = locationInfo[2];
             int height = locationInfo[3];
-            int barcodeArea = width*height;
-            double totalArea = imageWidth*imageHeight;
+            double distance = distance(width, height, imageWidth, imageHeight);
             
-            double percentTakenByBarcode = 100*barcodeArea/totalArea;
-            double distance = 29.83581617*Math.exp(-.05695178779*percentTakenByBarcode);
+            output.add(new QRElement(x,y,width,height,distance,title, imageWidth, imageHeight));
+        }
+        return new QRCollection(output);
+    }
+    
+    /**
+     * Decodes barcodes in BinaryResultFormat from reply's position on, leaving
+     * reply positioned after them. Titles are matched byte by byte, without
+     * building strings.
+     *
+     * @throws IllegalArgumentException
+     *             if reply is not in the supported version of the format.
+     */
+    public static QRCollection parse(ByteBuffer reply, int imageWidth, int imageHeight){
+        int count = BinaryResultFormat.readHeader(reply, BinaryResultFormat.BARCODE_RECORD_BYTES);
+        List<QRElement> output = new ArrayList<>(count);
+        for(int index = 0; index < count; index++){
+            if(reply.remaining() < BinaryResultFormat.BARCODE_RECORD_BYTES){
+                throw new IllegalArgumentException("Corrupt detector result, barcode " + index + " truncated");
+            }
+            int x = reply.getInt();
+            int y = reply.getInt();
+            int width = reply.getInt();
+            int height = reply.getInt();
+            int titleLength = reply.getShort() & 0xFFFF;
+            if(reply.remaining() < titleLength){
+                throw new IllegalArgumentException("Corrupt detector result, barcode " + index + " title truncated");
+            }
+            QRTitle title = parseTitle(reply, titleLength);
+            
+            double distance = distance(width, height, imageWidth, imageHeight);
             
             output.add(new QRElement(x,y,width,height,distance,title, imageWidth, imageHeight));
         }
         return new QRCollection(output);
     }
     
+    private static double distance(int width, int height, int imageWidth, int imageHeight){
+        int barcodeArea = width*height;
+        double totalArea = imageWidth*imageHeight;
+        
+        double percentTakenByBarcode = 100*barcodeArea/totalArea;
+        return 29.83581617*Math.exp(-.05695178779*percentTakenByBarcode);
+    }
+    
+    private static QRTitle parseTitle(ByteBuffer reply, int titleLength){
+        QRTitle title = QRTitle.MISSING_TITLE;
+        if(titleMatches(reply, titleLength, MUG)){
+            title = QRTitle.MUG;
+        }else if(titleMatches(reply, titleLength, CUBE)){
+            title = QRTitle.CUBE;
+        }
+        reply.position(reply.position() + titleLength);
+        return title;
+    }
+    
+    private static boolean titleMatches(ByteBuffer reply, int titleLength, byte[] title){
+        if(titleLength != title.length){
+            return false;
+        }
+        int start = reply.position();
+        for(int index = 0; index < titleLength; index++){
+            if(reply.get(start + index) != title[index]){
+                return false;
+            }
+        }
+        return true;
+    }
+    
     private static String[] parseIndividualBarcodeStrings(String input){
         return input.split(";");
         
@@ -0,0 +1,68 @@
+package parsers;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 
+ * @author trist
+ *
+ *         The binary encoding of detector results that BallFinder.py and
+ *         BarcodeFinder.py reply with, decoded by BallParser and BarcodeParser
+ *         straight from the reply buffer. All integers are big-endian:
+ *
+ *         <pre>
+ *         byte marker    MARKER, which no string reply starts with
+ *         byte version   VERSION
+ *         int count
+ *         count records:
+ *             balls:    int x, int y, int radius
+ *             barcodes: int x, int y, int width, int height,
+ *                       short titleLength, titleLength bytes of UTF-8 title
+ *         </pre>
+ */
+public class BinaryResultFormat {
+
+    public static final byte MARKER = (byte) 0xA5;
+
+    public static final byte VERSION = 1;
+
+    public static final int HEADER_BYTES = 6;
+
+    public static final int BALL_RECORD_BYTES = 12;
+
+    /** The fixed part of a barcode record, before the title bytes. */
+    public static final int BARCODE_RECORD_BYTES = 18;
+
+    /**
+     * @return true if reply, from its position on, is in the binary format
+     *         rather than a string reply.
+     */
+    public static boolean isBinary(ByteBuffer reply) {
+        return reply.remaining() >= HEADER_BYTES && reply.get(reply.position()) == MARKER;
+    }
+
+    /**
+     * Reads the header at reply's position.
+     *
+     * @param recordBytes
+     *            the fixed size of one record, to check count against what
+     *            is left of reply.
+     * @return the number of records that follow.
+     * @throws IllegalArgumentException
+     *             if reply is not in this version of the format.
+     */
+    static int readHeader(ByteBuffer reply, int recordBytes) {
+        if (reply.remaining() < HEADER_BYTES || reply.get() != MARKER) {
+            throw new IllegalArgumentException("Not a binary detector result");
+        }
+        byte version = reply.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported detector result version " + version);
+        }
+        int count = reply.getInt();
+        if (count < 0 || (long) count * recordBytes > reply.remaining()) {
+            throw new IllegalArgumentException("Corrupt detector result, count " + count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,22 @@
+package pipelineutils;
+
+/**
+ * 
+ * @author trist
+ *
+ *         What a Stage does with an item submitted while its queue is full.
+ */
+public enum OverflowPolicy {
+
+    /** The submitter waits for room in the queue. */
+    BLOCK,
+
+    /**
+     * The oldest queued item is dropped to make room, so the stage always
+     * works on the freshest items.
+     */
+    DROP_OLDEST,
+
+    /** The submitted item is dropped, and the queue keeps what it has. */
+    DROP_NEWEST
+}
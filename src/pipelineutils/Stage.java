@@ -0,0 +1,243 @@
+package pipelineutils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ *
+ * @author trist
+ *
+ *         One step of a pipeline: a bounded queue of items, and threads of
+ *         its own that take items from the queue and hand them to a
+ *         StageHandler. Stages are chained by having each handler submit to
+ *         the next stage, so every step runs at its own pace and a slow step
+ *         only holds up the steps before it as far as its OverflowPolicy
+ *         says.
+ *
+ *         Every item that is dropped, whether because the queue is full or
+ *         because the stage is closed with items still queued, is handed to
+ *         the stage's drop action, so that anything it holds (such as a pooled
+ *         frame) can be released.
+ */
+public class Stage<T> implements AutoCloseable {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents the step named in counters, which has queued the items in
+     * queue and runs handler on them with the threads of executor, dropping
+     * items according to policy.
+     *
+     * Rep invariants:
+     *
+     * counters counts every item submitted to, handled or dropped by the
+     * stage.
+     *
+     * Thread safety arguments:
+     *
+     * queue is a threadsafe blocking queue; each item is taken from it by
+     * exactly one thread, and only that thread touches the item afterwards.
+     * counters is threadsafe. closed is volatile.
+     */
+
+    // how long close() waits for the stage's threads to finish
+    private static final long CLOSE_WAIT_MILLIS = 1000;
+
+    private final OverflowPolicy policy;
+
+    private final StageHandler<T> handler;
+
+    private final Consumer<T> dropAction;
+
+    private final BlockingQueue<T> queue;
+
+    private final ExecutorService executor;
+
+    private final StageCounters counters;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Starts threads daemon threads, named after the stage, that wait for
+     * items.
+     *
+     * @param capacity
+     *            the most items that can wait in the queue.
+     * @param policy
+     *            what submit() does when the queue is full.
+     * @param handler
+     *            processes each item.
+     * @param dropAction
+     *            called with each dropped item, on the thread that drops it.
+     */
+    public Stage(String name, int threads, int capacity, OverflowPolicy policy, StageHandler<T> handler,
+            Consumer<T> dropAction) {
+        this.policy = policy;
+        this.handler = handler;
+        this.dropAction = dropAction;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.counters = new StageCounters(name, threads);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int thread = 0; thread < threads; thread++) {
+            executor.execute(this::work);
+        }
+    }
+
+    /**
+     * Queues item for the stage's threads.
+     *
+     * @return true if item was queued, false if it was dropped (because the
+     *         queue is full under DROP_NEWEST, or the stage is closed).
+     *         Under DROP_OLDEST item is always queued, though another item
+     *         may be dropped to make room.
+     * @throws InterruptedException
+     *             if interrupted while waiting for room under BLOCK; item is
+     *             dropped.
+     */
+    public boolean submit(T item) throws InterruptedException {
+        counters.countSubmitted();
+        if (closed) {
+            drop(item);
+            return false;
+        }
+
+        switch (policy) {
+        case BLOCK:
+            try {
+                queue.put(item);
+            } catch (InterruptedException e) {
+                drop(item);
+                throw e;
+            }
+            break;
+
+        case DROP_OLDEST:
+            while (!queue.offer(item)) {
+                T oldest = queue.poll();
+                if (oldest != null) {
+                    drop(oldest);
+                }
+            }
+            break;
+
+        case DROP_NEWEST:
+        default:
+            if (!queue.offer(item)) {
+                drop(item);
+                return false;
+            }
+            break;
+        }
+
+        // close() may have emptied the queue just before item went in
+        if (closed && queue.remove(item)) {
+            drop(item);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Queues item for the stage's threads, waiting for room whatever the
+     * stage's OverflowPolicy, for items that must not be dropped just because
+     * the queue is full, such as a marker that ends a run of items. An item
+     * queued this way may still be dropped by a later submit() under
+     * DROP_OLDEST.
+     *
+     * @return true if item was queued, false if it was dropped because the
+     *         stage is closed.
+     * @throws InterruptedException
+     *             if interrupted while waiting for room; item is dropped.
+     */
+    public boolean put(T item) throws InterruptedException {
+        counters.countSubmitted();
+        if (closed) {
+            drop(item);
+            return false;
+        }
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            drop(item);
+            throw e;
+        }
+        if (closed && queue.remove(item)) {
+            drop(item);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the stage's counters and queue depth as they are now.
+     */
+    public StageMetrics metrics() {
+        return counters.metrics(queue.size(), queue.size() + queue.remainingCapacity());
+    }
+
+    /**
+     * Stops the stage's threads, waiting briefly for the items being
+     * processed, and drops the items still queued. Items submitted afterwards
+     * are dropped. If the calling thread is interrupted while waiting, it
+     * stops waiting (the items still queued are dropped all the same) and its
+     * interrupt status is set again.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(CLOSE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        T item;
+        while ((item = queue.poll()) != null) {
+            drop(item);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return metrics().toString();
+    }
+
+    private void work() {
+        try {
+            while (!closed) {
+                T item = queue.take();
+                long start = System.nanoTime();
+                try {
+                    handler.handle(item);
+                    counters.countProcessed(start);
+                } catch (InterruptedException e) {
+                    counters.countFailed(start);
+                    return;
+                } catch (Exception e) {
+                    counters.countFailed(start);
+                    if (!closed) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    private void drop(T item) {
+        counters.countDropped();
+        dropAction.accept(item);
+    }
+}
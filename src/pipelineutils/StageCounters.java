@@ -0,0 +1,113 @@
+package pipelineutils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author trist
+ *
+ *         The counters behind a StageMetrics: how many items a step was given,
+ *         handled, failed on or dropped, and how long handling them took.
+ *         Every Stage keeps one; a step that runs on a thread of its own
+ *         rather than in a Stage (such as one fed by a LatestFrameSlot) can
+ *         keep one too, so that it is reported alongside the stages.
+ */
+public class StageCounters {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents the counts of the step name, run on threads threads, since
+     * startNanos.
+     *
+     * Rep invariants:
+     *
+     * processed + failed <= submitted - dropped; busyNanos >= 0.
+     *
+     * Thread safety arguments:
+     *
+     * The counters are atomic, and everything else is final.
+     */
+
+    private final String name;
+
+    private final int threads;
+
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong processed = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    private final AtomicLong maxServiceNanos = new AtomicLong();
+
+    /**
+     * @param threads
+     *            how many threads the step runs on, which its utilization is
+     *            a fraction of.
+     */
+    public StageCounters(String name, int threads) {
+        this.name = name;
+        this.threads = threads;
+    }
+
+    /**
+     * Counts an item given to the step.
+     */
+    public void countSubmitted() {
+        submitted.incrementAndGet();
+    }
+
+    /**
+     * Counts an item dropped without being handled.
+     */
+    public void countDropped() {
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * Counts an item handled successfully.
+     *
+     * @param startNanos
+     *            the System.nanoTime() handling it started at.
+     */
+    public void countProcessed(long startNanos) {
+        processed.incrementAndGet();
+        countService(startNanos);
+    }
+
+    /**
+     * Counts an item the step failed to handle.
+     *
+     * @param startNanos
+     *            the System.nanoTime() handling it started at.
+     */
+    public void countFailed(long startNanos) {
+        failed.incrementAndGet();
+        countService(startNanos);
+    }
+
+    /**
+     * @param queueDepth
+     *            the number of items waiting for the step.
+     * @param capacity
+     *            the most items that can wait for the step.
+     * @return the counters as they are now.
+     */
+    public StageMetrics metrics(int queueDepth, int capacity) {
+        return new StageMetrics(name, threads, queueDepth, capacity, submitted.get(), processed.get(),
+                dropped.get(), failed.get(), busyNanos.get(), maxServiceNanos.get(), System.nanoTime() - startNanos);
+    }
+
+    private void countService(long startNanos) {
+        long service = System.nanoTime() - startNanos;
+        busyNanos.addAndGet(service);
+        maxServiceNanos.accumulateAndGet(service, Math::max);
+    }
+}
@@ -0,0 +1,18 @@
+package pipelineutils;
+
+/**
+ * 
+ * @author trist
+ *
+ *         The work a Stage does on each of its items, typically ending by
+ *         submitting a result to the next stage.
+ */
+@FunctionalInterface
+public interface StageHandler<T> {
+
+    /**
+     * Processes item, which the handler then owns: it must release or pass on
+     * anything item holds, whether or not it throws.
+     */
+    void handle(T item) throws Exception;
+}
@@ -0,0 +1,144 @@
+package pipelineutils;
+
+/**
+ * 
+ * @author trist
+ *
+ *         An immutable snapshot of a Stage's counters: how much it has done,
+ *         how long each item takes it, and how full its queue is, so that the
+ *         bottleneck of a pipeline is the stage whose queue stays full and
+ *         whose utilization is near 1.
+ */
+public class StageMetrics {
+
+    /*
+     * Abstraction function:
+     * 
+     * Represents the state of the stage name, with threads threads and a
+     * queue of capacity items holding queueDepth items, elapsedNanos after it
+     * started.
+     * 
+     * Rep invariants:
+     * 
+     * 0 <= queueDepth <= capacity; all counters >= 0.
+     * 
+     * Thread safety arguments:
+     * 
+     * Immutable.
+     */
+
+    private final String name;
+
+    private final int threads;
+
+    private final int queueDepth;
+
+    private final int capacity;
+
+    private final long submitted;
+
+    private final long processed;
+
+    private final long dropped;
+
+    private final long failed;
+
+    private final long busyNanos;
+
+    private final long maxServiceNanos;
+
+    private final long elapsedNanos;
+
+    StageMetrics(String name, int threads, int queueDepth, int capacity, long submitted, long processed,
+            long dropped, long failed, long busyNanos, long maxServiceNanos, long elapsedNanos) {
+        this.name = name;
+        this.threads = threads;
+        this.queueDepth = queueDepth;
+        this.capacity = capacity;
+        this.submitted = submitted;
+        this.processed = processed;
+        this.dropped = dropped;
+        this.failed = failed;
+        this.busyNanos = busyNanos;
+        this.maxServiceNanos = maxServiceNanos;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return the number of items waiting in the queue.
+     */
+    public int queueDepth() {
+        return queueDepth;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long submitted() {
+        return submitted;
+    }
+
+    /**
+     * @return the number of items handled without an exception.
+     */
+    public long processed() {
+        return processed;
+    }
+
+    /**
+     * @return the number of items dropped without being handled.
+     */
+    public long dropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the number of items whose handler threw.
+     */
+    public long failed() {
+        return failed;
+    }
+
+    /**
+     * @return items handled per second since the stage started.
+     */
+    public double throughputPerSecond() {
+        return elapsedNanos == 0 ? 0 : (processed + failed) * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return the mean time the handler took per item, in milliseconds.
+     */
+    public double meanServiceMillis() {
+        long handled = processed + failed;
+        return handled == 0 ? 0 : busyNanos / 1e6 / handled;
+    }
+
+    /**
+     * @return the longest time the handler took on one item, in milliseconds.
+     */
+    public double maxServiceMillis() {
+        return maxServiceNanos / 1e6;
+    }
+
+    /**
+     * @return the fraction of the time since the stage started that its
+     *         threads spent handling items, between 0 and 1.
+     */
+    public double utilization() {
+        return elapsedNanos == 0 ? 0 : (double) busyNanos / elapsedNanos / threads;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s (queue %d/%d, submitted %d, processed %d, dropped %d, failed %d, %.1f/s, service mean %.2f ms max %.2f ms, utilization %.2f)",
+                name, queueDepth, capacity, submitted, processed, dropped, failed, throughputPerSecond(),
+                meanServiceMillis(), maxServiceMillis(), utilization());
+    }
+}
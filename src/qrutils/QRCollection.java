@@ -14,6 +14,18 @@ public class QRCollection {
         return new ArrayList<>(collection);
     }
     
+    /**
+     * @return the barcodes of this collection as seen in the same image rotated
+     *         by 180 degrees.
+     */
+    public QRCollection rotatedHalfTurn(){
+        List<QRElement> rotated = new ArrayList<>(collection.size());
+        for(QRElement barcode : collection){
+            rotated.add(barcode.rotatedHalfTurn());
+        }
+        return new QRCollection(rotated);
+    }
+    
     @Override
     public String toString(){
         return collection.toString();
@@ -64,6 +64,14 @@ public class QRElement {
         return imageWidth;
     }
     
+    /**
+     * @return this barcode as seen in the same image rotated by 180 degrees (the
+     *         center is mirrored through the image center).
+     */
+    public QRElement rotatedHalfTurn(){
+        return new QRElement(imageWidth-1-centerX, imageHeight-1-centerY, width, height, distance, title, imageWidth, imageHeight);
+    }
+    
     @Override 
     public boolean equals(Object that){
             if (!(that instanceof QRElement)) {
@@ -0,0 +1,214 @@
+package trackingutils;
+
+/**
+ * 
+ * @author trist
+ *
+ *         One ball followed across frames by a constant-velocity Kalman
+ *         filter. The state is the ball's center and its velocity in pixels
+ *         per frame; only the center is measured.
+ */
+public class BallTrack {
+
+    /*
+     * Abstraction function:
+     * 
+     * Represents a ball with id id, believed to be centered at (state[0],
+     * state[1]) and moving (state[2], state[3]) pixels per frame, with the
+     * uncertainty of that belief given by the covariance covariance (row
+     * major, 4 by 4), and with radius radius.
+     * 
+     * Rep invariants:
+     * 
+     * covariance is symmetric and positive definite. hits >= 1, misses >= 0.
+     * 
+     * Thread safety arguments:
+     * 
+     * Not threadsafe; tracks are only touched by their BallTracker, under its
+     * lock.
+     */
+
+    // how much the smoothed radius follows each new measurement
+    private static final double RADIUS_SMOOTHING = .5;
+
+    // the initial velocity uncertainty, in pixels per frame
+    private static final double INITIAL_SPEED_DEVIATION = 20;
+
+    private final int id;
+
+    private final double[] state = new double[4];
+
+    private final double[] covariance = new double[16];
+
+    private final double accelerationVariance;
+
+    private final double measurementVariance;
+
+    private double radius;
+
+    private int hits = 1;
+
+    private int misses = 0;
+
+    // scratch space for predict() and update(), reused
+    private final double[] product = new double[16];
+
+    private final double[] firstRows = new double[8];
+
+    BallTrack(int id, double x, double y, double radius, double accelerationVariance, double measurementVariance) {
+        this.id = id;
+        this.state[0] = x;
+        this.state[1] = y;
+        this.radius = radius;
+        this.accelerationVariance = accelerationVariance;
+        this.measurementVariance = measurementVariance;
+
+        covariance[0] = measurementVariance;
+        covariance[5] = measurementVariance;
+        covariance[10] = INITIAL_SPEED_DEVIATION * INITIAL_SPEED_DEVIATION;
+        covariance[15] = INITIAL_SPEED_DEVIATION * INITIAL_SPEED_DEVIATION;
+    }
+
+    /**
+     * Moves the track one frame ahead: x' = F x, P' = F P F^T + Q, with Q the
+     * noise of a random acceleration.
+     */
+    void predict() {
+        state[0] += state[2];
+        state[1] += state[3];
+
+        // F P, where F adds row 2 to row 0 and row 3 to row 1
+        System.arraycopy(covariance, 0, product, 0, 16);
+        for (int column = 0; column < 4; column++) {
+            product[column] += covariance[8 + column];
+            product[4 + column] += covariance[12 + column];
+        }
+        // (F P) F^T, which adds column 2 to column 0 and column 3 to column 1
+        System.arraycopy(product, 0, covariance, 0, 16);
+        for (int row = 0; row < 4; row++) {
+            covariance[row * 4] += product[row * 4 + 2];
+            covariance[row * 4 + 1] += product[row * 4 + 3];
+        }
+
+        // Q for unit time steps
+        double q = accelerationVariance;
+        covariance[0] += q / 4;
+        covariance[5] += q / 4;
+        covariance[2] += q / 2;
+        covariance[8] += q / 2;
+        covariance[7] += q / 2;
+        covariance[13] += q / 2;
+        covariance[10] += q;
+        covariance[15] += q;
+    }
+
+    /**
+     * @return the squared Mahalanobis distance of a measured center from the
+     *         predicted one, y^T S^-1 y with S = H P H^T + R.
+     */
+    double distanceSquared(double x, double y) {
+        double dx = x - state[0];
+        double dy = y - state[1];
+        double s00 = covariance[0] + measurementVariance;
+        double s01 = covariance[1];
+        double s11 = covariance[5] + measurementVariance;
+        double determinant = s00 * s11 - s01 * s01;
+        return (dx * dx * s11 - 2 * dx * dy * s01 + dy * dy * s00) / determinant;
+    }
+
+    /**
+     * Corrects the track with a measured center and radius.
+     */
+    void update(double x, double y, double measuredRadius) {
+        double s00 = covariance[0] + measurementVariance;
+        double s01 = covariance[1];
+        double s11 = covariance[5] + measurementVariance;
+        double determinant = s00 * s11 - s01 * s01;
+        double i00 = s11 / determinant;
+        double i01 = -s01 / determinant;
+        double i11 = s00 / determinant;
+
+        // K = P H^T S^-1, 4 by 2; P H^T is the first two columns of P
+        double[] gain = product;
+        for (int row = 0; row < 4; row++) {
+            double p0 = covariance[row * 4];
+            double p1 = covariance[row * 4 + 1];
+            gain[row * 2] = p0 * i00 + p1 * i01;
+            gain[row * 2 + 1] = p0 * i01 + p1 * i11;
+        }
+
+        double dx = x - state[0];
+        double dy = y - state[1];
+        for (int row = 0; row < 4; row++) {
+            state[row] += gain[row * 2] * dx + gain[row * 2 + 1] * dy;
+        }
+
+        // P = (I - K H) P; K H P only involves the first two rows of P
+        System.arraycopy(covariance, 0, firstRows, 0, 8);
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 4; column++) {
+                covariance[row * 4 + column] -= gain[row * 2] * firstRows[column]
+                        + gain[row * 2 + 1] * firstRows[4 + column];
+            }
+        }
+
+        radius += RADIUS_SMOOTHING * (measuredRadius - radius);
+        hits++;
+        misses = 0;
+    }
+
+    void miss() {
+        misses++;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public double x() {
+        return state[0];
+    }
+
+    public double y() {
+        return state[1];
+    }
+
+    /**
+     * @return the estimated horizontal speed, in pixels per frame.
+     */
+    public double velocityX() {
+        return state[2];
+    }
+
+    /**
+     * @return the estimated vertical speed, in pixels per frame.
+     */
+    public double velocityY() {
+        return state[3];
+    }
+
+    public double radius() {
+        return radius;
+    }
+
+    /**
+     * @return the number of detections this track has been matched with.
+     */
+    public int hits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of detection rounds in a row this track has not been
+     *         matched in.
+     */
+    public int misses() {
+        return misses;
+    }
+
+    @Override
+    public String toString() {
+        return "(#" + id + ", " + String.format("%.1f,%.1f moving %.1f,%.1f", x(), y(), velocityX(), velocityY())
+                + ", hits " + hits + ", misses " + misses + ")";
+    }
+}
@@ -0,0 +1,238 @@
+package trackingutils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ballutils.BallCollection;
+import ballutils.BallElement;
+import parsers.BallParser;
+
+/**
+ * 
+ * @author trist
+ *
+ *         Follows balls across frames, giving each one a trackId that stays
+ *         the same for as long as it is tracked. Every ball has its own
+ *         constant-velocity Kalman filter (see BallTrack). Detections are
+ *         matched to tracks by gated nearest neighbour: closest pairs first,
+ *         by Mahalanobis distance, and never beyond the gate.
+ * 
+ *         Frames on which the detector is not run are handed to predict()
+ *         instead of update(), so the detector can run on only some frames
+ *         while the tracked balls keep moving on every frame.
+ */
+public class BallTracker {
+
+    /*
+     * Abstraction function:
+     * 
+     * Represents the balls in tracks, the next of which will get the id
+     * nextId.
+     * 
+     * Rep invariants:
+     * 
+     * Every track in tracks has a distinct id below nextId, and at most
+     * maxMisses misses. tracks is in order of increasing id.
+     * 
+     * Thread safety arguments:
+     * 
+     * All methods that touch tracks are synchronized.
+     */
+
+    // the 99% quantile of the chi-squared distribution with 2 degrees of
+    // freedom: a detection this far from a prediction is a different ball
+    private static final double DEFAULT_GATE = 9.21;
+
+    private static final int DEFAULT_MAX_MISSES = 3;
+
+    // a new ball is reported on its first detection: the detector may run on
+    // only every few frames, and a ball held back until its second would go
+    // unreported (and be looked for by its colors instead) for that long
+    private static final int DEFAULT_MIN_HITS = 1;
+
+    private static final double DEFAULT_ACCELERATION_VARIANCE = 4;
+
+    private static final double DEFAULT_MEASUREMENT_VARIANCE = 9;
+
+    private final double gate;
+
+    private final int maxMisses;
+
+    private final int minHits;
+
+    private final double accelerationVariance;
+
+    private final double measurementVariance;
+
+    private final List<BallTrack> tracks = new ArrayList<>();
+
+    private int nextId = 0;
+
+    // the size of the images the last detections were made in
+    private int imageWidth = 0;
+
+    private int imageHeight = 0;
+
+    public BallTracker() {
+        this(DEFAULT_GATE, DEFAULT_MAX_MISSES, DEFAULT_MIN_HITS, DEFAULT_ACCELERATION_VARIANCE,
+                DEFAULT_MEASUREMENT_VARIANCE);
+    }
+
+    /**
+     * @param gate
+     *            the largest squared Mahalanobis distance at which a detection
+     *            may be matched to a track.
+     * @param maxMisses
+     *            how many rounds of detections in a row a track may go
+     *            unmatched before it is dropped.
+     * @param minHits
+     *            how many detections a track needs before it is reported.
+     * @param accelerationVariance
+     *            how much, in pixels per frame squared, balls are expected to
+     *            change speed from frame to frame.
+     * @param measurementVariance
+     *            how far off, in pixels squared, a detected center is
+     *            expected to be.
+     */
+    public BallTracker(double gate, int maxMisses, int minHits, double accelerationVariance,
+            double measurementVariance) {
+        this.gate = gate;
+        this.maxMisses = maxMisses;
+        this.minHits = minHits;
+        this.accelerationVariance = accelerationVariance;
+        this.measurementVariance = measurementVariance;
+    }
+
+    /**
+     * Moves every track one frame ahead and corrects them with the balls
+     * detected in that frame. Unmatched detections start new tracks;
+     * unmatched tracks miss a round.
+     *
+     * @return the tracked balls, oldest track first.
+     */
+    public synchronized BallCollection update(BallCollection detections) {
+        List<BallElement> detected = detections.getCollection();
+        if (!detected.isEmpty()) {
+            imageWidth = detected.get(0).imageWidth();
+            imageHeight = detected.get(0).imageHeight();
+        }
+
+        for (BallTrack track : tracks) {
+            track.predict();
+        }
+
+        // every gated pair, closest first
+        List<Candidate> candidates = new ArrayList<>();
+        for (int trackIndex = 0; trackIndex < tracks.size(); trackIndex++) {
+            BallTrack track = tracks.get(trackIndex);
+            for (int detectionIndex = 0; detectionIndex < detected.size(); detectionIndex++) {
+                BallElement ball = detected.get(detectionIndex);
+                double distance = track.distanceSquared(ball.x(), ball.y());
+                if (distance <= gate) {
+                    candidates.add(new Candidate(trackIndex, detectionIndex, distance));
+                }
+            }
+        }
+        Collections.sort(candidates);
+
+        boolean[] trackMatched = new boolean[tracks.size()];
+        boolean[] detectionMatched = new boolean[detected.size()];
+        for (Candidate candidate : candidates) {
+            if (!trackMatched[candidate.track] && !detectionMatched[candidate.detection]) {
+                BallElement ball = detected.get(candidate.detection);
+                tracks.get(candidate.track).update(ball.x(), ball.y(), ball.radius());
+                trackMatched[candidate.track] = true;
+                detectionMatched[candidate.detection] = true;
+            }
+        }
+
+        List<BallTrack> kept = new ArrayList<>(tracks.size() + detected.size());
+        for (int trackIndex = 0; trackIndex < tracks.size(); trackIndex++) {
+            BallTrack track = tracks.get(trackIndex);
+            if (!trackMatched[trackIndex]) {
+                track.miss();
+            }
+            if (track.misses() <= maxMisses) {
+                kept.add(track);
+            }
+        }
+        for (int detectionIndex = 0; detectionIndex < detected.size(); detectionIndex++) {
+            if (!detectionMatched[detectionIndex]) {
+                BallElement ball = detected.get(detectionIndex);
+                kept.add(new BallTrack(nextId++, ball.x(), ball.y(), ball.radius(), accelerationVariance,
+                        measurementVariance));
+            }
+        }
+        tracks.clear();
+        tracks.addAll(kept);
+
+        return trackedBalls();
+    }
+
+    /**
+     * Moves every track one frame ahead without detections, for frames the
+     * detector is not run on. Tracks do not miss a round.
+     *
+     * @return where the tracked balls are expected to be, oldest track first.
+     */
+    public synchronized BallCollection predict() {
+        for (BallTrack track : tracks) {
+            track.predict();
+        }
+        return trackedBalls();
+    }
+
+    /**
+     * Drops every track, for example when the camera is turned off.
+     */
+    public synchronized void clear() {
+        tracks.clear();
+    }
+
+    /**
+     * @return a description of each current track, oldest first.
+     */
+    public synchronized List<String> tracks() {
+        List<String> snapshot = new ArrayList<>(tracks.size());
+        for (BallTrack track : tracks) {
+            snapshot.add(track.toString());
+        }
+        return snapshot;
+    }
+
+    private BallCollection trackedBalls() {
+        List<BallElement> balls = new ArrayList<>(tracks.size());
+        for (BallTrack track : tracks) {
+            if (track.hits() < minHits) {
+                continue;
+            }
+            int radius = (int) Math.round(track.radius());
+            balls.add(new BallElement((int) Math.round(track.x()), (int) Math.round(track.y()), radius,
+                    BallParser.distance(radius, imageWidth, imageHeight), imageWidth, imageHeight, track.id()));
+        }
+        return new BallCollection(balls);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return tracks().toString();
+    }
+
+    private static class Candidate implements Comparable<Candidate> {
+        private final int track;
+        private final int detection;
+        private final double distance;
+
+        private Candidate(int track, int detection, double distance) {
+            this.track = track;
+            this.detection = detection;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Candidate that) {
+            return Double.compare(this.distance, that.distance);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package trackingutils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+/**
+ *
+ * @author trist
+ *
+ *         Follows one ball by its colors on frames where the circle detectors
+ *         miss it. A hue-saturation histogram of the ball is learned from the
+ *         pixels inside confirmed detections (see learn()), and on other
+ *         frames the ball is found with CamShift over the back projection of
+ *         that histogram, in a window around where it was last seen (see
+ *         track()). Only the window is converted and searched, so the cost of
+ *         a frame does not grow with the frame's size.
+ *
+ *         Hue and saturation change less with lighting than blue, green and
+ *         red do, and pixels too gray or too dark to have a meaningful hue are
+ *         left out of both the model and the back projection.
+ */
+public class ColorHistogramTracker {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents a model of the ball's colors, model, learned at rate
+     * learningRate, and the ball's last known bounding box, window, which has
+     * been missed misses times in a row since.
+     *
+     * Rep invariants:
+     *
+     * model is empty until the first learn(), then a HUE_BINS x
+     * SATURATION_BINS histogram scaled to 0..255. window is null if the ball
+     * is lost, and otherwise lies inside the last frame tracked. 0 <= misses
+     * < maxMisses.
+     *
+     * The other Mats are only scratch space; they hold nothing between calls.
+     *
+     * Thread safety arguments:
+     *
+     * All public methods are synchronized.
+     */
+
+    private static final int HUE_BINS = 30;
+
+    private static final int SATURATION_BINS = 32;
+
+    // pixels below these saturations and values have no reliable hue
+    private static final double MIN_SATURATION = 60;
+
+    private static final double MIN_VALUE = 32;
+
+    private static final double DEFAULT_LEARNING_RATE = 0.1;
+
+    private static final int DEFAULT_MAX_MISSES = 5;
+
+    // the mean back projection, out of 255, inside the window CamShift
+    // settles on, below which the ball counts as missed
+    private static final double DEFAULT_MIN_PROBABILITY = 24;
+
+    private static final int MIN_WINDOW_SIDE = 4;
+
+    private static final MatOfInt CHANNELS = new MatOfInt(0, 1);
+
+    private static final MatOfInt HISTOGRAM_SIZE = new MatOfInt(HUE_BINS, SATURATION_BINS);
+
+    private static final MatOfFloat RANGES = new MatOfFloat(0, 180, 0, 256);
+
+    private static final Scalar COLORFUL_LOW = new Scalar(0, MIN_SATURATION, MIN_VALUE);
+
+    private static final Scalar COLORFUL_HIGH = new Scalar(180, 256, 256);
+
+    private static final TermCriteria CAMSHIFT_CRITERIA = new TermCriteria(TermCriteria.EPS | TermCriteria.COUNT,
+            10, 1);
+
+    private final double learningRate;
+
+    private final int maxMisses;
+
+    private final double minProbability;
+
+    private final Mat model = new Mat();
+
+    private final Mat sample = new Mat();
+
+    private final Mat hsv = new Mat();
+
+    private final Mat colorful = new Mat();
+
+    private final Mat backProjection = new Mat();
+
+    private final List<Mat> hsvList = Arrays.asList(hsv);
+
+    private Rect window = null;
+
+    private int misses = 0;
+
+    public ColorHistogramTracker() {
+        this(DEFAULT_LEARNING_RATE, DEFAULT_MAX_MISSES, DEFAULT_MIN_PROBABILITY);
+    }
+
+    /**
+     * @param learningRate
+     *            how much each learn() moves the model towards the colors of
+     *            the ball it is given, between 0 and 1.
+     * @param maxMisses
+     *            how many frames in a row the ball is missed on when it is
+     *            lost; must be positive.
+     * @param minProbability
+     *            how strongly, out of 255, the window the ball is tracked to
+     *            must match the model on average.
+     */
+    public ColorHistogramTracker(double learningRate, int maxMisses, double minProbability) {
+        this.learningRate = learningRate;
+        this.maxMisses = maxMisses;
+        this.minProbability = minProbability;
+    }
+
+    /**
+     * Updates the model with the colors of a confirmed ball, and tracks from
+     * it on the next frame.
+     *
+     * @param frame
+     *            an 8 bit BGR image the ball was detected in.
+     */
+    public synchronized void learn(Mat frame, int x, int y, int radius) {
+        // the square inside the ball, so that no background is learned
+        int halfSide = (int) (radius * Math.sqrt(2) / 2);
+        Rect inside = clamp(new Rect(x - halfSide, y - halfSide, 2 * halfSide, 2 * halfSide), frame);
+        Rect around = clamp(new Rect(x - radius, y - radius, 2 * radius, 2 * radius), frame);
+        if (inside.width < MIN_WINDOW_SIDE || inside.height < MIN_WINDOW_SIDE) {
+            return;
+        }
+
+        toColorful(frame, inside);
+        Imgproc.calcHist(hsvList, CHANNELS, colorful, sample, HISTOGRAM_SIZE, RANGES);
+        Core.normalize(sample, sample, 0, 255, Core.NORM_MINMAX);
+        if (model.empty()) {
+            sample.copyTo(model);
+        } else {
+            Core.addWeighted(model, 1 - learningRate, sample, learningRate, 0, model);
+        }
+
+        window = around;
+        misses = 0;
+    }
+
+    /**
+     * Looks for the ball near where it was last seen.
+     *
+     * @param frame
+     *            an 8 bit BGR image, the same size as those given to learn().
+     * @return {x, y, radius} of the ball in frame, or null if it is not found
+     *         there or has been lost.
+     */
+    public synchronized int[] track(Mat frame) {
+        if (model.empty() || window == null) {
+            return null;
+        }
+
+        // the ball can move about its own size between frames
+        Rect search = clamp(new Rect(window.x - window.width, window.y - window.height, 3 * window.width,
+                3 * window.height), frame);
+        toColorful(frame, search);
+        Imgproc.calcBackProject(hsvList, CHANNELS, model, backProjection, RANGES, 1);
+        Core.bitwise_and(backProjection, colorful, backProjection);
+
+        Rect local = new Rect(window.x - search.x, window.y - search.y, window.width, window.height);
+        RotatedRect ball = Video.CamShift(backProjection, local, CAMSHIFT_CRITERIA);
+
+        local = clamp(local, backProjection);
+        if (local.width < MIN_WINDOW_SIDE || local.height < MIN_WINDOW_SIDE
+                || meanProbability(local) < minProbability) {
+            miss();
+            return null;
+        }
+
+        window = new Rect(local.x + search.x, local.y + search.y, local.width, local.height);
+        misses = 0;
+
+        int[] found = new int[3];
+        found[0] = (int) Math.round(ball.center.x + search.x);
+        found[1] = (int) Math.round(ball.center.y + search.y);
+        found[2] = (int) Math.round((ball.size.width + ball.size.height) / 4);
+        return found;
+    }
+
+    /**
+     * @return whether there is a last known position to track from.
+     */
+    public synchronized boolean isTracking() {
+        return window != null;
+    }
+
+    /**
+     * Forgets where the ball was; the model of its colors is kept.
+     */
+    public synchronized void lose() {
+        window = null;
+        misses = 0;
+    }
+
+    public synchronized void close() {
+        model.release();
+        sample.release();
+        hsv.release();
+        colorful.release();
+        backProjection.release();
+    }
+
+    /**
+     * Converts region of frame to HSV into hsv, and marks its pixels colorful
+     * enough to have a hue in colorful.
+     */
+    private void toColorful(Mat frame, Rect region) {
+        Mat pixels = frame.submat(region);
+        try {
+            Imgproc.cvtColor(pixels, hsv, Imgproc.COLOR_BGR2HSV);
+        } finally {
+            pixels.release();
+        }
+        Core.inRange(hsv, COLORFUL_LOW, COLORFUL_HIGH, colorful);
+    }
+
+    private double meanProbability(Rect region) {
+        Mat probabilities = backProjection.submat(region);
+        try {
+            return Core.mean(probabilities).val[0];
+        } finally {
+            probabilities.release();
+        }
+    }
+
+    private void miss() {
+        misses++;
+        if (misses >= maxMisses) {
+            lose();
+        }
+    }
+
+    private static Rect clamp(Rect rect, Mat image) {
+        int left = Math.max(0, rect.x);
+        int top = Math.max(0, rect.y);
+        int right = Math.min(image.cols(), rect.x + rect.width);
+        int bottom = Math.min(image.rows(), rect.y + rect.height);
+        return new Rect(left, top, Math.max(0, right - left), Math.max(0, bottom - top));
+    }
+}
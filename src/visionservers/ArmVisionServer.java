@@ -1,5 +1,8 @@
 package visionservers;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.ServerSocket;
@@ -7,28 +10,176 @@ import java.net.Socket;
 
 import com.google.common.io.ByteStreams;
 
+/**
+ *
+ * @author trist
+ *
+ *         This class represents the server that receives camera frames from
+ *         the client program on the arm. Depending on its VisionStreamMode the
+ *         client either opens a connection per frame or keeps a single
+ *         connection open and sends length-prefixed frames over it.
+ */
 public class ArmVisionServer {
 
+    /*
+     * Thread safety arguments:
+     *
+     * Not threadsafe. Frames must be received by a single thread (the one that
+     * feeds the rest of the vision pipeline). close() may be called from any
+     * thread to unblock it.
+     *
+     * Rep invariants:
+     *
+     * streamIn is null whenever streamSocket is null, and both are always null
+     * in ACCEPT_PER_FRAME mode.
+     */
+
+    /** Frames larger than this are treated as a corrupt stream. */
+    private static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+    private static final int DEFAULT_FRAME_CAPACITY = 64 * 1024;
+
     /** Socket for receiving incoming connections. */
     private final ServerSocket serverSocket;
-    
-    //private final Socket socket; ////
-    
-   
+
+    private final VisionStreamMode mode;
+
+    // the connection frames are streamed over in PERSISTENT_STREAM mode, null
+    // until the client connects (or after it disconnects)
+    private Socket streamSocket;
+
+    private DataInputStream streamIn;
+
+    // ACCEPT_PER_FRAME carries no sequence number on the wire, so frames are
+    // numbered in the order they are accepted
+    private long nextLocalSequence = 0;
+
+    // only used to back getImageAsByteArray() in PERSISTENT_STREAM mode
+    private final EncodedFrame scratchFrame = new EncodedFrame(DEFAULT_FRAME_CAPACITY);
+
     public ArmVisionServer(int port) throws IOException {
+        this(port, VisionStreamMode.ACCEPT_PER_FRAME);
+    }
+
+    public ArmVisionServer(int port, VisionStreamMode mode) throws IOException {
         serverSocket = new ServerSocket(port);
-        //socket = serverSocket.accept(); ////
+        this.mode = mode;
+    }
+
+    public VisionStreamMode mode() {
+        return mode;
     }
 
     public byte[] getImageAsByteArray() throws IOException, InterruptedException {
-        
+
+        if (mode == VisionStreamMode.ACCEPT_PER_FRAME) {
             final Socket socket = serverSocket.accept();
             InputStream in = socket.getInputStream();
             byte[] bytes = ByteStreams.toByteArray(in);
             in.close();
-            
+
             return bytes;
-            
+        }
+
+        if (!receiveFrame(scratchFrame)) {
+            return new byte[0];
+        }
+        return scratchFrame.toByteArray();
+    }
+
+    /**
+     * Blocks until the next frame arrives and copies it into frame, reusing
+     * frame's backing array whenever it is large enough.
+     *
+     * In PERSISTENT_STREAM mode a dropped or corrupt connection is closed and
+     * the next connection from the client is waited for, so this only returns
+     * once a frame has actually been read.
+     *
+     * @param frame
+     *            the holder to fill; mutated.
+     * @return true if frame now holds a frame, false if the client sent an
+     *         empty frame (frame's contents are then unspecified).
+     * @throws IOException
+     *             if the server socket itself fails (for example after
+     *             close()).
+     */
+    public boolean receiveFrame(EncodedFrame frame) throws IOException {
+        if (mode == VisionStreamMode.PERSISTENT_STREAM) {
+            return receiveStreamedFrame(frame);
+        }
+        return receiveConnectionFrame(frame);
     }
-    
+
+    private boolean receiveConnectionFrame(EncodedFrame frame) throws IOException {
+        try (Socket socket = serverSocket.accept(); InputStream in = socket.getInputStream()) {
+            int length = 0;
+            while (true) {
+                if (length == frame.data().length) {
+                    frame.ensureCapacity(length + 1);
+                }
+                int read = in.read(frame.data(), length, frame.data().length - length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+            }
+            frame.set(length, nextLocalSequence++, System.currentTimeMillis(), System.nanoTime());
+            return length != 0;
+        }
+    }
+
+    private boolean receiveStreamedFrame(EncodedFrame frame) throws IOException {
+        while (true) {
+            if (streamIn == null) {
+                streamSocket = serverSocket.accept();
+                streamIn = new DataInputStream(new BufferedInputStream(streamSocket.getInputStream()));
+            }
+            try {
+                int length = streamIn.readInt();
+                long sequence = streamIn.readLong();
+                long captureTimeMillis = streamIn.readLong();
+                if (length < 0 || length > MAX_FRAME_BYTES) {
+                    throw new IOException("Corrupt frame header, length " + length);
+                }
+                frame.ensureCapacity(length);
+                streamIn.readFully(frame.data(), 0, length);
+                frame.set(length, sequence, captureTimeMillis, System.nanoTime());
+                return length != 0;
+            } catch (EOFException e) {
+                // the client disconnected; wait for it to come back
+                closeStream();
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) {
+                    throw e;
+                }
+                e.printStackTrace();
+                closeStream();
+            }
+        }
+    }
+
+    private void closeStream() {
+        try {
+            if (streamSocket != null) {
+                streamSocket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        streamSocket = null;
+        streamIn = null;
+    }
+
+    /**
+     * Stops accepting frames. A thread blocked in receiveFrame() will throw an
+     * IOException.
+     */
+    public void close() throws IOException {
+        serverSocket.close();
+        Socket socket = streamSocket;
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
 }
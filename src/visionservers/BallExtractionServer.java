@@ -1,49 +1,157 @@
 package visionservers;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.opencv.core.Mat;
 
 import ballutils.BallCollection;
+import detectionutils.BallDetector;
+import frameutils.Frame;
 import parsers.BallParser;
+import parsers.BinaryResultFormat;
+
+public class BallExtractionServer implements BallDetector {
 
-public class BallExtractionServer {
+    private static final int DEFAULT_MAX_IN_FLIGHT = 4;
 
-    private final ServerSocket serverSocket;
+    private final DetectorTransport transport;
 
     public BallExtractionServer(int port) throws IOException {
-        serverSocket = new ServerSocket(port);
+        this(port, DEFAULT_MAX_IN_FLIGHT, DetectorTransportMode.JPEG_SOCKET);
+    }
+
+    /**
+     * Workers may connect to port at any time; each frame goes to the least
+     * loaded one.
+     *
+     * @param maxInFlight
+     *            the most frames that may be sent to any one BallFinder.py worker
+     *            before its first reply comes back.
+     * @param mode
+     *            how frames are handed to the workers.
+     */
+    public BallExtractionServer(int port, int maxInFlight, DetectorTransportMode mode) throws IOException {
+        this(port, maxInFlight, mode, DetectorTransport.DEFAULT_REPLY_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Like BallExtractionServer(port, maxInFlight, mode), but a BallFinder.py worker that
+     * leaves a frame unanswered for replyTimeoutMillis is disconnected.
+     */
+    public BallExtractionServer(int port, int maxInFlight, DetectorTransportMode mode, long replyTimeoutMillis)
+            throws IOException {
+        transport = new DetectorTransport(port, maxInFlight, mode, replyTimeoutMillis);
     }
 
     public BallCollection extractBalls(byte[] image, int width, int height) throws IOException, InterruptedException {
+        return DetectorTransport.await(submitBalls(image, image.length, width, height));
+    }
+
+    /**
+     * Detects the balls in frame. Depending on the transport mode, the frame's
+     * original JPEG is sent to the detector as it is, or its decoded pixels
+     * are handed over in shared memory; either way nothing is encoded, and
+     * the detections line up with frame.image().
+     */
+    @Override
+    public BallCollection extractBalls(Frame frame) throws IOException, InterruptedException {
+        return DetectorTransport.await(submitBalls(frame));
+    }
+
+    /**
+     * Like extractBalls(frame), but returns as soon as the frame has been
+     * sent, so that several frames can be in flight to the detector at once.
+     * The frame may be released as soon as this returns.
+     *
+     * @return a future completed with the balls in frame, or completed
+     *         exceptionally with an IOException if the detector disconnects
+     *         before replying.
+     */
+    public CompletableFuture<BallCollection> submitBalls(Frame frame) throws IOException, InterruptedException {
+        int width = frame.width();
+        int height = frame.height();
+        return transport.submitFrame(frame, reply -> parseReply(reply, width, height), BallCollection::rotatedHalfTurn);
+    }
 
-        Socket socket = serverSocket.accept();
+    /**
+     * Detects the balls in image, which need not be a whole frame; see
+     * DetectorTransport.submitImage().
+     */
+    @Override
+    public BallCollection extractBalls(Mat image) throws IOException, InterruptedException {
+        int width = image.cols();
+        int height = image.rows();
+        return DetectorTransport.await(transport.submitImage(image, reply -> parseReply(reply, width, height)));
+    }
+
+    /**
+     * Like extractBalls(frame), but gives up at deadline, both while waiting
+     * for a worker with room and while waiting for its reply.
+     */
+    @Override
+    public BallCollection extractBalls(Frame frame, long deadline) throws IOException, InterruptedException {
+        return DetectorTransport.await(submitBalls(frame, deadline), deadline);
+    }
 
-        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        OutputStream out = socket.getOutputStream();
+    /**
+     * Like extractBalls(image), but gives up at deadline; see
+     * extractBalls(frame, deadline).
+     */
+    @Override
+    public BallCollection extractBalls(Mat image, long deadline) throws IOException, InterruptedException {
+        int width = image.cols();
+        int height = image.rows();
+        return DetectorTransport.await(transport.submitImage(image, reply -> parseReply(reply, width, height),
+                deadline), deadline);
+    }
 
-        out.write(image);
-        String line = in.readLine();
-        BallCollection balls = new BallCollection(new ArrayList<>());
-        if (line != null){
-        if (line.equals("[]")) {
-            balls = new BallCollection(new ArrayList<>());
-        } else {
-            balls = BallParser.parse(line, width, height);
+    /**
+     * Like submitBalls(frame), but waits no longer than deadline for a worker
+     * with room.
+     */
+    @Override
+    public CompletableFuture<BallCollection> submitBalls(Frame frame, long deadline)
+            throws IOException, InterruptedException {
+        int width = frame.width();
+        int height = frame.height();
+        return transport.submitFrame(frame, reply -> parseReply(reply, width, height), BallCollection::rotatedHalfTurn,
+                deadline);
+    }
 
+    private CompletableFuture<BallCollection> submitBalls(byte[] image, int length, int width, int height)
+            throws IOException, InterruptedException {
+        return transport.submit(DetectorRequestKind.JPEG_FRAME, image, 0, length).thenApply(reply -> parseReply(reply, width, height));
+    }
+
+    private static BallCollection parseReply(ByteBuffer reply, int width, int height) {
+        if (BinaryResultFormat.isBinary(reply)) {
+            return BallParser.parse(reply, width, height);
         }
+        // workers that still reply with strings
+        String line = new String(reply.array(), reply.arrayOffset() + reply.position(), reply.remaining(),
+                StandardCharsets.UTF_8);
+        if (line.isEmpty() || line.equals("[]")) {
+            return new BallCollection(new ArrayList<>());
         }
+        return BallParser.parse(line, width, height);
+    }
 
-        out.close();
-        in.close();
-
-        return balls;
+    /**
+     * @return the BallFinder.py workers currently connected, with their queue
+     *         depths and latencies.
+     */
+    public List<DetectorConnection> detectorWorkers() {
+        return transport.workers();
+    }
 
+    @Override
+    public void close() throws IOException {
+        transport.close();
     }
 
 }
-
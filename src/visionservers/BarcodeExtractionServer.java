@@ -1,55 +1,123 @@
 package visionservers;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import detectionutils.BarcodeDetector;
+import frameutils.Frame;
 import parsers.BarcodeParser;
+import parsers.BinaryResultFormat;
 import qrutils.QRCollection;
 
-public class BarcodeExtractionServer {
+public class BarcodeExtractionServer implements BarcodeDetector {
 
-    private final ServerSocket serverSocket;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 4;
 
-    // private final Socket socket;
-
-    // private final BufferedReader in;
-    // private final OutputStream out;
+    private final DetectorTransport transport;
 
     public BarcodeExtractionServer(int port) throws IOException {
-        serverSocket = new ServerSocket(port);
-        // socket = serverSocket.accept();////
-        // in = new BufferedReader(new
-        // InputStreamReader(socket.getInputStream()));
-        // out = socket.getOutputStream();
+        this(port, DEFAULT_MAX_IN_FLIGHT, DetectorTransportMode.JPEG_SOCKET);
+    }
+
+    /**
+     * Workers may connect to port at any time; each frame goes to the least
+     * loaded one.
+     *
+     * @param maxInFlight
+     *            the most frames that may be sent to any one BarcodeFinder.py worker
+     *            before its first reply comes back.
+     * @param mode
+     *            how frames are handed to the workers.
+     */
+    public BarcodeExtractionServer(int port, int maxInFlight, DetectorTransportMode mode) throws IOException {
+        this(port, maxInFlight, mode, DetectorTransport.DEFAULT_REPLY_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Like BarcodeExtractionServer(port, maxInFlight, mode), but a BarcodeFinder.py worker that
+     * leaves a frame unanswered for replyTimeoutMillis is disconnected.
+     */
+    public BarcodeExtractionServer(int port, int maxInFlight, DetectorTransportMode mode, long replyTimeoutMillis)
+            throws IOException {
+        transport = new DetectorTransport(port, maxInFlight, mode, replyTimeoutMillis);
     }
 
     public QRCollection extractBarcodes(byte[] image, int width, int height) throws IOException, InterruptedException {
+        return DetectorTransport.await(submitBarcodes(image, image.length, width, height));
+    }
 
-        Socket socket = serverSocket.accept();
+    /**
+     * Detects the barcodes in frame. Depending on the transport mode, the
+     * frame's original JPEG is sent to the detector as it is, or its decoded
+     * pixels are handed over in shared memory; either way nothing is encoded,
+     * and the detections line up with frame.image().
+     */
+    @Override
+    public QRCollection extractBarcodes(Frame frame) throws IOException, InterruptedException {
+        return DetectorTransport.await(submitBarcodes(frame));
+    }
 
-        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        OutputStream out = socket.getOutputStream();
+    /**
+     * Like extractBarcodes(frame), but returns as soon as the frame has been
+     * sent, so that several frames can be in flight to the detector at once.
+     * The frame may be released as soon as this returns.
+     *
+     * @return a future completed with the barcodes in frame, or completed
+     *         exceptionally with an IOException if the detector disconnects
+     *         before replying.
+     */
+    public CompletableFuture<QRCollection> submitBarcodes(Frame frame) throws IOException, InterruptedException {
+        int width = frame.width();
+        int height = frame.height();
+        return transport.submitFrame(frame, reply -> parseReply(reply, width, height), QRCollection::rotatedHalfTurn);
+    }
 
-        out.write(image);
-        String line = in.readLine();
-        QRCollection barcodes;
-        if (line.equals("[]")) {
-            barcodes = new QRCollection(new ArrayList<>());
-        } else {
-            barcodes = BarcodeParser.parse(line, width, height);
+    /**
+     * Like submitBarcodes(frame), but waits no longer than deadline for a
+     * worker with room.
+     */
+    @Override
+    public CompletableFuture<QRCollection> submitBarcodes(Frame frame, long deadline)
+            throws IOException, InterruptedException {
+        int width = frame.width();
+        int height = frame.height();
+        return transport.submitFrame(frame, reply -> parseReply(reply, width, height), QRCollection::rotatedHalfTurn,
+                deadline);
+    }
 
-        }
+    private CompletableFuture<QRCollection> submitBarcodes(byte[] image, int length, int width, int height)
+            throws IOException, InterruptedException {
+        return transport.submit(DetectorRequestKind.JPEG_FRAME, image, 0, length).thenApply(reply -> parseReply(reply, width, height));
+    }
 
-        out.close();
-        in.close();
+    private static QRCollection parseReply(ByteBuffer reply, int width, int height) {
+        if (BinaryResultFormat.isBinary(reply)) {
+            return BarcodeParser.parse(reply, width, height);
+        }
+        // workers that still reply with strings
+        String line = new String(reply.array(), reply.arrayOffset() + reply.position(), reply.remaining(),
+                StandardCharsets.UTF_8);
+        if (line.isEmpty() || line.equals("[]")) {
+            return new QRCollection(new ArrayList<>());
+        }
+        return BarcodeParser.parse(line, width, height);
+    }
 
-        return barcodes;
+    /**
+     * @return the BarcodeFinder.py workers currently connected, with their queue
+     *         depths and latencies.
+     */
+    public List<DetectorConnection> detectorWorkers() {
+        return transport.workers();
+    }
 
+    @Override
+    public void close() throws IOException {
+        transport.close();
     }
 
 }
@@ -0,0 +1,366 @@
+package visionservers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *
+ * @author trist
+ *
+ *         One persistent connection to a detector worker process (such as
+ *         BallFinder.py). Requests are pipelined: up to maxInFlight of them may
+ *         be sent before the first reply comes back, so the network transfer
+ *         of the next frame overlaps with detection of the current one.
+ *
+ *         Requests are framed as
+ *
+ *         <pre>
+ *         int requestId   (big-endian)
+ *         int length      (big-endian)
+ *         byte kind       (a DetectorRequestKind ordinal)
+ *         byte[length]    payload
+ *         </pre>
+ *
+ *         and replies as the same without the kind byte. A reply carries the
+ *         id of the request it answers, so replies are matched by id rather
+ *         than by arrival order.
+ *
+ *         A caller that must not block on a busy worker can tryReserve() a
+ *         place in flight first and then submitReserved() into it.
+ *
+ *         A worker that stays connected but stops answering would otherwise
+ *         hold its requests forever, so a connection may be given a reply
+ *         timeout: once any request has waited that long, the connection is
+ *         closed, failing everything pending on it.
+ */
+public class DetectorConnection {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents a connection over which the requests whose ids are keys of
+     * pending have been sent and not yet answered.
+     *
+     * Rep invariants:
+     *
+     * pending.size() + reservations + inFlight.availablePermits() ==
+     * maxInFlight while the connection is open, where reservations is the
+     * number of places taken by tryReserve() and not yet used or given back.
+     * Once closed, pending is empty and every future that was in it has
+     * completed exceptionally.
+     *
+     * Thread safety arguments:
+     *
+     * Requests are written under the lock on out, so frames from different
+     * threads never interleave. Replies are read by a single reader thread.
+     * pending is a concurrent map and closed is atomic; close() never takes
+     * the lock on out, so it cannot be held up by a blocked write (closing
+     * the socket unblocks it). onRelease is threadsafe. Reply timeouts are
+     * checked on the shared TIMEOUTS thread, which only reads pending and
+     * calls close().
+     */
+
+    /** Replies larger than this are treated as a corrupt stream. */
+    private static final int MAX_REPLY_BYTES = 16 * 1024 * 1024;
+
+    private static final double LATENCY_SMOOTHING = .1;
+
+    // how many times per reply timeout the pending requests are checked
+    private static final int TIMEOUT_CHECKS = 4;
+
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "detector-reply-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Socket socket;
+
+    private final DataOutputStream out;
+
+    private final DataInputStream in;
+
+    private final int maxInFlight;
+
+    private final Semaphore inFlight;
+
+    // run whenever a place in flight is given back
+    private final Runnable onRelease;
+
+    // 0 if requests may wait for replies forever
+    private final long replyTimeoutNanos;
+
+    // null unless there is a reply timeout
+    private final ScheduledFuture<?> timeoutCheck;
+
+    private final Map<Integer, PendingRequest> pending = new ConcurrentHashMap<>();
+
+    // only written by the reply reader thread
+    private volatile long repliesReceived = 0;
+
+    private volatile double meanLatencyNanos = 0;
+
+    private int nextRequestId = 0;
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /**
+     * Starts a daemon thread that reads replies from socket.
+     *
+     * @param socket
+     *            a connected socket to a detector worker.
+     * @param maxInFlight
+     *            the most requests that may be awaiting replies at once.
+     */
+    public DetectorConnection(Socket socket, int maxInFlight) throws IOException {
+        this(socket, maxInFlight, 0, () -> {
+        });
+    }
+
+    /**
+     * Like DetectorConnection(socket, maxInFlight), but closes the connection
+     * if a request goes unanswered for replyTimeoutMillis, and runs onRelease
+     * whenever a request is answered or fails, or a reservation is given
+     * back, so that a caller waiting for a worker with room can be woken.
+     *
+     * @param replyTimeoutMillis
+     *            how long a request may wait for its reply, or 0 for ever.
+     * @param onRelease
+     *            must be threadsafe and must not block; it is run on the
+     *            reply reader thread among others.
+     */
+    public DetectorConnection(Socket socket, int maxInFlight, long replyTimeoutMillis, Runnable onRelease)
+            throws IOException {
+        this.socket = socket;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.onRelease = onRelease;
+        this.replyTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(replyTimeoutMillis);
+        socket.setTcpNoDelay(true);
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        Thread replyReader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readReplies();
+            }
+        }, "detector-replies-" + socket.getPort());
+        replyReader.setDaemon(true);
+        replyReader.start();
+
+        if (replyTimeoutNanos > 0) {
+            long interval = Math.max(1, replyTimeoutNanos / TIMEOUT_CHECKS);
+            timeoutCheck = TIMEOUTS.scheduleAtFixedRate(this::expireReplies, interval, interval,
+                    TimeUnit.NANOSECONDS);
+        } else {
+            timeoutCheck = null;
+        }
+    }
+
+    /**
+     * Sends a payload of the given kind to the worker. Blocks while
+     * maxInFlight requests are already awaiting replies; returns as soon as
+     * the payload has been written, so payload may be reused right away.
+     *
+     * @return a future completed with the reply payload, or completed
+     *         exceptionally with an IOException if the connection is lost
+     *         before the reply arrives.
+     * @throws IOException
+     *             if the connection is already closed or the write fails.
+     */
+    public CompletableFuture<ByteBuffer> submit(DetectorRequestKind kind, byte[] payload, int offset, int length)
+            throws IOException, InterruptedException {
+        inFlight.acquire();
+        return submitReserved(kind, payload, offset, length);
+    }
+
+    /**
+     * Takes a place in flight without waiting, to be used by one
+     * submitReserved() or given back by cancelReservation().
+     *
+     * @return whether there was a place free.
+     */
+    public boolean tryReserve() {
+        return inFlight.tryAcquire();
+    }
+
+    /**
+     * Gives back a place taken by tryReserve() without sending anything.
+     */
+    public void cancelReservation() {
+        release();
+    }
+
+    /**
+     * Like submit(), but into a place already taken by tryReserve(), so it
+     * never waits for one. If this throws, the place has been given back.
+     */
+    public CompletableFuture<ByteBuffer> submitReserved(DetectorRequestKind kind, byte[] payload, int offset,
+            int length) throws IOException {
+        CompletableFuture<ByteBuffer> reply = new CompletableFuture<>();
+        synchronized (out) {
+            int requestId = nextRequestId++;
+            pending.put(requestId, new PendingRequest(reply, System.nanoTime()));
+            // checked after the put so that a concurrent close() either sees
+            // reply in pending or is seen here
+            if (closed.get()) {
+                if (pending.remove(requestId) != null) {
+                    release();
+                }
+                throw new IOException("Detector connection closed");
+            }
+            try {
+                out.writeInt(requestId);
+                out.writeInt(length);
+                out.writeByte(kind.ordinal());
+                out.write(payload, offset, length);
+                out.flush();
+            } catch (IOException e) {
+                // fails reply (and everything else pending) too
+                close(e);
+                throw e;
+            }
+        }
+        return reply;
+    }
+
+    /**
+     * @return the number of requests sent and not yet answered.
+     */
+    public int requestsInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * @return the number of replies received over this connection.
+     */
+    public long repliesReceived() {
+        return repliesReceived;
+    }
+
+    /**
+     * @return the recent mean time from sending a request to receiving its
+     *         reply, in milliseconds.
+     */
+    public double meanLatencyMillis() {
+        return meanLatencyNanos / 1e6;
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Closes the connection. Requests still awaiting replies fail.
+     */
+    public void close() {
+        close(new IOException("Detector connection closed"));
+    }
+
+    private void readReplies() {
+        try {
+            while (true) {
+                int requestId = in.readInt();
+                int length = in.readInt();
+                if (length < 0 || length > MAX_REPLY_BYTES) {
+                    throw new IOException("Corrupt detector reply, length " + length);
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+
+                PendingRequest request = pending.remove(requestId);
+                if (request == null) {
+                    throw new IOException("Detector replied to unknown request " + requestId);
+                }
+                recordLatency(System.nanoTime() - request.sentNanos);
+                release();
+                request.reply.complete(ByteBuffer.wrap(payload));
+            }
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    private void close(IOException cause) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (timeoutCheck != null) {
+            timeoutCheck.cancel(false);
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (Integer requestId : pending.keySet()) {
+            PendingRequest request = pending.remove(requestId);
+            if (request != null) {
+                release();
+                request.reply.completeExceptionally(cause);
+            }
+        }
+        // wakes callers waiting for this worker, so that they see it closed
+        onRelease.run();
+    }
+
+    private void release() {
+        inFlight.release();
+        onRelease.run();
+    }
+
+    /**
+     * Closes the connection if any request has waited longer than the reply
+     * timeout.
+     */
+    private void expireReplies() {
+        long now = System.nanoTime();
+        for (PendingRequest request : pending.values()) {
+            if (now - request.sentNanos > replyTimeoutNanos) {
+                close(new IOException("Detector worker did not reply within "
+                        + TimeUnit.NANOSECONDS.toMillis(replyTimeoutNanos) + " ms"));
+                return;
+            }
+        }
+    }
+
+    private void recordLatency(long latencyNanos) {
+        long replies = repliesReceived + 1;
+        // a running mean for the first few replies, then an exponentially
+        // weighted one so that it follows changes in the worker's load
+        double weight = Math.max(1.0 / replies, LATENCY_SMOOTHING);
+        meanLatencyNanos += weight * (latencyNanos - meanLatencyNanos);
+        repliesReceived = replies;
+    }
+
+    @Override
+    public String toString() {
+        return "(" + socket.getRemoteSocketAddress() + ", in flight " + requestsInFlight() + ", replies "
+                + repliesReceived() + ", mean latency " + String.format("%.2f", meanLatencyMillis()) + " ms)";
+    }
+
+    private static class PendingRequest {
+        private final CompletableFuture<ByteBuffer> reply;
+        private final long sentNanos;
+
+        private PendingRequest(CompletableFuture<ByteBuffer> reply, long sentNanos) {
+            this.reply = reply;
+            this.sentNanos = sentNanos;
+        }
+    }
+}
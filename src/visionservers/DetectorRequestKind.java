@@ -0,0 +1,18 @@
+package visionservers;
+
+/**
+ * What the payload of a request to a detector worker holds. Sent as one byte
+ * (the ordinal) after the request header, see DetectorConnection.
+ */
+public enum DetectorRequestKind {
+    /**
+     * The payload is a JPEG image.
+     */
+    JPEG_FRAME,
+    /**
+     * The payload is an int slot index followed by a long sequence number
+     * (both big-endian) naming a raw BGR frame in the worker's
+     * SharedFrameRing.
+     */
+    SHARED_FRAME
+}
@@ -0,0 +1,484 @@
+package visionservers;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import frameutils.Frame;
+
+/**
+ *
+ * @author trist
+ *
+ *         The server end of the link to a pool of detector worker processes,
+ *         shared by BallExtractionServer and BarcodeExtractionServer. Any
+ *         number of workers (for example several copies of BallFinder.py) may
+ *         connect to the port, at any time; each keeps its connection open
+ *         (see DetectorConnection for the framing) and leaves the pool when
+ *         its connection drops.
+ *
+ *         Every request goes to the worker with the fewest requests in flight,
+ *         so a slow worker gets less work, and a worker with
+ *         maxInFlightPerWorker requests awaiting replies gets none until it
+ *         answers one. Replies may arrive from different workers in any
+ *         order, but the futures returned by submit() complete in the order
+ *         the requests were submitted. So that a worker that stays connected
+ *         but stops answering cannot hold up the futures behind its requests
+ *         for ever, a request left unanswered for the reply timeout
+ *         disconnects its worker, failing the requests it held.
+ */
+public class DetectorTransport {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents the set of connected workers in workers, and the chain of
+     * submitted requests whose last link is lastInOrder.
+     *
+     * Rep invariants:
+     *
+     * workers only holds connections that were open when added; closed ones
+     * are removed the next time a request is dispatched.
+     *
+     * Thread safety arguments:
+     *
+     * workers is a copy-on-write list. Choosing a worker and reserving a
+     * place in its flight happen under the monitor of workers, which is also
+     * what callers wait on for a worker to join or to answer a request; the
+     * write itself happens without any of the transport's locks, so one busy
+     * or hung worker cannot hold up writes to the others (though the futures
+     * chained behind its requests wait for it, for the reply timeout at
+     * most). lastInOrder is guarded by orderLock, which is only held to chain
+     * a future or to drop the chain on close().
+     * DetectorConnection is threadsafe.
+     */
+
+    // frames in flight to all workers are bounded by the per-worker limit
+    // times the workers connected, so this leaves room for a few workers
+    private static final int DEFAULT_RING_SLOTS = 12;
+
+    // a 1280x720 BGR frame
+    private static final int DEFAULT_RING_SLOT_BYTES = 1280 * 720 * 3;
+
+    // a worker takes tens of milliseconds a frame, so one that has not
+    // answered in this long is stuck
+    public static final long DEFAULT_REPLY_TIMEOUT_MILLIS = 2000;
+
+    private final ServerSocket serverSocket;
+
+    private final int maxInFlightPerWorker;
+
+    private final long replyTimeoutMillis;
+
+    // null unless frames are handed over in shared memory
+    private final SharedFrameRing ring;
+
+    private final List<DetectorConnection> workers = new CopyOnWriteArrayList<>();
+
+    private final Object orderLock = new Object();
+
+    private CompletableFuture<?> lastInOrder = CompletableFuture.completedFuture(null);
+
+    /**
+     * Starts a daemon thread that accepts workers on port.
+     *
+     * @param port
+     *            the port workers connect to.
+     * @param maxInFlightPerWorker
+     *            the most requests that may be awaiting replies from any one
+     *            worker.
+     */
+    public DetectorTransport(int port, int maxInFlightPerWorker) throws IOException {
+        this(port, maxInFlightPerWorker, DetectorTransportMode.JPEG_SOCKET);
+    }
+
+    /**
+     * Starts a daemon thread that accepts workers on port.
+     *
+     * @param port
+     *            the port workers connect to.
+     * @param maxInFlightPerWorker
+     *            the most requests that may be awaiting replies from any one
+     *            worker.
+     * @param mode
+     *            how submitFrame() hands frames to the workers. In
+     *            SHARED_MEMORY mode the ring is created at
+     *            SharedFrameRing.defaultPath(port).
+     */
+    public DetectorTransport(int port, int maxInFlightPerWorker, DetectorTransportMode mode) throws IOException {
+        this(port, maxInFlightPerWorker, mode, DEFAULT_REPLY_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Like DetectorTransport(port, maxInFlightPerWorker, mode), with the
+     * reply timeout.
+     *
+     * @param replyTimeoutMillis
+     *            how long a worker may leave a request unanswered before it is
+     *            disconnected; must be positive.
+     */
+    public DetectorTransport(int port, int maxInFlightPerWorker, DetectorTransportMode mode,
+            long replyTimeoutMillis) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        this.maxInFlightPerWorker = maxInFlightPerWorker;
+        this.replyTimeoutMillis = replyTimeoutMillis;
+        this.ring = mode == DetectorTransportMode.SHARED_MEMORY
+                ? new SharedFrameRing(SharedFrameRing.defaultPath(port), DEFAULT_RING_SLOTS, DEFAULT_RING_SLOT_BYTES)
+                : null;
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptWorkers();
+            }
+        }, "detector-acceptor-" + port);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Sends a request to the least loaded worker, first waiting for a worker
+     * to join if there is none. Blocks while every worker has
+     * maxInFlightPerWorker requests awaiting replies.
+     *
+     * @return a future completed with the reply payload, but never before the
+     *         futures of all requests submitted before it have completed. It
+     *         completes exceptionally with an IOException if its worker leaves
+     *         before replying.
+     * @throws IOException
+     *             if the transport is closed or the write fails.
+     */
+    public CompletableFuture<ByteBuffer> submit(DetectorRequestKind kind, byte[] payload, int offset, int length)
+            throws IOException, InterruptedException {
+        return submit(kind, payload, offset, length, false, 0);
+    }
+
+    /**
+     * Like submit(kind, payload, offset, length), but gives up once
+     * System.nanoTime() passes deadline instead of waiting for a worker to
+     * join or to have room, and right away if no worker is connected.
+     *
+     * @return as submit(kind, payload, offset, length), or a future already
+     *         completed exceptionally with a TimeoutException if no worker
+     *         could take the request in time.
+     */
+    public CompletableFuture<ByteBuffer> submit(DetectorRequestKind kind, byte[] payload, int offset, int length,
+            long deadline) throws IOException, InterruptedException {
+        return submit(kind, payload, offset, length, true, deadline);
+    }
+
+    private CompletableFuture<ByteBuffer> submit(DetectorRequestKind kind, byte[] payload, int offset, int length,
+            boolean timed, long deadline) throws IOException, InterruptedException {
+        CompletableFuture<ByteBuffer> reply = dispatch(kind, payload, offset, length, timed, deadline);
+        if (reply == null) {
+            // never sent, so there is nothing to wait for
+            CompletableFuture<ByteBuffer> missed = new CompletableFuture<>();
+            missed.completeExceptionally(new TimeoutException("No detector worker could take the request in time"));
+            return missed;
+        }
+        synchronized (orderLock) {
+            CompletableFuture<ByteBuffer> inOrder = lastInOrder.handle((ignored, failure) -> null)
+                    .thenCompose(ignored -> reply);
+            lastInOrder = inOrder;
+            return inOrder;
+        }
+    }
+
+    /**
+     * Sends frame to the least loaded worker, either as its original JPEG or
+     * through the shared frame ring, depending on the transport mode. See
+     * submit(). frame may be released as soon as this returns.
+     *
+     * @param parser
+     *            turns a reply into a result, for the image the worker saw.
+     * @param rotateHalfTurn
+     *            turns a result for the camera's JPEG (which is rotated half a
+     *            turn relative to frame.image()) into one for frame.image().
+     * @return a future completed with the worker's result for frame.image().
+     */
+    public <T> CompletableFuture<T> submitFrame(Frame frame, Function<ByteBuffer, T> parser,
+            UnaryOperator<T> rotateHalfTurn) throws IOException, InterruptedException {
+        return submitFrame(frame, parser, rotateHalfTurn, false, 0);
+    }
+
+    /**
+     * Like submitFrame(frame, parser, rotateHalfTurn), but gives up at
+     * deadline; see submit(kind, payload, offset, length, deadline).
+     */
+    public <T> CompletableFuture<T> submitFrame(Frame frame, Function<ByteBuffer, T> parser,
+            UnaryOperator<T> rotateHalfTurn, long deadline) throws IOException, InterruptedException {
+        return submitFrame(frame, parser, rotateHalfTurn, true, deadline);
+    }
+
+    private <T> CompletableFuture<T> submitFrame(Frame frame, Function<ByteBuffer, T> parser,
+            UnaryOperator<T> rotateHalfTurn, boolean timed, long deadline) throws IOException, InterruptedException {
+        CompletableFuture<T> shared = submitShared(frame.image(), parser, timed, deadline);
+        if (shared != null) {
+            return shared;
+        }
+        return submit(DetectorRequestKind.JPEG_FRAME, frame.encodedData(), 0, frame.encodedLength(), timed, deadline)
+                .thenApply(parser).thenApply(rotateHalfTurn);
+    }
+
+    /**
+     * Sends image, which need not be a whole frame (a region of one, for
+     * example), to the least loaded worker. See submit(). In JPEG_SOCKET mode,
+     * or when every shared slot is in use, image is JPEG-encoded first.
+     * image may be reused as soon as this returns.
+     *
+     * @param parser
+     *            turns a reply into a result for image.
+     * @return a future completed with the worker's result for image.
+     */
+    public <T> CompletableFuture<T> submitImage(Mat image, Function<ByteBuffer, T> parser)
+            throws IOException, InterruptedException {
+        return submitImage(image, parser, false, 0);
+    }
+
+    /**
+     * Like submitImage(image, parser), but gives up at deadline; see
+     * submit(kind, payload, offset, length, deadline).
+     */
+    public <T> CompletableFuture<T> submitImage(Mat image, Function<ByteBuffer, T> parser, long deadline)
+            throws IOException, InterruptedException {
+        return submitImage(image, parser, true, deadline);
+    }
+
+    private <T> CompletableFuture<T> submitImage(Mat image, Function<ByteBuffer, T> parser, boolean timed,
+            long deadline) throws IOException, InterruptedException {
+        CompletableFuture<T> shared = submitShared(image, parser, timed, deadline);
+        if (shared != null) {
+            return shared;
+        }
+        MatOfByte encoded = new MatOfByte();
+        try {
+            Imgcodecs.imencode(".jpg", image, encoded);
+            byte[] jpeg = encoded.toArray();
+            return submit(DetectorRequestKind.JPEG_FRAME, jpeg, 0, jpeg.length, timed, deadline).thenApply(parser);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    /**
+     * @return a future for image handed over in the shared frame ring, or
+     *         null if there is no ring or every slot is in use.
+     */
+    private <T> CompletableFuture<T> submitShared(Mat image, Function<ByteBuffer, T> parser, boolean timed,
+            long deadline) throws IOException, InterruptedException {
+        if (ring == null) {
+            return null;
+        }
+        int slot = ring.write(image);
+        if (slot < 0) {
+            return null;
+        }
+        CompletableFuture<ByteBuffer> reply;
+        try {
+            reply = submit(DetectorRequestKind.SHARED_FRAME, ring.request(slot), 0, SharedFrameRing.REQUEST_BYTES,
+                    timed, deadline);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            ring.free(slot);
+            throw e;
+        }
+        // the worker is done with the slot once it has replied, or has left
+        // (or was never sent it)
+        reply.whenComplete((ignored, failure) -> ring.free(slot));
+        return reply.thenApply(parser);
+    }
+
+    /**
+     * @return the reply to the request, or null if timed and no worker could
+     *         take it by deadline.
+     */
+    private CompletableFuture<ByteBuffer> dispatch(DetectorRequestKind kind, byte[] payload, int offset,
+            int length, boolean timed, long deadline) throws IOException, InterruptedException {
+        while (true) {
+            DetectorConnection worker = reserveWorker(timed, deadline);
+            if (worker == null) {
+                return null;
+            }
+            try {
+                return worker.submitReserved(kind, payload, offset, length);
+            } catch (IOException e) {
+                if (!worker.isClosed()) {
+                    throw e;
+                }
+                // the worker left between being picked and being written to;
+                // try the next one
+            }
+        }
+    }
+
+    /**
+     * @return the least loaded worker with a place in flight free, having
+     *         reserved that place; waits for a worker to join or to answer a
+     *         request while there is none. If timed, gives up and returns
+     *         null at deadline, or right away if no worker is connected.
+     */
+    private DetectorConnection reserveWorker(boolean timed, long deadline)
+            throws IOException, InterruptedException {
+        synchronized (workers) {
+            while (true) {
+                if (serverSocket.isClosed()) {
+                    throw new IOException("Detector transport closed");
+                }
+                DetectorConnection best = leastLoadedWorker();
+                if (best == null) {
+                    if (!timed) {
+                        workers.wait();
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || workers.isEmpty()) {
+                        return null;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(workers, remaining);
+                } else if (best.tryReserve()) {
+                    return best;
+                }
+                // otherwise another caller took the place first; look again
+            }
+        }
+    }
+
+    /**
+     * @return the open worker with the fewest requests in flight (of those
+     *         with fewer than maxInFlightPerWorker), or null if there is none.
+     *         Must be called holding the monitor of workers.
+     */
+    private DetectorConnection leastLoadedWorker() {
+        DetectorConnection best = null;
+        for (DetectorConnection worker : workers) {
+            if (worker.isClosed()) {
+                workers.remove(worker);
+            } else if (worker.requestsInFlight() < maxInFlightPerWorker && (best == null
+                    || worker.requestsInFlight() < best.requestsInFlight()
+                    || (worker.requestsInFlight() == best.requestsInFlight()
+                            && worker.meanLatencyMillis() < best.meanLatencyMillis()))) {
+                best = worker;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Wakes callers waiting in reserveWorker(), as a worker has answered or
+     * left.
+     */
+    private void workerReleased() {
+        synchronized (workers) {
+            workers.notifyAll();
+        }
+    }
+
+    private void acceptWorkers() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                DetectorConnection worker = new DetectorConnection(socket, maxInFlightPerWorker,
+                        replyTimeoutMillis, this::workerReleased);
+                synchronized (workers) {
+                    workers.add(worker);
+                    workers.notifyAll();
+                }
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of the connected workers, each of which reports its
+     *         queue depth (requestsInFlight()) and latency.
+     */
+    public List<DetectorConnection> workers() {
+        List<DetectorConnection> connected = new ArrayList<>();
+        for (DetectorConnection worker : workers) {
+            if (!worker.isClosed()) {
+                connected.add(worker);
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * Stops accepting workers, disconnects the current ones (failing the
+     * requests still awaiting replies), drops the chain of in-order futures
+     * and deletes the shared frame ring, if there is one.
+     */
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (workers) {
+            for (DetectorConnection worker : workers) {
+                worker.close();
+            }
+            workers.clear();
+            workers.notifyAll();
+        }
+        synchronized (orderLock) {
+            lastInOrder = CompletableFuture.completedFuture(null);
+        }
+        if (ring != null) {
+            ring.close();
+        }
+    }
+
+    /**
+     * Waits for a reply future, unwrapping the IOException it failed with.
+     */
+    public static <T> T await(CompletableFuture<T> reply) throws IOException, InterruptedException {
+        try {
+            return reply.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Like await(reply), but waits no longer than deadline.
+     *
+     * @return the reply, or null if it did not come by deadline (in which
+     *         case it is cancelled) or its request could not be sent in time.
+     */
+    public static <T> T await(CompletableFuture<T> reply, long deadline) throws IOException, InterruptedException {
+        try {
+            return reply.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            reply.cancel(true);
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                return null;
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return workers().toString();
+    }
+}
@@ -0,0 +1,18 @@
+package visionservers;
+
+/**
+ * How frames are handed to detector workers.
+ */
+public enum DetectorTransportMode {
+    /**
+     * The camera's JPEG is sent over the worker's socket, and the worker
+     * decodes it. Works for workers on any host.
+     */
+    JPEG_SOCKET,
+    /**
+     * The decoded frame is written raw into a SharedFrameRing and only its
+     * slot index goes over the socket. Workers must run on the same host.
+     * Falls back to JPEG_SOCKET for a frame when every slot is in use.
+     */
+    SHARED_MEMORY
+}
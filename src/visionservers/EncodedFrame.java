@@ -0,0 +1,108 @@
+package visionservers;
+
+import java.util.Arrays;
+
+/**
+ *
+ * @author trist
+ *
+ *         A reusable holder for one encoded (JPEG) frame received from the
+ *         camera client on the arm, along with the sequence number and capture
+ *         timestamp that came with it.
+ *
+ *         The backing array only ever grows, so a holder that is refilled for
+ *         every frame stops allocating once it has seen the largest frame of
+ *         the stream.
+ */
+public class EncodedFrame {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents the frame made of the first length bytes of data, the
+     * sequence-th frame sent by the camera client, captured at
+     * captureTimeMillis (the client's clock) and received at receiveTimeNanos
+     * (this JVM's System.nanoTime clock).
+     *
+     * Rep invariants:
+     *
+     * 0 <= length <= data.length
+     *
+     * Thread safety arguments:
+     *
+     * Not threadsafe. A holder is filled by one thread and must be handed off
+     * to another thread through a threadsafe datatype.
+     */
+
+    private byte[] data;
+
+    private int length;
+
+    private long sequence;
+
+    private long captureTimeMillis;
+
+    private long receiveTimeNanos;
+
+    /**
+     * @param initialCapacity
+     *            the number of bytes to reserve up front; should be about the
+     *            size of the largest expected frame.
+     */
+    public EncodedFrame(int initialCapacity) {
+        this.data = new byte[initialCapacity];
+    }
+
+    /**
+     * @return the backing array. Only the first length() bytes belong to the
+     *         frame; the rest is left over from earlier frames.
+     */
+    public byte[] data() {
+        return data;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public long sequence() {
+        return sequence;
+    }
+
+    public long captureTimeMillis() {
+        return captureTimeMillis;
+    }
+
+    public long receiveTimeNanos() {
+        return receiveTimeNanos;
+    }
+
+    /**
+     * @return a copy of the frame's bytes, exactly length() long.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(data, length);
+    }
+
+    /**
+     * Makes sure the backing array can hold at least capacity bytes, keeping
+     * whatever bytes it already holds.
+     */
+    void ensureCapacity(int capacity) {
+        if (data.length < capacity) {
+            data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+        }
+    }
+
+    void set(int length, long sequence, long captureTimeMillis, long receiveTimeNanos) {
+        this.length = length;
+        this.sequence = sequence;
+        this.captureTimeMillis = captureTimeMillis;
+        this.receiveTimeNanos = receiveTimeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "(" + sequence + "," + length + "," + captureTimeMillis + ")";
+    }
+}
@@ -0,0 +1,237 @@
+package visionservers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+
+/**
+ *
+ * @author trist
+ *
+ *         A ring of frame slots in a memory-mapped file (under /dev/shm where
+ *         there is one) that detector workers on the same host read raw BGR
+ *         frames from in place. Only the slot index and a sequence number go
+ *         over the worker's socket (see DetectorRequestKind.SHARED_FRAME), so
+ *         frames are neither JPEG-encoded nor copied through the kernel's
+ *         socket buffers.
+ *
+ *         File layout, all big-endian:
+ *
+ *         <pre>
+ *         header, HEADER_BYTES long:
+ *             int magic, int version, int slotCount, int slotBytes
+ *         slotCount slots, each SLOT_HEADER_BYTES + slotBytes long:
+ *             long sequence, int width, int height, int channels, int length
+ *             length bytes of pixels (rows of width * channels bytes)
+ *         </pre>
+ *
+ *         A worker must check that the sequence in the slot header matches
+ *         the one in its request. The file is deleted by close().
+ */
+public class SharedFrameRing {
+
+    /*
+     * Abstraction function:
+     *
+     * Represents slotCount frame slots, of which those with busy[slot] == 1
+     * hold a frame that a worker may still be reading.
+     *
+     * Rep invariants:
+     *
+     * slots[slot] is the slot-th region of the mapped file, starting after
+     * the header. staging[slot], once allocated, is at least as long as the
+     * last frame written to the slot. requests[slot] names the frame last
+     * written to the slot.
+     *
+     * Thread safety arguments:
+     *
+     * A slot is claimed with compare-and-set on busy, and a slot's buffer,
+     * staging array and request are only touched by the thread that claimed
+     * it, until free(). Each slot has its own ByteBuffer view, so position
+     * changes never race. Counters are atomic.
+     */
+
+    public static final int MAGIC = 0x414D4652;
+
+    public static final int VERSION = 1;
+
+    public static final int HEADER_BYTES = 64;
+
+    public static final int SLOT_HEADER_BYTES = 32;
+
+    /** The length of a DetectorRequestKind.SHARED_FRAME payload. */
+    public static final int REQUEST_BYTES = 12;
+
+    private final MappedByteBuffer file;
+
+    private final ByteBuffer[] slots;
+
+    private final byte[][] staging;
+
+    private final byte[][] requests;
+
+    private final File path;
+
+    private final int slotBytes;
+
+    private final AtomicIntegerArray busy;
+
+    private final AtomicInteger nextSlot = new AtomicInteger();
+
+    private final AtomicLong nextSequence = new AtomicLong(1);
+
+    /**
+     * Creates (or overwrites) the ring file at path and maps it.
+     *
+     * @param slotCount
+     *            should be more than the number of frames that can be in
+     *            flight to all workers at once.
+     * @param slotBytes
+     *            the largest frame (width * height * channels) a slot can
+     *            hold.
+     */
+    public SharedFrameRing(String path, int slotCount, int slotBytes) throws IOException {
+        this.slotBytes = slotBytes;
+        this.busy = new AtomicIntegerArray(slotCount);
+        this.slots = new ByteBuffer[slotCount];
+        this.staging = new byte[slotCount][];
+        this.requests = new byte[slotCount][REQUEST_BYTES];
+        this.path = new File(path);
+
+        long size = HEADER_BYTES + (long) slotCount * (SLOT_HEADER_BYTES + slotBytes);
+        try (RandomAccessFile ringFile = new RandomAccessFile(path, "rw")) {
+            ringFile.setLength(size);
+            file = ringFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        file.putInt(0, MAGIC);
+        file.putInt(4, VERSION);
+        file.putInt(8, slotCount);
+        file.putInt(12, slotBytes);
+
+        for (int slot = 0; slot < slotCount; slot++) {
+            ByteBuffer view = file.duplicate();
+            int start = HEADER_BYTES + slot * (SLOT_HEADER_BYTES + slotBytes);
+            view.position(start);
+            view.limit(start + SLOT_HEADER_BYTES + slotBytes);
+            slots[slot] = view.slice();
+            // mark the slot empty so that stale requests are rejected
+            slots[slot].putLong(0, 0);
+        }
+    }
+
+    /**
+     * @return where the ring for the detectors on port lives by default; the
+     *         workers derive the same path from the port.
+     */
+    public static String defaultPath(int port) {
+        File sharedMemory = new File("/dev/shm");
+        String directory = sharedMemory.isDirectory() ? sharedMemory.getPath()
+                : System.getProperty("java.io.tmpdir");
+        return new File(directory, "armmark1-frames-" + port).getPath();
+    }
+
+    /**
+     * Claims a free slot and copies image into it.
+     *
+     * @param image
+     *            an 8 bit image, for example a Frame's image() or a region
+     *            of it.
+     * @return the claimed slot, which stays claimed until free(slot), or -1 if
+     *         every slot is claimed or image does not fit in a slot.
+     */
+    public int write(Mat image) {
+        int length = (int) image.total() * image.channels();
+        if (length > slotBytes) {
+            return -1;
+        }
+
+        int slot = claim();
+        if (slot < 0) {
+            return -1;
+        }
+
+        if (staging[slot] == null || staging[slot].length < length) {
+            staging[slot] = new byte[length];
+        }
+        // the OpenCV 3 bindings can only copy pixels out into a Java array
+        image.get(0, 0, staging[slot]);
+
+        ByteBuffer buffer = slots[slot];
+        buffer.clear();
+        buffer.position(SLOT_HEADER_BYTES);
+        buffer.put(staging[slot], 0, length);
+        long sequence = nextSequence.getAndIncrement();
+        buffer.putLong(0, sequence);
+        ByteBuffer.wrap(requests[slot]).putInt(slot).putLong(sequence);
+        buffer.putInt(8, image.cols());
+        buffer.putInt(12, image.rows());
+        buffer.putInt(16, image.channels());
+        buffer.putInt(20, length);
+        return slot;
+    }
+
+    /**
+     * @return the sequence number of the frame last written to slot.
+     */
+    public long sequence(int slot) {
+        return slots[slot].getLong(0);
+    }
+
+    /**
+     * @return the DetectorRequestKind.SHARED_FRAME payload naming the frame
+     *         last written to slot. The array belongs to the slot and is
+     *         rewritten by the next write() to it, so it must not be kept
+     *         past free(slot).
+     */
+    public byte[] request(int slot) {
+        return requests[slot];
+    }
+
+    /**
+     * Gives slot back once no worker will read it any more.
+     */
+    public void free(int slot) {
+        busy.set(slot, 0);
+    }
+
+    /**
+     * @return the number of slots currently claimed.
+     */
+    public int slotsInUse() {
+        int inUse = 0;
+        for (int slot = 0; slot < busy.length(); slot++) {
+            inUse += busy.get(slot);
+        }
+        return inUse;
+    }
+
+    /**
+     * Deletes the ring file, so that none is left behind once the detectors
+     * have stopped. Workers that still have it mapped keep their mapping.
+     */
+    public void close() throws IOException {
+        if (path.exists() && !path.delete()) {
+            throw new IOException("Could not delete " + path);
+        }
+    }
+
+    private int claim() {
+        int start = Math.floorMod(nextSlot.getAndIncrement(), busy.length());
+        for (int offset = 0; offset < busy.length(); offset++) {
+            int slot = (start + offset) % busy.length();
+            if (busy.compareAndSet(slot, 0, 1)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+}
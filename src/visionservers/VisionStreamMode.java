@@ -0,0 +1,19 @@
+package visionservers;
+
+/**
+ * How the camera client on the arm delivers frames to an ArmVisionServer.
+ */
+public enum VisionStreamMode {
+    /**
+     * The client opens a new connection for every frame and closes it once
+     * the JPEG bytes have been written. This is what the arm's camera client
+     * sends unless it has been changed to stream.
+     */
+    ACCEPT_PER_FRAME,
+    /**
+     * The client keeps one connection open and sends every frame as a
+     * header (int length, long sequence number, long capture timestamp in
+     * milliseconds, all big-endian) followed by length bytes of JPEG.
+     */
+    PERSISTENT_STREAM
+}